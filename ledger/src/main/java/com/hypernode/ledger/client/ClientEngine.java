@@ -1,19 +1,23 @@
 package com.hypernode.ledger.client;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.hypernode.ledger.contracts.AccountProof;
 import com.hypernode.ledger.contracts.StatusDataContract;
 import com.hypernode.ledger.contracts.AccountAttributesUpdate;
-import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
 import com.hypernode.ledger.webService.WebServiceCaller;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 @Service
 public class ClientEngine {
     private EncryptionEntity_BaseInterface encryptionEntity;
     String endpoint;
+    //validators whose signed status hash is accepted in an account proof
+    private Set<String> trustedValidators = Set.of();
 
     public static ClientEngine create(EncryptionEntity_BaseInterface entity, String endpoint)
     {
@@ -49,10 +53,28 @@ public class ClientEngine {
     {
         return WebServiceCaller.callServerMethodThrows(endpoint, "hdls/getAccountInfo", publicKey, new TypeReference<String>() {});
     }
+    /**
+     * Reads an account through its merkle proof, checked against the status hash signed by one of the trusted validators.
+     *
+     * @return the proof, or null if the account does not exist, the proof does not verify or no validator is trusted yet
+     */
+    public AccountProof getVerifiedAccountProof(String publicKey)
+    {
+        if (trustedValidators.isEmpty())
+        {
+            return null;
+        }
+        AccountProof ret = WebServiceCaller.callServerMethodThrows(endpoint, "hdls/getAccountProof", publicKey, new TypeReference<AccountProof>() {});
+        if(ret != null && ret.verify(trustedValidators) && ret.getAccount().getPublicKey().equals(publicKey))
+        {
+            return ret;
+        }
+        return null;
+    }
     public StatusDataContract getStatus()
     {
         StatusDataContract ret =  WebServiceCaller.callServerMethodThrows(endpoint, "hdls/getStatus", null, new TypeReference<StatusDataContract>() {});
-        if(Encryption.hash(ret.getStringToSign()).equals(ret.getHash()))
+        if(ret.calculateHash().equals(ret.getHash()))
         {
             return ret;
         }
@@ -73,6 +95,8 @@ public class ClientEngine {
     }
 
     public void setEndpoint(String endpoint) {this.endpoint = endpoint;}
+    public void setTrustedValidators(Collection<String> trustedValidators) {this.trustedValidators = Set.copyOf(trustedValidators);}
+    public Set<String> getTrustedValidators() {return trustedValidators;}
     public String getEndpoint() {return endpoint;}
     public EncryptionEntity_BaseInterface getEncryptionEntity(){ return encryptionEntity;}
     public void setEncryptionEntity(EncryptionEntity_BaseInterface credentials){ encryptionEntity = credentials;}
@@ -8,12 +8,15 @@ import com.hypernode.ledger.encryptionInterfaces.Encryption;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class AccountAttributesUpdate
 {
+    @BinaryBase64
     private String from;
     private String name;
     private String description;
+    @BinaryBase64
     private String delegated;
     private int blockId;
     private String previousBlockHash;
+    @BinaryBase64
     private String signatureValue;
 
     public boolean validate(int blockId, String blockHash)
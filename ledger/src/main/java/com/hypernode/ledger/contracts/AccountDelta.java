@@ -0,0 +1,61 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The accounts a block changed: the new version of every account added or modified, and the keys of the removed ones.
+ * Applied to the accounts of the parent status it gives the accounts of the status produced by the block.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AccountDelta
+{
+    private List<DistributedLedgerAccount> changedAccounts;
+    private List<String> removedAccounts;
+
+    public static AccountDelta between(AccountStore _parent, AccountStore _child)
+    {
+        AccountDelta ret = new AccountDelta();
+        ret.changedAccounts = new ArrayList<>();
+        ret.removedAccounts = new ArrayList<>();
+        for (String publicKey : _child.changedKeys(_parent))
+        {
+            DistributedLedgerAccount before = _parent.get(publicKey);
+            DistributedLedgerAccount after = _child.get(publicKey);
+            if (after == null)
+            {
+                ret.removedAccounts.add(publicKey);
+            }
+            else if (before == null || !before.uniqueString().equals(after.uniqueString()))
+            {
+                //replaced by an account with the same content is not a change
+                ret.changedAccounts.add(after);
+            }
+        }
+        ret.changedAccounts.sort(Comparator.comparing(DistributedLedgerAccount::getPublicKey, Comparator.nullsFirst(Comparator.naturalOrder())));
+        ret.removedAccounts.sort(Comparator.naturalOrder());
+        return ret;
+    }
+
+    public void applyTo(AccountStore _accounts)
+    {
+        for (String publicKey : removedAccounts)
+        {
+            DistributedLedgerAccount account = _accounts.get(publicKey);
+            if (account != null)
+            {
+                _accounts.remove(account);
+            }
+        }
+        _accounts.addAll(changedAccounts);
+    }
+
+    //getters and setters
+    public List<DistributedLedgerAccount> getChangedAccounts() {return changedAccounts;}
+    public void setChangedAccounts(List<DistributedLedgerAccount> changedAccounts) {this.changedAccounts = changedAccounts;}
+    public List<String> getRemovedAccounts() {return removedAccounts;}
+    public void setRemovedAccounts(List<String> removedAccounts) {this.removedAccounts = removedAccounts;}
+}
@@ -0,0 +1,27 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A payment that touched an account, with the id of the block that applied it.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AccountPayment
+{
+    private int blockId;//id of the status the payment is part of
+    private Payment payment;
+
+    public static AccountPayment create(int _blockId, Payment _payment)
+    {
+        AccountPayment ret = new AccountPayment();
+        ret.blockId = _blockId;
+        ret.payment = _payment;
+        return ret;
+    }
+
+    //getters and setters
+    public int getBlockId() {return blockId;}
+    public void setBlockId(int blockId) {this.blockId = blockId;}
+    public Payment getPayment() {return payment;}
+    public void setPayment(Payment payment) {this.payment = payment;}
+}
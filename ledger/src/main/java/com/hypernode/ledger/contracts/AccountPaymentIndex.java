@@ -0,0 +1,149 @@
+package com.hypernode.ledger.contracts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * For every public key, the payments it sent or received, in the order the blocks applied them.
+ * Filled as blocks are accepted, so a wallet can page through the payments of one account
+ * without going through the whole history.
+ *
+ * Only a reference is kept per payment, the block id and the position of the payment in its block, packed in a long.
+ * The payments of a page are read back from the blocks, the recent ones in memory and the older ones in the block log,
+ * so the index costs a few bytes per payment instead of the payment and its signature.
+ */
+public class AccountPaymentIndex
+{
+    private final Map<String, Entries> byPublicKey = new ConcurrentHashMap<>();
+    //block id to block, null if it is not there
+    private final IntFunction<BlockRecord> blocks;
+    private volatile int lastBlockId = -1;
+
+    //append only, so the offsets of a page never move
+    private static final class Entries
+    {
+        private long[] references = new long[4];
+        private volatile int size;
+
+        synchronized void add(long _reference)
+        {
+            if (size == references.length)
+            {
+                references = Arrays.copyOf(references, size * 2);
+            }
+            references[size] = _reference;
+            size++;
+        }
+
+        synchronized long[] page(int _offset, int _limit)
+        {
+            int end = (int) Math.min((long) _offset + _limit, size);
+            return _offset >= end ? new long[0] : Arrays.copyOfRange(references, _offset, end);
+        }
+    }
+
+    /**
+     * @param _blocks where the payments of a page are read from, by block id
+     */
+    public static AccountPaymentIndex create(IntFunction<BlockRecord> _blocks) {return new AccountPaymentIndex(_blocks);}
+
+    private AccountPaymentIndex(IntFunction<BlockRecord> _blocks)
+    {
+        this.blocks = _blocks;
+    }
+
+    /**
+     * Adds the payments of an accepted block, under the sender and under the receiver.
+     * A block that is not after the last one added is ignored, so the log can be replayed over blocks already indexed.
+     *
+     * @param _accounts accounts of the resulting status, to find the public key of payments that only have a name
+     */
+    public synchronized void addBlock(BlockRecord _blockRecord, AccountStore _accounts)
+    {
+        if (_blockRecord.getBlockId() <= lastBlockId)
+        {
+            return;
+        }
+        lastBlockId = _blockRecord.getBlockId();
+        List<Payment> payments = sortedPayments(_blockRecord);
+        for (int position = 0; position < payments.size(); position++)
+        {
+            Payment payment = payments.get(position);
+            long reference = ((long) _blockRecord.getBlockId() << 32) | position;
+            String from = publicKeyOf(payment.getPublicKeyFrom(), payment.getFrom(), _accounts);
+            String to = publicKeyOf(payment.getPublicKeyTo(), payment.getTo(), _accounts);
+            if (from != null)
+            {
+                byPublicKey.computeIfAbsent(from, k -> new Entries()).add(reference);
+            }
+            if (to != null && !to.equals(from))
+            {
+                byPublicKey.computeIfAbsent(to, k -> new Entries()).add(reference);
+            }
+        }
+    }
+
+    /**
+     * @param _offset position of the first payment, 0 is the oldest one
+     * @param _limit maximum number of payments
+     * @return the page, without the payments whose block can not be read anymore
+     */
+    public AccountPaymentsPage getPayments(String _publicKey, int _offset, int _limit)
+    {
+        Entries entries = _publicKey == null ? null : byPublicKey.get(_publicKey);
+        if (entries == null)
+        {
+            return AccountPaymentsPage.create(_publicKey, 0, -1, List.of());
+        }
+        int total = entries.size;
+        int offset = Math.max(_offset, 0);
+        long[] references = entries.page(offset, Math.max(_limit, 0));
+        //a page usually has several payments from the same block, each block is read once
+        Map<Integer, List<Payment>> paymentsByBlock = new HashMap<>();
+        List<AccountPayment> payments = new ArrayList<>(references.length);
+        for (long reference : references)
+        {
+            int blockId = (int) (reference >>> 32);
+            int position = (int) reference;
+            List<Payment> blockPayments = paymentsByBlock.computeIfAbsent(blockId, id -> {
+                BlockRecord blockRecord = blocks == null ? null : blocks.apply(id);
+                return blockRecord == null ? List.of() : sortedPayments(blockRecord);
+            });
+            if (position < blockPayments.size())
+            {
+                payments.add(AccountPayment.create(blockId, blockPayments.get(position)));
+            }
+        }
+        int next = offset + references.length;
+        return AccountPaymentsPage.create(_publicKey, total, next < total && references.length > 0 ? next : -1, payments);
+    }
+
+    public int getLastBlockId() {return lastBlockId;}
+
+    //the order inside a block does not depend on the order of the set, the positions are taken in this order
+    private static List<Payment> sortedPayments(BlockRecord _blockRecord)
+    {
+        if (_blockRecord.getMessage() == null || _blockRecord.getMessage().getPaymentSet() == null)
+        {
+            return List.of();
+        }
+        List<Payment> ret = new ArrayList<>(_blockRecord.getMessage().getPaymentSet());
+        ret.sort((a, b) -> a.uniqueString().compareTo(b.uniqueString()));
+        return ret;
+    }
+
+    private static String publicKeyOf(String _publicKey, String _nameOrPublicKey, AccountStore _accounts)
+    {
+        if (_publicKey != null && !_publicKey.isEmpty())
+        {
+            return _publicKey;
+        }
+        String ret = _accounts == null ? null : _accounts.nameToPublicKey(_nameOrPublicKey);
+        return ret != null ? ret : _nameOrPublicKey;
+    }
+}
@@ -0,0 +1,38 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A page of the payments of an account, oldest first.
+ * nextOffset is the offset of the following page, -1 on the last one.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AccountPaymentsPage
+{
+    private String publicKey;
+    private int total;
+    private int nextOffset;
+    private List<AccountPayment> payments;
+
+    public static AccountPaymentsPage create(String _publicKey, int _total, int _nextOffset, List<AccountPayment> _payments)
+    {
+        AccountPaymentsPage ret = new AccountPaymentsPage();
+        ret.publicKey = _publicKey;
+        ret.total = _total;
+        ret.nextOffset = _nextOffset;
+        ret.payments = _payments;
+        return ret;
+    }
+
+    //getters and setters
+    public String getPublicKey() {return publicKey;}
+    public void setPublicKey(String publicKey) {this.publicKey = publicKey;}
+    public int getTotal() {return total;}
+    public void setTotal(int total) {this.total = total;}
+    public int getNextOffset() {return nextOffset;}
+    public void setNextOffset(int nextOffset) {this.nextOffset = nextOffset;}
+    public List<AccountPayment> getPayments() {return payments;}
+    public void setPayments(List<AccountPayment> payments) {this.payments = payments;}
+}
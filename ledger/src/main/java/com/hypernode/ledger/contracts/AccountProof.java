@@ -0,0 +1,95 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One account plus its merkle path to the signed status hash (see StatusDataContract.getAccountProof).
+ * A few KB instead of the whole ledger, clients polling a balance verify this one.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AccountProof
+{
+    private int statusId;
+    private String statusHash;
+    private Signature statusSignature;
+    private DistributedLedgerAccount account;
+    private int bucket;
+    private List<String> bucketHashes;
+    private List<String> siblingHashes;
+    //the rest of the status hash
+    private String validatorsRoot;
+    private String ledgerParameters;
+    private String nextLedgerParameters;
+    private String hashPreviousBlock;
+
+    public static AccountProof create(int statusId, String statusHash, Signature statusSignature, DistributedLedgerAccount account, MerkleStateTree.Proof proof,
+                                      String validatorsRoot, String ledgerParameters, String nextLedgerParameters, String hashPreviousBlock)
+    {
+        AccountProof ret = new AccountProof();
+        ret.statusId = statusId;
+        ret.statusHash = statusHash;
+        ret.statusSignature = statusSignature;
+        ret.account = account;
+        ret.bucket = proof.bucket();
+        ret.bucketHashes = proof.bucketHashes();
+        ret.siblingHashes = proof.siblingHashes();
+        ret.validatorsRoot = validatorsRoot;
+        ret.ledgerParameters = ledgerParameters;
+        ret.nextLedgerParameters = nextLedgerParameters;
+        ret.hashPreviousBlock = hashPreviousBlock;
+        return ret;
+    }
+
+    /**
+     * Anyone can build a tree with any account and sign its hash, the proof only means something if the signer is trusted.
+     *
+     * @param _trustedSigners public keys of the validators whose signature on the status is accepted
+     * @return true if the account is part of the status with statusHash, and statusHash is signed by one of the trusted signers
+     */
+    @JsonIgnore
+    public boolean verify(Collection<String> _trustedSigners)
+    {
+        if (this.account == null || this.statusHash == null || this.statusSignature == null
+                || _trustedSigners == null || !_trustedSigners.contains(this.statusSignature.getPublicKey()))
+        {
+            return false;
+        }
+        String accountsRoot = MerkleStateTree.computeRoot(this.account.getPublicKey(), this.account.uniqueString(),
+                StatusDataContract.ACCOUNTS_TREE_DEPTH, new MerkleStateTree.Proof(this.bucket, this.bucketHashes, this.siblingHashes));
+        if (accountsRoot == null)
+        {
+            return false;
+        }
+        String computedHash = StatusDataContract.hashFromRoots(this.statusId, accountsRoot, this.validatorsRoot,
+                this.ledgerParameters, this.nextLedgerParameters, this.hashPreviousBlock);
+        return computedHash.equals(this.statusHash) && this.statusSignature.validate(this.statusHash);
+    }
+
+    //getters and setters
+    public int getStatusId() {return statusId;}
+    public void setStatusId(int statusId) {this.statusId = statusId;}
+    public String getStatusHash() {return statusHash;}
+    public void setStatusHash(String statusHash) {this.statusHash = statusHash;}
+    public Signature getStatusSignature() {return statusSignature;}
+    public void setStatusSignature(Signature statusSignature) {this.statusSignature = statusSignature;}
+    public DistributedLedgerAccount getAccount() {return account;}
+    public void setAccount(DistributedLedgerAccount account) {this.account = account;}
+    public int getBucket() {return bucket;}
+    public void setBucket(int bucket) {this.bucket = bucket;}
+    public List<String> getBucketHashes() {return bucketHashes;}
+    public void setBucketHashes(List<String> bucketHashes) {this.bucketHashes = bucketHashes;}
+    public List<String> getSiblingHashes() {return siblingHashes;}
+    public void setSiblingHashes(List<String> siblingHashes) {this.siblingHashes = siblingHashes;}
+    public String getValidatorsRoot() {return validatorsRoot;}
+    public void setValidatorsRoot(String validatorsRoot) {this.validatorsRoot = validatorsRoot;}
+    public String getLedgerParameters() {return ledgerParameters;}
+    public void setLedgerParameters(String ledgerParameters) {this.ledgerParameters = ledgerParameters;}
+    public String getNextLedgerParameters() {return nextLedgerParameters;}
+    public void setNextLedgerParameters(String nextLedgerParameters) {this.nextLedgerParameters = nextLedgerParameters;}
+    public String getHashPreviousBlock() {return hashPreviousBlock;}
+    public void setHashPreviousBlock(String hashPreviousBlock) {this.hashPreviousBlock = hashPreviousBlock;}
+}
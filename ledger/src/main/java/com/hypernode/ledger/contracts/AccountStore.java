@@ -0,0 +1,292 @@
+package com.hypernode.ledger.contracts;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The accounts of a status, indexed by public key, by name and by the validator node they delegate to.
+ * It is still a Set<DistributedLedgerAccount>, so the code and the JSON that deal with the set keep working,
+ * but the lookups that used to scan every account are now a map access.
+ *
+ * There is one account per public key: adding an account whose key is already present replaces the old one.
+ * The accounts by key are a PersistentHashMap, so snapshot() is O(1) and a snapshot shares every account
+ * that does not change afterwards with this store. Writers are serialized, readers never lock.
+ * The names are a PersistentHashMap too and go with the snapshot, so the name of a key and the key of a name
+ * are always a map access: that is the name registry used to put names instead of keys on the wire.
+ * The validator index of a snapshot is built the first time it is asked for.
+ */
+public class AccountStore extends AbstractSet<DistributedLedgerAccount>
+{
+    private volatile PersistentHashMap<DistributedLedgerAccount> byPublicKey = PersistentHashMap.empty();
+    private volatile PersistentHashMap<String> publicKeyByName = PersistentHashMap.empty();
+    //null until needed, then kept up to date by every change
+    private volatile Map<String, Set<DistributedLedgerAccount>> byValidatorNode;
+
+    public static AccountStore create(Collection<DistributedLedgerAccount> _accounts)
+    {
+        AccountStore ret = new AccountStore();
+        if (_accounts != null)
+        {
+            ret.addAll(_accounts);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the set itself if it is already a store, a new store with its accounts otherwise
+     */
+    public static AccountStore of(Collection<DistributedLedgerAccount> _accounts)
+    {
+        return _accounts instanceof AccountStore store ? store : AccountStore.create(_accounts);
+    }
+
+    /**
+     * @return a store with the accounts as they are now, changes to either store are not seen by the other
+     */
+    public AccountStore snapshot()
+    {
+        AccountStore ret = new AccountStore();
+        synchronized (this)
+        {
+            ret.byPublicKey = this.byPublicKey;
+            ret.publicKeyByName = this.publicKeyByName;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the public keys whose account was added, removed or replaced since _previous,
+     *         cheap when this store was derived from _previous through snapshot()
+     */
+    public List<String> changedKeys(AccountStore _previous)
+    {
+        return PersistentHashMap.changedKeys(_previous.byPublicKey, this.byPublicKey);
+    }
+
+    public DistributedLedgerAccount get(String _publicKey)
+    {
+        return _publicKey == null ? null : byPublicKey.get(_publicKey);
+    }
+
+    public DistributedLedgerAccount getByName(String _name)
+    {
+        return this.get(this.nameToPublicKey(_name));
+    }
+
+    /**
+     * @return the public key of the account with this name, null if there is none
+     */
+    public String nameToPublicKey(String _name)
+    {
+        return _name == null || _name.isEmpty() ? null : publicKeyByName.get(_name);
+    }
+
+    /**
+     * @return the name of the account with this public key, null if it has no name
+     */
+    public String publicKeyToName(String _publicKey)
+    {
+        DistributedLedgerAccount account = this.get(_publicKey);
+        return account == null || account.getName() == null || account.getName().isEmpty() ? null : account.getName();
+    }
+
+    public boolean containsKey(String _publicKey)
+    {
+        return _publicKey != null && byPublicKey.containsKey(_publicKey);
+    }
+
+    /**
+     * @return the accounts that delegate to this validator node, empty if none
+     */
+    public Set<DistributedLedgerAccount> getDelegators(String _validatorNode)
+    {
+        Set<DistributedLedgerAccount> ret = _validatorNode == null ? null : this.byValidatorNode().get(_validatorNode);
+        return ret == null ? Set.of() : Collections.unmodifiableSet(ret);
+    }
+
+    /**
+     * Same result as DistributedLedgerAccount.calculateAmountDelegated, read from the delegators index.
+     */
+    public Map<String, BigDecimal> calculateAmountDelegated()
+    {
+        Map<String, BigDecimal> ret = new HashMap<>();
+        this.byValidatorNode().forEach((validatorNode, delegators) -> {
+            if (!delegators.isEmpty())
+            {
+                ret.put(validatorNode, delegators.stream().collect(AmountTally.summing(DistributedLedgerAccount::getAmount)).toBigDecimal());
+            }
+        });
+        return ret;
+    }
+
+    @Override
+    public synchronized boolean add(DistributedLedgerAccount _account)
+    {
+        String key = keyOf(_account.getPublicKey());
+        DistributedLedgerAccount previous = byPublicKey.get(key);
+        byPublicKey = byPublicKey.put(key, _account);
+        if (previous != null)
+        {
+            this.unindex(previous);
+        }
+        this.index(_account);
+        //same content, the object is replaced but the set did not change
+        return previous == null || !previous.equals(_account);
+    }
+
+    @Override
+    public synchronized boolean remove(Object o)
+    {
+        if (!(o instanceof DistributedLedgerAccount account))
+        {
+            return false;
+        }
+        String key = keyOf(account.getPublicKey());
+        DistributedLedgerAccount current = byPublicKey.get(key);
+        if (current == null || !current.equals(account))
+        {
+            return false;
+        }
+        byPublicKey = byPublicKey.remove(key);
+        this.unindex(current);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof DistributedLedgerAccount account))
+        {
+            return false;
+        }
+        DistributedLedgerAccount current = byPublicKey.get(keyOf(account.getPublicKey()));
+        return current != null && current.equals(account);
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        byPublicKey = PersistentHashMap.empty();
+        publicKeyByName = PersistentHashMap.empty();
+        byValidatorNode = null;
+    }
+
+    @Override
+    public int size() {return byPublicKey.size();}
+
+    /**
+     * Iterates over the accounts as they were when the iterator was created.
+     */
+    @Override
+    public Iterator<DistributedLedgerAccount> iterator()
+    {
+        Iterator<DistributedLedgerAccount> iterator = byPublicKey.iterator();
+        return new Iterator<>() {
+            private DistributedLedgerAccount last;
+
+            @Override
+            public boolean hasNext() {return iterator.hasNext();}
+
+            @Override
+            public DistributedLedgerAccount next()
+            {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                if (last == null)
+                {
+                    throw new IllegalStateException();
+                }
+                AccountStore.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private Map<String, Set<DistributedLedgerAccount>> byValidatorNode()
+    {
+        if (byValidatorNode == null)
+        {
+            this.buildValidatorNodeIndex();
+        }
+        return byValidatorNode;
+    }
+
+    private synchronized void buildValidatorNodeIndex()
+    {
+        if (byValidatorNode != null)
+        {
+            return;
+        }
+        //filled before it is published, the readers do not lock
+        Map<String, Set<DistributedLedgerAccount>> validatorNodes = new ConcurrentHashMap<>();
+        for (DistributedLedgerAccount account : byPublicKey)
+        {
+            addToIndex(validatorNodes, account.getValidatorNode(), account);
+        }
+        byValidatorNode = validatorNodes;
+    }
+
+    private void index(DistributedLedgerAccount _account)
+    {
+        if (_account.getName() != null && !_account.getName().isEmpty())
+        {
+            publicKeyByName = publicKeyByName.put(_account.getName(), keyOf(_account.getPublicKey()));
+        }
+        if (byValidatorNode != null)
+        {
+            addToIndex(byValidatorNode, _account.getValidatorNode(), _account);
+        }
+    }
+
+    //a new set is only published once it holds the account, so a reader never finds it empty
+    private static void addToIndex(Map<String, Set<DistributedLedgerAccount>> _index, String _key, DistributedLedgerAccount _account)
+    {
+        if (_key == null)
+        {
+            return;
+        }
+        _index.compute(_key, (k, accounts) -> {
+            Set<DistributedLedgerAccount> ret = accounts == null ? ConcurrentHashMap.newKeySet() : accounts;
+            ret.add(_account);
+            return ret;
+        });
+    }
+
+    private void unindex(DistributedLedgerAccount _account)
+    {
+        //only if the name still points to this account, two accounts with the same name should not happen but the last one wins
+        if (_account.getName() != null && !_account.getName().isEmpty()
+                && keyOf(_account.getPublicKey()).equals(publicKeyByName.get(_account.getName())))
+        {
+            publicKeyByName = publicKeyByName.remove(_account.getName());
+        }
+        if (byValidatorNode != null)
+        {
+            removeFromIndex(byValidatorNode, _account.getValidatorNode(), _account);
+        }
+    }
+
+    private static void removeFromIndex(Map<String, Set<DistributedLedgerAccount>> _index, String _key, DistributedLedgerAccount _account)
+    {
+        if (_key == null)
+        {
+            return;
+        }
+        _index.computeIfPresent(_key, (k, accounts) -> {
+            accounts.remove(_account);
+            return accounts.isEmpty() ? null : accounts;
+        });
+    }
+
+    //the map does not take null keys, an account without key is stored under ""
+    private static String keyOf(String _publicKey)
+    {
+        return _publicKey == null ? "" : _publicKey;
+    }
+}
@@ -0,0 +1,174 @@
+package com.hypernode.ledger.contracts;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * Running sum of amounts kept as a long of minor units plus the scale, so adding up balances
+ * and votes does not allocate a BigDecimal at every step.
+ * The scale grows with the most precise amount added, exactly like BigDecimal.add, so toBigDecimal()
+ * gives back the same value and the same scale the BigDecimal sum would have had.
+ * If a value does not fit (more than 18 decimals, or the sum overflows a long) the tally
+ * silently carries on as a BigDecimal.
+ *
+ * The contracts and the JSON keep their BigDecimal amounts, this is only for the arithmetic in between.
+ */
+public final class AmountTally implements Comparable<AmountTally>
+{
+    private static final int MAX_SCALE = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private long unscaled;
+    private int scale;
+    private BigDecimal fallback;//not null once the long is not enough
+
+    public static AmountTally create() {return new AmountTally();}
+
+    public static AmountTally of(BigDecimal _value) {return new AmountTally().add(_value);}
+
+    public AmountTally add(BigDecimal _value)
+    {
+        return this.add(_value, false);
+    }
+
+    public AmountTally subtract(BigDecimal _value)
+    {
+        return this.add(_value, true);
+    }
+
+    public AmountTally add(AmountTally _other)
+    {
+        if (_other.fallback != null)
+        {
+            return this.add(_other.fallback, false);
+        }
+        return this.add(_other.unscaled, _other.scale, false);
+    }
+
+    public AmountTally subtract(AmountTally _other)
+    {
+        if (_other.fallback != null)
+        {
+            return this.add(_other.fallback, true);
+        }
+        return this.add(_other.unscaled, _other.scale, true);
+    }
+
+    private AmountTally add(BigDecimal _value, boolean _negate)
+    {
+        if (fallback == null && _value.scale() >= 0 && _value.scale() <= MAX_SCALE && _value.unscaledValue().bitLength() < 64)
+        {
+            return this.add(_value.unscaledValue().longValue(), _value.scale(), _negate);
+        }
+        fallback = _negate ? this.toBigDecimal().subtract(_value) : this.toBigDecimal().add(_value);
+        return this;
+    }
+
+    private AmountTally add(long _unscaled, int _scale, boolean _negate)
+    {
+        if (fallback == null)
+        {
+            try
+            {
+                int newScale = Math.max(scale, _scale);
+                long left = Math.multiplyExact(unscaled, POWERS_OF_TEN[newScale - scale]);
+                long right = Math.multiplyExact(_unscaled, POWERS_OF_TEN[newScale - _scale]);
+                unscaled = _negate ? Math.subtractExact(left, right) : Math.addExact(left, right);
+                scale = newScale;
+                return this;
+            }
+            catch (ArithmeticException e)
+            {
+                //overflow, carry on in BigDecimal
+            }
+        }
+        BigDecimal value = BigDecimal.valueOf(_unscaled, _scale);
+        fallback = _negate ? this.toBigDecimal().subtract(value) : this.toBigDecimal().add(value);
+        return this;
+    }
+
+    public AmountTally doubled()
+    {
+        AmountTally ret = new AmountTally();
+        ret.add(this);
+        return ret.add(this);
+    }
+
+    public int signum()
+    {
+        return fallback != null ? fallback.signum() : Long.signum(unscaled);
+    }
+
+    public BigDecimal toBigDecimal()
+    {
+        return fallback != null ? fallback : BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * Numeric comparison, like BigDecimal.compareTo the scale does not matter.
+     */
+    @Override
+    public int compareTo(AmountTally _other)
+    {
+        if (fallback == null && _other.fallback == null)
+        {
+            int newScale = Math.max(scale, _other.scale);
+            try
+            {
+                return Long.compare(Math.multiplyExact(unscaled, POWERS_OF_TEN[newScale - scale]),
+                        Math.multiplyExact(_other.unscaled, POWERS_OF_TEN[newScale - _other.scale]));
+            }
+            catch (ArithmeticException e)
+            {
+                //too large once aligned, compare as BigDecimal
+            }
+        }
+        return this.toBigDecimal().compareTo(_other.toBigDecimal());
+    }
+
+    public int compareTo(BigDecimal _other)
+    {
+        return this.compareTo(AmountTally.of(_other));
+    }
+
+    /**
+     * Sums the amounts per key, the counterpart of toMap(key, amount, BigDecimal::add) with one tally per key.
+     * The tallies of different threads are merged, so it can be used on a parallel stream.
+     */
+    public static <T> Collector<T, ?, Map<String, AmountTally>> summingBy(Function<T, String> _key, Function<T, BigDecimal> _amount)
+    {
+        return Collector.of(
+                HashMap::new,
+                (Map<String, AmountTally> map, T t) -> map.computeIfAbsent(_key.apply(t), k -> new AmountTally()).add(_amount.apply(t)),
+                (left, right) -> {
+                    right.forEach((k, v) -> left.merge(k, v, AmountTally::add));
+                    return left;
+                });
+    }
+
+    public static <T> Collector<T, AmountTally, AmountTally> summing(Function<T, BigDecimal> _amount)
+    {
+        return Collector.of(AmountTally::new, (tally, t) -> tally.add(_amount.apply(t)), AmountTally::add);
+    }
+
+    public static Map<String, BigDecimal> toBigDecimals(Map<String, AmountTally> _tallies)
+    {
+        Map<String, BigDecimal> ret = new HashMap<>(Math.max(16, _tallies.size() * 2));
+        _tallies.forEach((k, v) -> ret.put(k, v.toBigDecimal()));
+        return ret;
+    }
+
+    @Override
+    public String toString() {return this.toBigDecimal().toPlainString();}
+}
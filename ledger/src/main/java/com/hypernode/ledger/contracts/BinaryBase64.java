@@ -0,0 +1,90 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JacksonAnnotationsInside;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.Base64;
+
+/**
+ * Marks a String property that normally holds base64 data (public keys, signatures).
+ * In JSON nothing changes, while binary formats that can write bytes natively (CBOR)
+ * get the raw bytes instead of the base64 text, which is a third bigger.
+ * Values that would not survive the round trip (names, "#" indexes, empty strings)
+ * are written as plain text in every format, so reading back always gives the original string.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+@JacksonAnnotationsInside
+@JsonSerialize(using = BinaryBase64.Serializer.class)
+@JsonDeserialize(using = BinaryBase64.Deserializer.class)
+public @interface BinaryBase64
+{
+    class Serializer extends StdSerializer<String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Serializer() {super(String.class);}
+
+        @Override
+        public void serialize(String value, JsonGenerator gen, SerializerProvider provider) throws IOException
+        {
+            if (gen.canWriteBinaryNatively())
+            {
+                byte[] rawBytes = toRawBytes(value);
+                if (rawBytes != null)
+                {
+                    gen.writeBinary(rawBytes);
+                    return;
+                }
+            }
+            gen.writeString(value);
+        }
+
+        static byte[] toRawBytes(String value)
+        {
+            if (value == null || value.isEmpty())
+            {
+                return null;
+            }
+            try
+            {
+                byte[] rawBytes = Base64.getDecoder().decode(value);
+                return Base64.getEncoder().encodeToString(rawBytes).equals(value) ? rawBytes : null;
+            }
+            catch (IllegalArgumentException e)
+            {
+                return null;//not base64, it will travel as text
+            }
+        }
+    }
+
+    class Deserializer extends StdDeserializer<String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Deserializer() {super(String.class);}
+
+        @Override
+        public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException
+        {
+            if (p.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT)
+            {
+                return Base64.getEncoder().encodeToString(p.getBinaryValue());
+            }
+            return p.getValueAsString();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What is kept of an accepted block: the merged message that was applied, who was banned, the signatures of the quorum,
+ * the hashes that chain it to the status before and after, and what changed in the status.
+ * Its size depends on the transactions of the block, not on the size of the ledger:
+ * the accounts are a delta against the parent status, the validators and the parameters are only there if they changed.
+ * applyTo rebuilds the resulting status from the parent one.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BlockRecord
+{
+    private int blockId;//id of the resulting status
+    private String statusHash;
+    private String hashPreviousBlock;
+    private ValidatorMessageDataContract message;
+    private Set<String> bannedValidators;
+    private Set<String> validValidatorNodes;
+    private Set<Signature> quorumSignatures;
+    private AccountDelta accountDelta;
+    //null when the same as in the parent status
+    private List<ValidatorNode> validatorNodeList;
+    private LedgerParameters ledgerParameters;
+    private LedgerParameters nextLedgerParameters;
+
+    public static BlockRecord create(BlockRevisionResult _blockRevisionResult)
+    {
+        BlockRecord ret = new BlockRecord();
+        StatusDataContract parent = _blockRevisionResult.getStatusDataContractStarting();
+        StatusDataContract newStatus = _blockRevisionResult.getNewStatusDataContract();
+        ret.blockId = newStatus.getId();
+        ret.statusHash = newStatus.getHash();
+        ret.hashPreviousBlock = newStatus.getHashPreviousBlock();
+        ret.message = _blockRevisionResult.getAcceptedMessage();
+        ret.bannedValidators = new HashSet<>(_blockRevisionResult.getBannedValidators());
+        ret.validValidatorNodes = new HashSet<>(_blockRevisionResult.getValidValidatorNodes());
+        ret.quorumSignatures = new HashSet<>(_blockRevisionResult.getQuorumSignatures());
+        ret.accountDelta = AccountDelta.between(parent.getAccountStore(), newStatus.getAccountStore());
+        if (!sameValidators(parent.getValidatorNodeList(), newStatus.getValidatorNodeList()))
+        {
+            ret.validatorNodeList = new ArrayList<>(newStatus.getValidatorNodeList());
+        }
+        if (!parent.getLedgerParameters().getStringToSign().equals(newStatus.getLedgerParameters().getStringToSign()))
+        {
+            ret.ledgerParameters = newStatus.getLedgerParameters();
+        }
+        if (!parent.getNextLedgerParameters().getStringToSign().equals(newStatus.getNextLedgerParameters().getStringToSign()))
+        {
+            ret.nextLedgerParameters = newStatus.getNextLedgerParameters();
+        }
+        return ret;
+    }
+
+    /**
+     * @param _parent the status with id blockId - 1
+     * @return the status produced by this block, with the hash it was accepted with,
+     *         null if the parent is not the right one or the record has no delta
+     */
+    public StatusDataContract applyTo(StatusDataContract _parent)
+    {
+        if (_parent.getId() != blockId - 1 || accountDelta == null)
+        {
+            return null;
+        }
+        StatusDataContract ret = _parent.snapshot();
+        accountDelta.applyTo(ret.getAccountStore());
+        if (validatorNodeList != null)
+        {
+            ret.setValidatorNodeList(new ArrayList<>(validatorNodeList));
+        }
+        if (ledgerParameters != null)
+        {
+            ret.setLedgerParameters(ledgerParameters);
+        }
+        if (nextLedgerParameters != null)
+        {
+            ret.setNextLedgerParameters(nextLedgerParameters);
+        }
+        ret.setId(blockId);
+        ret.setHashPreviousBlock(hashPreviousBlock);
+        ret.setHash(statusHash);
+        ret.setSignature(null);
+        ret.indexNewKeys();
+        return ret;
+    }
+
+    private static boolean sameValidators(List<ValidatorNode> _before, List<ValidatorNode> _after)
+    {
+        if (_before == null || _after == null || _before.size() != _after.size())
+        {
+            return _before == _after;
+        }
+        for (int i = 0; i < _before.size(); i++)
+        {
+            if (!_before.get(i).uniqueString().equals(_after.get(i).uniqueString()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //getters and setters
+    public int getBlockId() {return blockId;}
+    public void setBlockId(int blockId) {this.blockId = blockId;}
+    public String getStatusHash() {return statusHash;}
+    public void setStatusHash(String statusHash) {this.statusHash = statusHash;}
+    public String getHashPreviousBlock() {return hashPreviousBlock;}
+    public void setHashPreviousBlock(String hashPreviousBlock) {this.hashPreviousBlock = hashPreviousBlock;}
+    public ValidatorMessageDataContract getMessage() {return message;}
+    public void setMessage(ValidatorMessageDataContract message) {this.message = message;}
+    public Set<String> getBannedValidators() {return bannedValidators;}
+    public void setBannedValidators(Set<String> bannedValidators) {this.bannedValidators = bannedValidators;}
+    public Set<String> getValidValidatorNodes() {return validValidatorNodes;}
+    public void setValidValidatorNodes(Set<String> validValidatorNodes) {this.validValidatorNodes = validValidatorNodes;}
+    public Set<Signature> getQuorumSignatures() {return quorumSignatures;}
+    public void setQuorumSignatures(Set<Signature> quorumSignatures) {this.quorumSignatures = quorumSignatures;}
+    public AccountDelta getAccountDelta() {return accountDelta;}
+    public void setAccountDelta(AccountDelta accountDelta) {this.accountDelta = accountDelta;}
+    public List<ValidatorNode> getValidatorNodeList() {return validatorNodeList;}
+    public void setValidatorNodeList(List<ValidatorNode> validatorNodeList) {this.validatorNodeList = validatorNodeList;}
+    public LedgerParameters getLedgerParameters() {return ledgerParameters;}
+    public void setLedgerParameters(LedgerParameters ledgerParameters) {this.ledgerParameters = ledgerParameters;}
+    public LedgerParameters getNextLedgerParameters() {return nextLedgerParameters;}
+    public void setNextLedgerParameters(LedgerParameters nextLedgerParameters) {this.nextLedgerParameters = nextLedgerParameters;}
+}
@@ -18,6 +18,8 @@ public class BlockRevisionResult
 
     Set<String> validValidatorNodes;
     Map<String, BigDecimal> delegatedAmounts;
+    ValidatorMessageDataContract acceptedMessage;
+    Set<Signature> quorumSignatures = new HashSet<>();
     @JsonIgnore
     public static BlockRevisionResult processRevision(TransportMessageDataContract previousRevisionTransportMessageDataContract, TransportMessageDataContract transportMessageDataContract, StatusDataContract statusDataContract)
     {
@@ -48,13 +50,13 @@ public class BlockRevisionResult
         // with the weights
         // so form a map <signature, sumvalue> revisionSignatureValues
         // and then a map <publickey,signature> if that is above 50%+1 values
-        BigDecimal totalMoney = statusDataContract.getAccountsList().stream().map(DistributedLedgerAccount::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add);
+        AmountTally totalMoney = statusDataContract.getAccountsList().stream().collect(AmountTally.summing(DistributedLedgerAccount::getAmount));
         this.delegatedAmounts = DistributedLedgerAccount.calculateAmountDelegated(statusDataContract.getAccountsList());
-        Map<String, BigDecimal> revisionSignatureValues =
+        Map<String, AmountTally> revisionSignatureValues =
                 transportMessageDataContract.getPreviousBlockRevisionResultSignatures()
                         .stream()
                         .filter(s -> !this.getBannedValidators().contains(s.getPublicKey()))
-                        .collect(Collectors.toMap(Signature::getMessageValue, s -> this.delegatedAmounts.get(s.getPublicKey()), BigDecimal::add));
+                        .collect(AmountTally.summingBy(Signature::getMessageValue, s -> this.delegatedAmounts.getOrDefault(s.getPublicKey(), BigDecimal.ZERO)));
 
         Optional<String> keyWithMaxValue = revisionSignatureValues.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
@@ -64,13 +66,14 @@ public class BlockRevisionResult
         {
             if(keyWithMaxValue.get().length()>1)
             {
-                this.isValid = totalMoney.divide(BigDecimal.TWO).compareTo(revisionSignatureValues.get(keyWithMaxValue.get())) < 0;
+                //more than half: total < 2 * votes
+                this.isValid = totalMoney.compareTo(revisionSignatureValues.get(keyWithMaxValue.get()).doubled()) < 0;
 
+                this.quorumSignatures = transportMessageDataContract.getPreviousBlockRevisionResultSignatures().stream()
+                        .filter(s -> s.getMessageValue().equals(keyWithMaxValue.get()) && !this.bannedValidators.contains(s.getPublicKey()))
+                        .collect(Collectors.toSet());
                 this.validValidatorNodes = new HashSet<>();
-                this.validValidatorNodes.addAll(
-                        transportMessageDataContract.getPreviousBlockRevisionResultSignatures().stream()
-                                .filter(s -> s.getMessageValue().equals(keyWithMaxValue.get()) && !this.bannedValidators.contains(s.getPublicKey()))
-                                .map(Signature::getPublicKey).toList());
+                this.validValidatorNodes.addAll(this.quorumSignatures.stream().map(Signature::getPublicKey).toList());
 
             }
         }
@@ -130,16 +133,20 @@ public class BlockRevisionResult
     }
     @JsonIgnore
     public LedgerParameters getResultingLedgerParameters()
+    {
+        return this.getResultingLedgerParameters(this.statusDataContractStarting.getLedgerParameters());
+    }
+    //_unchanged is what is returned when no parameter change got the majority
+    private LedgerParameters getResultingLedgerParameters(LedgerParameters _unchanged)
     {
         Set<SignedValidatorMessage> messages = this.previousTransportMessageDataContractReceived.getSignedValidatorMessages().stream()
                 .filter(s -> this.validValidatorNodes.contains(s.getOriginalSignature().getPublicKey())).collect(Collectors.toSet());
-        BigDecimal minVal = delegatedAmounts.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add).divide(BigDecimal.TWO);
+        AmountTally totalDelegated = delegatedAmounts.values().stream().collect(AmountTally.summing(v -> v));
         //messages.stream().filter(s-> !this.validValidatorNodes.contains(s.getOriginalSignature().getPublicKey())).toList().forEach(messages::remove);
 
-        Map<String, BigDecimal> votedParameterChanges = messages.stream().collect(Collectors.toMap(
+        Map<String, AmountTally> votedParameterChanges = messages.stream().collect(AmountTally.summingBy(
                 signedValidatorMessage -> signedValidatorMessage.getContract().getVotedParameterChanges().getStringToSign(),
-                signedValidatorMessage -> delegatedAmounts.get(signedValidatorMessage.getOriginalSignature().getPublicKey()),
-                BigDecimal::add));
+                signedValidatorMessage -> delegatedAmounts.getOrDefault(signedValidatorMessage.getOriginalSignature().getPublicKey(), BigDecimal.ZERO)));
 
         Optional<String> keyWithMaxValue = votedParameterChanges.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
@@ -148,7 +155,7 @@ public class BlockRevisionResult
         try
         {
             if (keyWithMaxValue.isPresent()) {
-                if(votedParameterChanges.get(keyWithMaxValue.get()).compareTo(minVal) >0)
+                if(votedParameterChanges.get(keyWithMaxValue.get()).doubled().compareTo(totalDelegated) >0)
                 {
                     return messages.stream().filter(
                             signedValidatorMessage -> signedValidatorMessage.getContract().getVotedParameterChanges().getStringToSign().equals(keyWithMaxValue.get())
@@ -161,7 +168,7 @@ public class BlockRevisionResult
             ErrorHandling.logEvent("error BlockRevisionResults.getResultingLedgerParameters",false,e);
             //something has gone wrong
         }
-        return this.statusDataContractStarting.getLedgerParameters();
+        return _unchanged;
     }
     @JsonIgnore
     //regroup data at the end of the message exchange
@@ -187,13 +194,15 @@ public class BlockRevisionResult
     @JsonIgnore
     public StatusDataContract getResultingStatusDataContract()
     {
-        newStatusDataContract = this.statusDataContractStarting;
+        //the starting status stays as it was, the history keeps it
+        newStatusDataContract = this.statusDataContractStarting.snapshotForNextBlock();
         newStatusDataContract.setHashPreviousBlock(this.statusDataContractStarting.getHash());
 
 
         ValidatorMessageDataContract validatorMessageDataContract = this.getResultingMessage(this.previousTransportMessageDataContractReceived);
-        Set<DistributedLedgerAccount> newDistributedLedgerAccountList = this.statusDataContractStarting.getAccountsList();
-        this.statusDataContractStarting.getAccountsList().stream().filter(c -> this.getBannedValidators().contains(c.getPublicKey())).toList().forEach(newDistributedLedgerAccountList::remove);
+        this.acceptedMessage = validatorMessageDataContract;
+        Set<DistributedLedgerAccount> newDistributedLedgerAccountList = newStatusDataContract.getAccountsList();
+        this.getBannedValidators().stream().map(newStatusDataContract.getAccountStore()::get).filter(Objects::nonNull).toList().forEach(newDistributedLedgerAccountList::remove);
         newDistributedLedgerAccountList =
                 Payment.processPayments(newDistributedLedgerAccountList,
                         validatorMessageDataContract.getPaymentSet(),
@@ -207,7 +216,7 @@ public class BlockRevisionResult
         // therefore the new resulting ledger parameters cannot be valid immediately
         // but will have one block of wait to allow the validators to be sure of the validity
         // of the transactions that they are gathering to be processed in the subsequent block
-        newStatusDataContract.setNextLedgerParameters(this.getResultingLedgerParameters());
+        newStatusDataContract.setNextLedgerParameters(this.getResultingLedgerParameters(newStatusDataContract.getLedgerParameters()));
 
         if(!newStatusDataContract.getNextLedgerParameters().getDistributedLedgerAccountReassignProposals().isEmpty())
         {
@@ -231,12 +240,19 @@ public class BlockRevisionResult
                         validatorMessageDataContract.getValidatorNodes(),
                         newStatusDataContract.getLedgerParameters()));
         newStatusDataContract.setId(this.statusDataContractStarting.getId()+1);
+        newStatusDataContract.indexNewKeys();
         newStatusDataContract.computeHash();
 
         return newStatusDataContract;
     }
 
     public Set<String> getBannedValidators() {return bannedValidators;}
+    //the merged message applied by getResultingStatusDataContract, without the payments of banned senders
+    @JsonIgnore
+    public ValidatorMessageDataContract getAcceptedMessage() {return acceptedMessage;}
+    //the signatures of the validators that agreed on the accepted revision
+    @JsonIgnore
+    public Set<Signature> getQuorumSignatures() {return quorumSignatures;}
     public boolean isValid() {return  this.isValid;}
     public Map<String, BigDecimal> getDelegatedAmounts() {return delegatedAmounts;}
     public Set<String> getValidValidatorNodes() {return validValidatorNodes;}
@@ -9,6 +9,7 @@ import com.hypernode.ledger.ErrorHandling;
 import java.math.BigDecimal;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -16,13 +17,25 @@ import java.util.stream.Collectors;
 public class DistributedLedgerAccount
 {
     private String name = "";
+    @BinaryBase64
     private String publicKey = "";
     private BigDecimal amount;
+    @BinaryBase64
     private String validatorNode;
     private String description;
 
     public static DistributedLedgerAccount find(Set<DistributedLedgerAccount> _set, String _publicKeyFrom)
     {
+        if (_set instanceof AccountStore store)
+        {
+            DistributedLedgerAccount ret = store.get(_publicKeyFrom);
+            if (ret == null)
+            {
+                ErrorHandling.logEvent("error: empty find DistributedLedgerAccount.find",false,null);
+                return new DistributedLedgerAccount();
+            }
+            return ret;
+        }
         try
         {
             return _set.stream().filter(account -> account.getPublicKey().equals(_publicKeyFrom)).findFirst().get();
@@ -35,6 +48,10 @@ public class DistributedLedgerAccount
     }
     public static boolean exists(Set<DistributedLedgerAccount> _set, String _publicKeyFrom)
     {
+        if (_set instanceof AccountStore store)
+        {
+            return store.containsKey(_publicKeyFrom);
+        }
         return _set.stream().anyMatch(account -> account.getPublicKey().equals(_publicKeyFrom));
     }
     public static Set<DistributedLedgerAccount> updateAccountAttributes(final Set<DistributedLedgerAccount> _currencies, final Set<AccountAttributesUpdate> _delegations)
@@ -42,7 +59,8 @@ public class DistributedLedgerAccount
         Set<DistributedLedgerAccount> ret = _currencies;
         Map<String,String> delegationsString = _delegations.stream().collect(Collectors.toMap(AccountAttributesUpdate::getFrom, AccountAttributesUpdate::getDelegated));
         Map<String,String> newName = _delegations.stream().collect(Collectors.toMap(AccountAttributesUpdate::getFrom, AccountAttributesUpdate::getName));
-        Set<String> existingNames = _currencies.stream().map(DistributedLedgerAccount::getName).collect(Collectors.toSet());
+        //the store is the name registry, taken names and accounts are found without going through every account
+        AccountStore registry = AccountStore.of(_currencies);
         Map<String,String> newDescription = _delegations.stream().collect(Collectors.toMap(AccountAttributesUpdate::getFrom, AccountAttributesUpdate::getDescription));
 
 
@@ -51,11 +69,12 @@ public class DistributedLedgerAccount
                 .entrySet().stream()
                 .filter(e -> e.getValue().size() == 1) // Keep groups with only one entry (unique values)
                 .flatMap(e -> e.getValue().stream()) // Flatten the lists back into a stream of original entries
-                .filter(entry -> !existingNames.contains(entry.getValue())) // Filter out banned values
+                .filter(entry -> !entry.getValue().isEmpty() && registry.nameToPublicKey(entry.getValue()) == null) // Filter out banned values
+                .filter(entry -> !entry.getValue().startsWith(KeyIndex.TOKEN_PREFIX)) // reserved for the key index
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
                         (oldValue, newValue) -> oldValue, LinkedHashMap::new));
 
-        Set<DistributedLedgerAccount> update = _currencies.stream().filter(c -> delegationsString.containsKey(c.getPublicKey())).collect(Collectors.toSet());
+        Set<DistributedLedgerAccount> update = delegationsString.keySet().stream().map(registry::get).filter(Objects::nonNull).collect(Collectors.toSet());
         ret.removeAll(update);
         ret.addAll(update.stream().map(c -> DistributedLedgerAccount
                 .create(c.getPublicKey(),finalNewName.getOrDefault(c.getPublicKey(),c.getName()),c.getAmount(),delegationsString.get(c.getPublicKey()),newDescription.getOrDefault(c.getPublicKey(),c.getDescription()))).collect(Collectors.toSet()));
@@ -64,8 +83,12 @@ public class DistributedLedgerAccount
 
     public static Map<String, BigDecimal> calculateAmountDelegated(Set<DistributedLedgerAccount> _set)
     {
-        return _set.stream().collect(Collectors.toMap(
-                DistributedLedgerAccount::getValidatorNode, DistributedLedgerAccount::getAmount, BigDecimal::add));
+        if (_set instanceof AccountStore store)
+        {
+            return store.calculateAmountDelegated();
+        }
+        return AmountTally.toBigDecimals(_set.stream().collect(AmountTally.summingBy(
+                DistributedLedgerAccount::getValidatorNode, DistributedLedgerAccount::getAmount)));
     }
     @JsonCreator
     public static DistributedLedgerAccount create
@@ -0,0 +1,132 @@
+package com.hypernode.ledger.contracts;
+
+import java.util.*;
+
+/**
+ * Stable integer index of every public key that has been part of the ledger, accounts and validators.
+ * An index is never reassigned: new keys are appended at the end of the block, sorted, so every node
+ * that processes the same blocks ends up with the same numbers.
+ *
+ * On the wire a public key can then travel as "#1234" instead of its few hundred (RSA) or
+ * few thousand (ML-DSA) characters, the same way a named account already travels as its name.
+ * Only the keys indexed before the current block are sent as tokens: a peer still on the previous block
+ * does not have the keys of this one yet, so those travel in full until the next block.
+ */
+public class KeyIndex
+{
+    public static final String TOKEN_PREFIX = "#";
+
+    private volatile PersistentHashMap<Integer> indexes = PersistentHashMap.empty();
+    private String[] keys = new String[0];
+    private int size;
+    //keys indexed before the current block, the ones every peer on the previous block has too
+    private int previousBlockSize;
+    //the array is shared with a snapshot, copy it before writing
+    private boolean shared;
+
+    /**
+     * @param _keys the keys in index order, as returned by getKeys()
+     */
+    public static KeyIndex create(List<String> _keys)
+    {
+        KeyIndex ret = new KeyIndex();
+        ret.keys = new String[_keys.size()];
+        for (String key : _keys)
+        {
+            if (key != null && !ret.indexes.containsKey(key))
+            {
+                ret.keys[ret.size] = key;
+                ret.indexes = ret.indexes.put(key, ret.size);
+                ret.size++;
+            }
+        }
+        ret.previousBlockSize = ret.size;
+        return ret;
+    }
+
+    /**
+     * Adds the keys that do not have an index yet, in sorted order.
+     */
+    public synchronized void append(Collection<String> _keys)
+    {
+        String[] newKeys = _keys.stream().filter(k -> k != null && !k.isEmpty() && !indexes.containsKey(k)).distinct().sorted().toArray(String[]::new);
+        if (newKeys.length == 0)
+        {
+            return;
+        }
+        if (shared || size + newKeys.length > keys.length)
+        {
+            keys = Arrays.copyOf(keys, Math.max(size + newKeys.length, size + (size >> 1)));
+            shared = false;
+        }
+        PersistentHashMap<Integer> newIndexes = indexes;
+        for (String key : newKeys)
+        {
+            keys[size] = key;
+            newIndexes = newIndexes.put(key, size);
+            size++;
+        }
+        indexes = newIndexes;
+    }
+
+    /**
+     * @return an index that will not see the keys appended to this one afterwards, in O(1).
+     *         The keys appended to the snapshot are the ones of the next block
+     */
+    public synchronized KeyIndex snapshot()
+    {
+        KeyIndex ret = new KeyIndex();
+        ret.indexes = this.indexes;
+        ret.keys = this.keys;
+        ret.size = this.size;
+        ret.previousBlockSize = this.size;
+        ret.shared = true;
+        this.shared = true;
+        return ret;
+    }
+
+    public Integer indexOf(String _publicKey)
+    {
+        return _publicKey == null ? null : indexes.get(_publicKey);
+    }
+
+    public synchronized String keyAt(int _index)
+    {
+        return _index >= 0 && _index < size ? keys[_index] : null;
+    }
+
+    /**
+     * @return "#index" for a key indexed before the current block, the key itself otherwise
+     */
+    public String toToken(String _publicKey)
+    {
+        Integer index = this.indexOf(_publicKey);
+        return index == null || index >= this.getPreviousBlockSize() ? _publicKey : TOKEN_PREFIX + index;
+    }
+
+    /**
+     * @return the public key of a "#index" token, null if it is not a token of this index
+     */
+    public String fromToken(String _token)
+    {
+        if (_token == null || !_token.startsWith(TOKEN_PREFIX) || _token.length() > 11)
+        {
+            return null;
+        }
+        try
+        {
+            int index = Integer.parseInt(_token, 1, _token.length(), 10);
+            //only the form written by toToken, "#+1" or "#01" are not tokens
+            return _token.equals(TOKEN_PREFIX + index) ? this.keyAt(index) : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    public synchronized List<String> getKeys() {return List.of(Arrays.copyOf(keys, size));}
+
+    public synchronized int size() {return size;}
+    public synchronized int getPreviousBlockSize() {return previousBlockSize;}
+}
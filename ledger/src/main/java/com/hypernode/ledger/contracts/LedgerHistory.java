@@ -1,69 +1,242 @@
 package com.hypernode.ledger.contracts;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.hypernode.ledger.ErrorHandling;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+/**
+ * The blocks accepted since originalContract, indexed by the id of the status each block started from,
+ * so a range of blocks is found in O(log n) and can be read while new blocks are added.
+ *
+ * Blocks are kept as BlockRecords, whose size follows the transactions of the block.
+ * A full status is rebuilt on demand from the nearest checkpoint before it: every CHECKPOINT_INTERVAL blocks
+ * the resulting status is kept as a snapshot, that shares with the others all the accounts that did not change.
+ *
+ * Only the last blocksInMemory blocks stay in memory. The older ones are read back from olderBlocks (the block log)
+ * when they are asked for, and only one checkpoint every OLD_CHECKPOINT_INTERVAL blocks is kept for them.
+ * A block leaves memory only once olderBlocks has it: the ones the log did not write stay here.
+ */
 public class LedgerHistory
 {
+    private static final int CHECKPOINT_INTERVAL = 64;
+    private static final int OLD_CHECKPOINT_INTERVAL = 1024;
+
     private StatusDataContract originalContract;
-    private Set<BlockRevisionResult> blockRevisionResultsProcessed;
+    private ConcurrentSkipListMap<Integer, BlockRecord> blockRecords;
+    private ConcurrentSkipListMap<Integer, StatusDataContract> checkpoints;
+    private int blocksInMemory = Integer.MAX_VALUE;
+    private volatile int lastStatusId;
+    //block id to block, null if it is not there
+    private IntFunction<BlockRecord> olderBlocks;
+    //id of the last block olderBlocks has
+    private IntSupplier lastOlderBlockId;
 
-    public void addNewBlockRevisionResult(BlockRevisionResult blockRevisionResult) {this.blockRevisionResultsProcessed.add(blockRevisionResult);}
+    /**
+     * @param _newStatus the status produced by the block, kept as a checkpoint every CHECKPOINT_INTERVAL blocks
+     */
+    public void addBlockRecord(BlockRecord _blockRecord, StatusDataContract _newStatus)
+    {
+        this.blockRecords.put(_blockRecord.getBlockId() - 1, _blockRecord);
+        this.lastStatusId = Math.max(this.lastStatusId, _blockRecord.getBlockId());
+        if (_blockRecord.getBlockId() % CHECKPOINT_INTERVAL == 0 && _newStatus != null)
+        {
+            this.checkpoints.put(_blockRecord.getBlockId(), _newStatus.snapshot());
+        }
+        if (this.blockRecords.size() > this.blocksInMemory)
+        {
+            int lastStored = this.lastOlderBlockId.getAsInt();
+            while (this.blockRecords.size() > this.blocksInMemory && this.blockRecords.firstEntry().getValue().getBlockId() <= lastStored)
+            {
+                this.blockRecords.pollFirstEntry();
+            }
+            if (this.blockRecords.size() > this.blocksInMemory)
+            {
+                ErrorHandling.logEvent("LedgerHistory: the block log stops at block " + lastStored + ", the blocks after it stay in memory",false,null);
+            }
+            int firstInMemory = this.blockRecords.firstKey();
+            this.checkpoints.headMap(firstInMemory, false).keySet()
+                    .removeIf(id -> id != this.originalContract.getId() && id % OLD_CHECKPOINT_INTERVAL != 0);
+        }
+    }
 
     public static LedgerHistory create(StatusDataContract originalContract)
     {
         LedgerHistory ledgerHistory = new LedgerHistory();
         ledgerHistory.originalContract = originalContract;
-        ledgerHistory.blockRevisionResultsProcessed = new HashSet<>();
+        ledgerHistory.lastStatusId = originalContract.getId();
+        ledgerHistory.blockRecords = new ConcurrentSkipListMap<>();
+        ledgerHistory.checkpoints = new ConcurrentSkipListMap<>();
+        ledgerHistory.checkpoints.put(originalContract.getId(), originalContract);
+        return ledgerHistory;
+    }
+
+    /**
+     * @param _blocksInMemory how many of the last blocks are kept in memory
+     * @param _olderBlocks where the blocks before those are read from, by block id
+     * @param _lastOlderBlockId id of the last block _olderBlocks has, only blocks up to it leave memory
+     */
+    public static LedgerHistory create(StatusDataContract originalContract, int _blocksInMemory, IntFunction<BlockRecord> _olderBlocks, IntSupplier _lastOlderBlockId)
+    {
+        LedgerHistory ledgerHistory = LedgerHistory.create(originalContract);
+        ledgerHistory.blocksInMemory = Math.max(_blocksInMemory, 1);
+        ledgerHistory.olderBlocks = _olderBlocks;
+        ledgerHistory.lastOlderBlockId = _lastOlderBlockId;
         return ledgerHistory;
     }
+
     public LedgerHistory getInterval(int startingContractId, int endBlockId)
     {
-        LedgerHistory ledgerHistory = new LedgerHistory();
-        if(this.originalContract.getId() > startingContractId)
+        StatusDataContract start = this.originalContract.getId() > startingContractId ? this.originalContract : this.getStatus(startingContractId);
+        if(start == null)
         {
-            ledgerHistory = LedgerHistory.create(this.originalContract);
+            ErrorHandling.logEvent("error LedgerHistory.getInterval, no status " + startingContractId,false,null);
+            return null;
         }
-        else
-        {
-            try
-            {
-                BlockRevisionResult blockRevisionResult = blockRevisionResultsProcessed.stream().filter(b -> b.statusDataContractStarting.getId() == startingContractId).findFirst().get();
-                ledgerHistory = LedgerHistory.create(blockRevisionResult.statusDataContractStarting);
+        LedgerHistory ledgerHistory = LedgerHistory.create(start);
+        ledgerHistory.blockRecords.putAll(this.getRange(start.getId(), endBlockId));
+        return ledgerHistory;
+    }
 
-            }
-            catch (Exception e)
+    /**
+     * Rebuilds a status of the history from the nearest checkpoint, checking it against the hash of its block.
+     *
+     * @return the status, null if it is not in the history or does not match its hash
+     */
+    @JsonIgnore
+    public StatusDataContract getStatus(int _id)
+    {
+        Map.Entry<Integer, StatusDataContract> checkpoint = checkpoints.floorEntry(_id);
+        if (checkpoint == null)
+        {
+            return null;
+        }
+        StatusDataContract ret = checkpoint.getValue();
+        for (BlockRecord blockRecord : this.getBlocks(checkpoint.getKey(), _id + 1))
+        {
+            ret = blockRecord.applyTo(ret);
+            if (ret == null)
             {
-                ErrorHandling.logEvent("error LedgerHistory.getInterval",false,e);
+                ErrorHandling.logEvent("error LedgerHistory.getStatus, block " + blockRecord.getBlockId() + " can not be applied",false,null);
                 return null;
             }
+        }
+        if (ret.getId() != _id)
+        {
+            return null;
+        }
+        if (ret != checkpoint.getValue() && !ret.getHash().equals(ret.calculateHash()))
+        {
+            ErrorHandling.logEvent("error LedgerHistory.getStatus, status " + _id + " does not match its hash",false,null);
+            return null;
+        }
+        return ret;
+    }
 
+    /**
+     * @return the blocks starting from startingContractId or later and producing a status before endBlockId, in order.
+     *         Blocks older than the ones in memory are read and held in the returned map, see getBlocks for long ranges
+     */
+    @JsonIgnore
+    public NavigableMap<Integer, BlockRecord> getRange(int startingContractId, int endBlockId)
+    {
+        //a block produces the status after the one it starts from
+        NavigableMap<Integer, BlockRecord> inMemory = blockRecords.subMap(startingContractId, true, Math.max(endBlockId - 1, startingContractId), false);
+        if (startingContractId >= this.firstInMemory())
+        {
+            return inMemory;
         }
-        ledgerHistory.blockRevisionResultsProcessed.addAll(
-        blockRevisionResultsProcessed.stream().filter(b -> b.statusDataContractStarting.getId() >= startingContractId && b.newStatusDataContract.getId() < endBlockId).collect(Collectors.toSet())
-        );
-        return ledgerHistory;
+        NavigableMap<Integer, BlockRecord> ret = new TreeMap<>();
+        this.blockStream(startingContractId, endBlockId).forEach(b -> ret.put(b.getBlockId() - 1, b));
+        return ret;
+    }
+
+    /**
+     * Same blocks as getRange, read one at a time while they are iterated, so a long range is never all in memory.
+     */
+    @JsonIgnore
+    public Iterable<BlockRecord> getBlocks(int startingContractId, int endBlockId)
+    {
+        return () -> this.blockStream(startingContractId, endBlockId).iterator();
     }
 
+    /**
+     * @return the block that produced the status with this id, from memory or from olderBlocks, null if neither has it
+     */
+    @JsonIgnore
+    public BlockRecord getBlock(int _blockId)
+    {
+        BlockRecord ret = blockRecords.get(_blockId - 1);
+        return ret != null || this.olderBlocks == null || _blockId - 1 >= this.firstInMemory() ? ret : this.olderBlocks.apply(_blockId);
+    }
+
+    /**
+     * @return at most _limit blocks, starting from the status _startingContractId or the first one after it
+     */
+    @JsonIgnore
+    public List<BlockRecord> getPage(int _startingContractId, int _limit)
+    {
+        return this.blockStream(_startingContractId, Integer.MAX_VALUE).limit(Math.max(_limit, 0)).toList();
+    }
+
+    /**
+     * Forgets the blocks before startingContractId, the history then starts from that status.
+     */
     public void changeOriginalContract(int startingContractId)
     {
-        try
+        StatusDataContract start = this.getStatus(startingContractId);
+        if(start == null)
         {
-            BlockRevisionResult blockRevisionResult = blockRevisionResultsProcessed.stream().filter(b -> b.statusDataContractStarting.getId() == startingContractId).findFirst().get();
+            ErrorHandling.logEvent("error LedgerHistory.changeOriginalContract, no status " + startingContractId,false,null);
+            return;
+        }
+        this.originalContract = start;
+        this.checkpoints.put(startingContractId, start);
+        this.checkpoints.headMap(startingContractId, false).clear();
+        this.blockRecords.headMap(startingContractId, false).clear();
+    }
 
-            this.originalContract = blockRevisionResult.statusDataContractStarting;
-            this.blockRevisionResultsProcessed = blockRevisionResultsProcessed.stream().filter(b -> b.statusDataContractStarting.getId() == startingContractId).collect(Collectors.toSet());
+    //the older blocks from the log, then the ones in memory
+    private Stream<BlockRecord> blockStream(int startingContractId, int endBlockId)
+    {
+        int firstInMemory = this.firstInMemory();
+        int start = Math.max(startingContractId, this.originalContract.getId());
+        Stream<BlockRecord> older = Stream.empty();
+        if (start < firstInMemory && this.olderBlocks != null)
+        {
+            int end = (int) Math.min(firstInMemory, Math.max((long) endBlockId - 1, start));
+            older = IntStream.range(start, end).mapToObj(id -> this.olderBlocks.apply(id + 1)).filter(Objects::nonNull);
         }
-        catch (Exception e)
+        if (endBlockId - 1 <= startingContractId)
         {
-            ErrorHandling.logEvent("error LedgerHistory.changeOriginalContract",false,e);
+            return older;
         }
+        return Stream.concat(older, blockRecords.subMap(startingContractId, true, endBlockId - 1, false).values().stream());
+    }
+
+    //id of the status the oldest block in memory starts from, the blocks before it are in olderBlocks
+    private int firstInMemory()
+    {
+        Map.Entry<Integer, BlockRecord> first = blockRecords.firstEntry();
+        return first == null ? this.lastStatusId : first.getKey();
     }
 
     public StatusDataContract getOriginalContract() {return originalContract;}
-    public Set<BlockRevisionResult> getBlockRevisionResultsProcessed() {return blockRevisionResultsProcessed;}
+    public Collection<BlockRecord> getBlockRecords() {return blockRecords.values();}
+    //every block since the origin, the ones on disk included
+    @JsonIgnore
+    public Iterable<BlockRecord> getAllBlocks() {return this.getBlocks(this.originalContract.getId(), Integer.MAX_VALUE);}
+    @JsonIgnore
+    public int size() {return blockRecords.size();}
 
 }
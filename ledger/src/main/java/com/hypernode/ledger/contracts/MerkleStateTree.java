@@ -0,0 +1,345 @@
+package com.hypernode.ledger.contracts;
+
+import com.hypernode.ledger.ErrorHandling;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Merkle tree over a set of ledger entries (accounts, validators), maintained incrementally.
+ * Every entry lands in one of 2^depth buckets chosen by the hash of its key (the public key),
+ * a bucket hash is the SHA-256 of the sorted hashes of its entries, and a fixed binary tree
+ * is built on top of the buckets.
+ * Entry, bucket and node hashes start with a different prefix byte, so none of them can be passed off as another.
+ * When the set changes only the buckets that changed and their path to the root are hashed again,
+ * so the root costs the same whether the ledger has a thousand accounts or a million.
+ *
+ * Entries are tracked by key. A key that comes with another object than last time is hashed again,
+ * so the contracts must not be modified in place: a changed account or validator is a new object.
+ * sync() walks the whole collection, update() only looks at the keys it is given,
+ * which is what the status uses with the changed keys of its AccountStore.
+ */
+public class MerkleStateTree<T>
+{
+    private static final int HASH_LENGTH = 32;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte BUCKET_PREFIX = 1;
+    private static final byte NODE_PREFIX = 2;
+
+    private final int depth;
+    private final int bucketCount;
+    private final Function<T, String> keyFunction;
+    private final Function<T, String> leafFunction;
+    //heap layout, node i has children 2i and 2i+1, the root is 1 and the buckets are bucketCount..2*bucketCount-1
+    private final byte[] nodes;
+    private final List<List<byte[]>> buckets;
+    private final Map<String, Leaf<T>> leaves = new HashMap<>();
+    private final BitSet dirtyBuckets;
+    private final MessageDigest sha256;
+    private int epoch;
+
+    private static final class Leaf<T>
+    {
+        final T value;
+        final byte[] hash;
+        final int bucket;
+        int epoch;
+
+        Leaf(T value, byte[] hash, int bucket, int epoch)
+        {
+            this.value = value;
+            this.hash = hash;
+            this.bucket = bucket;
+            this.epoch = epoch;
+        }
+    }
+
+    public MerkleStateTree(int depth, Function<T, String> keyFunction, Function<T, String> leafFunction)
+    {
+        this.depth = depth;
+        this.bucketCount = 1 << depth;
+        this.keyFunction = keyFunction;
+        this.leafFunction = leafFunction;
+        this.nodes = new byte[2 * bucketCount * HASH_LENGTH];
+        this.buckets = new ArrayList<>(Collections.nCopies(bucketCount, null));
+        this.dirtyBuckets = new BitSet(bucketCount);
+        this.dirtyBuckets.set(0, bucketCount);//everything has to be computed the first time
+        try
+        {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            ErrorHandling.logEvent("somehow sha-256 is not present in this java version",true,e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Brings the tree in line with the current content of the collection.
+     * Only the entries that were not there at the previous sync, or are another object now, get hashed.
+     */
+    public synchronized void sync(Collection<? extends T> values)
+    {
+        epoch++;
+        int present = 0;
+        for (T value : values)
+        {
+            Leaf<T> leaf = this.put(String.valueOf(keyFunction.apply(value)), value);
+            if (leaf.epoch != epoch)
+            {
+                leaf.epoch = epoch;
+                present++;
+            }
+        }
+        //whatever was not seen in this pass has been removed
+        if (leaves.size() > present)
+        {
+            Iterator<Leaf<T>> iterator = leaves.values().iterator();
+            while (iterator.hasNext())
+            {
+                Leaf<T> leaf = iterator.next();
+                if (leaf.epoch != epoch)
+                {
+                    this.removeLeaf(leaf);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the tree in line for the given keys only, the other entries are taken as unchanged.
+     *
+     * @param keys the keys added, removed or replaced since the last sync or update
+     * @param lookup the current entry of a key, null if it was removed
+     */
+    public synchronized void update(Collection<String> keys, Function<String, ? extends T> lookup)
+    {
+        for (String key : keys)
+        {
+            T value = lookup.apply(key);
+            if (value != null)
+            {
+                this.put(String.valueOf(keyFunction.apply(value)), value);
+            }
+            else
+            {
+                Leaf<T> leaf = leaves.remove(key);
+                if (leaf != null)
+                {
+                    this.removeLeaf(leaf);
+                }
+            }
+        }
+    }
+
+    //the leaf of the key, hashed again if the value is not the same object
+    private Leaf<T> put(String key, T value)
+    {
+        Leaf<T> leaf = leaves.get(key);
+        if (leaf != null && leaf.value == value)
+        {
+            return leaf;
+        }
+        if (leaf != null)
+        {
+            this.removeLeaf(leaf);
+        }
+        Leaf<T> ret = new Leaf<>(value, this.leafHash(leafFunction.apply(value)), this.bucketOf(key), leaf == null ? 0 : leaf.epoch);
+        leaves.put(key, ret);
+        this.bucket(ret.bucket).add(ret.hash);
+        dirtyBuckets.set(ret.bucket);
+        return ret;
+    }
+
+    private void removeLeaf(Leaf<T> leaf)
+    {
+        this.removeByIdentity(this.bucket(leaf.bucket), leaf.hash);
+        dirtyBuckets.set(leaf.bucket);
+    }
+
+    /**
+     * @return the root of the tree as hex, after hashing again the buckets changed since the last call
+     */
+    public synchronized String rootHash()
+    {
+        Set<Integer> dirtyParents = new TreeSet<>(Comparator.reverseOrder());
+        for (int bucket = dirtyBuckets.nextSetBit(0); bucket >= 0; bucket = dirtyBuckets.nextSetBit(bucket + 1))
+        {
+            this.setNode(bucketCount + bucket, this.bucketHash(bucket));
+            dirtyParents.add((bucketCount + bucket) >> 1);
+        }
+        dirtyBuckets.clear();
+        //bottom up, a parent always has a smaller index than its children
+        while (!dirtyParents.isEmpty())
+        {
+            int node = dirtyParents.iterator().next();
+            dirtyParents.remove(node);
+            sha256.update(NODE_PREFIX);
+            sha256.update(nodes, 2 * node * HASH_LENGTH, 2 * HASH_LENGTH);
+            this.setNode(node, sha256.digest());
+            if (node > 1)
+            {
+                dirtyParents.add(node >> 1);
+            }
+        }
+        return HexFormat.of().formatHex(nodes, HASH_LENGTH, 2 * HASH_LENGTH);
+    }
+
+    /**
+     * Path from an entry to the root: every hash of its bucket and the sibling of each node on the way up.
+     *
+     * @return the proof, or null if the entry is not in the tree
+     */
+    public synchronized Proof proof(T value)
+    {
+        Leaf<T> leaf = leaves.get(String.valueOf(keyFunction.apply(value)));
+        if (leaf == null || leaf.value != value)
+        {
+            return null;
+        }
+        this.rootHash();//brings the nodes up to date, and sorts the buckets
+        HexFormat hex = HexFormat.of();
+        List<String> bucketHashes = buckets.get(leaf.bucket).stream().map(hex::formatHex).toList();
+        List<String> siblingHashes = new ArrayList<>(depth);
+        for (int node = bucketCount + leaf.bucket; node > 1; node >>= 1)
+        {
+            int sibling = node ^ 1;
+            siblingHashes.add(hex.formatHex(nodes, sibling * HASH_LENGTH, (sibling + 1) * HASH_LENGTH));
+        }
+        return new Proof(leaf.bucket, bucketHashes, siblingHashes);
+    }
+
+    public record Proof(int bucket, List<String> bucketHashes, List<String> siblingHashes) {}
+
+    /**
+     * Recomputes the root from an entry and its proof, the counterpart of proof() on the side that has no tree.
+     * The path must be as long as the tree is deep and start at the bucket of the key,
+     * otherwise an entry could be proven from an inner node or from a bucket it does not belong to.
+     *
+     * @param key the key of the entry (public key)
+     * @param leaf the leaf string of the entry (uniqueString)
+     * @param depth the depth of the tree the proof comes from
+     * @return the root as hex, or null if the entry is not part of the proof
+     */
+    public static String computeRoot(String key, String leaf, int depth, Proof proof)
+    {
+        if (proof == null || proof.bucketHashes() == null || proof.siblingHashes() == null
+                || depth < 0 || depth >= 31 || proof.siblingHashes().size() != depth)
+        {
+            return null;
+        }
+        MessageDigest sha256;
+        try
+        {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            ErrorHandling.logEvent("somehow sha-256 is not present in this java version",true,e);
+            return null;
+        }
+        HexFormat hex = HexFormat.of();
+        if (proof.bucket() != bucketOf(sha256.digest(String.valueOf(key).getBytes(StandardCharsets.UTF_8)), depth))
+        {
+            return null;
+        }
+        sha256.update(LEAF_PREFIX);
+        String leafHash = hex.formatHex(sha256.digest(String.valueOf(leaf).getBytes(StandardCharsets.UTF_8)));
+        if (!proof.bucketHashes().contains(leafHash))
+        {
+            return null;
+        }
+        sha256.update(BUCKET_PREFIX);
+        proof.bucketHashes().stream().map(hex::parseHex).sorted(Arrays::compareUnsigned).forEach(sha256::update);
+        byte[] hash = sha256.digest();
+        int node = (1 << depth) + proof.bucket();
+        for (String sibling : proof.siblingHashes())
+        {
+            byte[] siblingHash = hex.parseHex(sibling);
+            sha256.update(NODE_PREFIX);
+            if ((node & 1) == 0)
+            {
+                sha256.update(hash);
+                sha256.update(siblingHash);
+            }
+            else
+            {
+                sha256.update(siblingHash);
+                sha256.update(hash);
+            }
+            hash = sha256.digest();
+            node >>= 1;
+        }
+        return hex.formatHex(hash);
+    }
+
+    private byte[] bucketHash(int bucket)
+    {
+        List<byte[]> hashes = buckets.get(bucket);
+        sha256.update(BUCKET_PREFIX);
+        if (hashes != null)
+        {
+            hashes.sort(Arrays::compareUnsigned);
+            hashes.forEach(sha256::update);
+        }
+        return sha256.digest();
+    }
+
+    int bucketOf(String key)
+    {
+        return bucketOf(this.hash(key), depth);
+    }
+
+    //the first depth bits of the key hash
+    private static int bucketOf(byte[] hash, int depth)
+    {
+        int prefix = ((hash[0] & 0xFF) << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+        return depth == 0 ? 0 : prefix >>> (32 - depth);
+    }
+
+    private byte[] hash(String value)
+    {
+        return sha256.digest(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] leafHash(String value)
+    {
+        sha256.update(LEAF_PREFIX);
+        return this.hash(value);
+    }
+
+    private List<byte[]> bucket(int bucket)
+    {
+        List<byte[]> ret = buckets.get(bucket);
+        if (ret == null)
+        {
+            ret = new ArrayList<>(4);
+            buckets.set(bucket, ret);
+        }
+        return ret;
+    }
+
+    private void removeByIdentity(List<byte[]> bucket, byte[] hash)
+    {
+        for (int i = 0; i < bucket.size(); i++)
+        {
+            if (bucket.get(i) == hash)
+            {
+                bucket.remove(i);
+                return;
+            }
+        }
+    }
+
+    private void setNode(int node, byte[] hash)
+    {
+        System.arraycopy(hash, 0, nodes, node * HASH_LENGTH, HASH_LENGTH);
+    }
+
+    public synchronized int size() {return leaves.size();}
+}
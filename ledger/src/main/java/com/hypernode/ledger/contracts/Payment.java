@@ -7,21 +7,25 @@ import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
 
 import java.math.BigDecimal;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Payment
 {
 
+    @BinaryBase64
     private String from;//public key or name
+    @BinaryBase64
     private String to;//public key or name
+    @BinaryBase64
     private String publicKeyFrom;//public key
+    @BinaryBase64
     private String publicKeyTo;//public key
     private String comment;//comment of the transaction
     private BigDecimal amount;//value of the exchanged currency
+    @BinaryBase64
     private String signature;//digital signature to validate the emission from the PublicKeyFrom
+    @BinaryBase64
     private String validatorSignature;
     private int blockId;
     private String lastStatusHash;
@@ -50,52 +54,14 @@ public class Payment
                 _setDistributedLedgerAccount.stream().anyMatch(account -> account.getPublicKey().equals(payment.getPublicKeyFrom()))
         ).collect(Collectors.toSet());
     }
+    /**
+     * Applies the payments to the accounts, see PaymentSettlement for the rules.
+     * An AccountStore is updated in place, any other set is copied into a new store first.
+     */
     public static Set<DistributedLedgerAccount> processPayments(Set<DistributedLedgerAccount> _setDistributedLedgerAccount, Set<Payment> _payments, BigDecimal _transactionCost)
     {
-        String validatorNode;
-        Map<String,BigDecimal> sums = _payments.stream().collect(Collectors.toMap(
-                payment -> payment.publicKeyFrom, payment -> payment.amount, BigDecimal::add));
-
-        Set<String> banned = _setDistributedLedgerAccount.stream()
-                .filter(account -> account.getAmount().compareTo(sums.getOrDefault(account.getPublicKey(), BigDecimal.ZERO)) < 0)
-                .map(DistributedLedgerAccount::getPublicKey)
-                .collect(Collectors.toSet());
-
-        _payments.stream().filter(p -> banned.contains(p.getPublicKeyFrom())).toList().forEach(_payments::remove);
-
-        Map<String,BigDecimal> from = _payments.stream().filter(p -> !banned.contains(p.getPublicKeyFrom())).collect(Collectors.toMap(
-                Payment::getPublicKeyFrom, payment -> payment.amount, BigDecimal::add));
-        Map<String,BigDecimal> to = _payments.stream().filter(p -> !banned.contains(p.getPublicKeyFrom()) && p.getAmount().compareTo(_transactionCost) >0).collect(Collectors.toMap(
-                Payment::getPublicKeyTo, payment -> payment.amount.subtract(_transactionCost) , BigDecimal::add));
-
-        Set<String> affectedPublicKeys = new HashSet<>();
-        affectedPublicKeys.addAll(from.keySet());
-        affectedPublicKeys.addAll(to.keySet());
-
-        Set<DistributedLedgerAccount> updatedCurrencies = _setDistributedLedgerAccount.stream()
-                .filter(c -> !banned.contains(c.getPublicKey())
-                && !affectedPublicKeys.contains(c.getPublicKey())
-                ).collect(Collectors.toSet());
-
-        updatedCurrencies.addAll(
-                affectedPublicKeys.stream()
-                .map(a -> {
-
-                    DistributedLedgerAccount old =  _setDistributedLedgerAccount.stream()
-                            .filter(d -> d.getPublicKey().equals(a)).findFirst()
-                            .orElse(DistributedLedgerAccount.create(a,"",BigDecimal.ZERO,a,""));
-                    return DistributedLedgerAccount.create(old.getPublicKey(),
-                            old.getName(),
-                            old.getAmount()
-                                .add(to.getOrDefault(a, BigDecimal.ZERO))
-                                .subtract(from.getOrDefault(a, BigDecimal.ZERO)),
-                            old.getValidatorNode(),
-                            old.getDescription()
-                        );
-                }
-                ).filter(c -> c.getAmount().compareTo(BigDecimal.ZERO)>0).collect(Collectors.toSet())
-        );
-        return updatedCurrencies;
+        AccountStore store = _setDistributedLedgerAccount instanceof AccountStore accountStore ? accountStore : AccountStore.create(_setDistributedLedgerAccount);
+        return PaymentSettlement.create(store, _transactionCost).settle(_payments);
     }
 
     public static Payment createNew(
@@ -135,6 +101,22 @@ public class Payment
         this.validatorSignature = _encryptionEntity.signMessage(this.getStringToSignValidator());
         return this;
     }
+
+    /**
+     * Same as validatorSignPayment on every payment, but with all the signatures asked in one go
+     * so the encryption entity can parallelize or batch them.
+     */
+    public static Set<Payment> validatorSignPayments(Collection<Payment> _payments, EncryptionEntity_BaseInterface _encryptionEntity, String hash)
+    {
+        List<Payment> payments = new ArrayList<>(_payments);
+        payments.forEach(p -> p.lastStatusHash = hash);
+        List<String> signatures = _encryptionEntity.signMessages(payments.stream().map(Payment::getStringToSignValidator).toList());
+        for (int i = 0; i < payments.size(); i++)
+        {
+            payments.get(i).validatorSignature = signatures.get(i);
+        }
+        return new HashSet<>(payments);
+    }
     @JsonIgnore
     public boolean validateSignature()
     {
@@ -153,15 +135,19 @@ public class Payment
 
     public static Set<Payment> populatePublicKeys(Set<Payment> payments, Set<DistributedLedgerAccount> accounts)
     {
-        Map<String, String> map = accounts.stream().filter(a -> a.getName() != null && !a.getName().isEmpty())
-                .collect(Collectors.toMap(DistributedLedgerAccount::getName, DistributedLedgerAccount::getPublicKey));
-
+        AccountStore names = AccountStore.of(accounts);
         return
-                payments.stream().map(p -> p.setPublicKey(map.getOrDefault(p.getFrom(),p.getFrom())
-                        ,map.getOrDefault(p.getTo(), p.getTo()))).collect(Collectors.toSet());
+                payments.stream().map(p -> p.setPublicKey(nameToPublicKey(names, p.getFrom())
+                        ,nameToPublicKey(names, p.getTo()))).collect(Collectors.toSet());
 
     }
 
+    private static String nameToPublicKey(AccountStore names, String nameOrPublicKey)
+    {
+        String publicKey = names.nameToPublicKey(nameOrPublicKey);
+        return publicKey == null ? nameOrPublicKey : publicKey;
+    }
+
     public static Set<Payment> removePublicKeys(Set<Payment> payments, Set<DistributedLedgerAccount> accounts)
     {
 
@@ -0,0 +1,171 @@
+package com.hypernode.ledger.contracts;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Applies the payments of a block to the accounts, same rules as Payment.processPayments always had:
+ * a sender that spends more than it has is banned, its payments are dropped and its account is removed,
+ * every recipient gets the amount minus the transaction cost (if there is anything left),
+ * unknown recipients get a new account, and an account that ends up at zero or below is removed.
+ *
+ * The debit and credit tables are built on the fork join pool, then the affected keys are sorted,
+ * cut in contiguous ranges and every range computes its new accounts in parallel before they are written
+ * into the store in key order. BigDecimal sums are exact, so the result does not depend on how the work is split.
+ */
+public class PaymentSettlement
+{
+    //below this many payments the threads cost more than they save
+    private static final int PARALLEL_THRESHOLD = 2048;
+    private static final int KEYS_PER_SHARD = 1024;
+
+    private final AccountStore accounts;
+    private final BigDecimal transactionCost;
+    private Map<String, AmountTally> debits;
+    private Map<String, AmountTally> credits;
+    private Set<String> banned;
+
+    public static PaymentSettlement create(AccountStore _accounts, BigDecimal _transactionCost)
+    {
+        return new PaymentSettlement(_accounts, _transactionCost);
+    }
+
+    private PaymentSettlement(AccountStore _accounts, BigDecimal _transactionCost)
+    {
+        this.accounts = _accounts;
+        this.transactionCost = _transactionCost;
+    }
+
+    /**
+     * Settles the payments directly in the store.
+     * The payments of banned senders are removed from _payments, as processPayments did.
+     *
+     * @return the store, updated
+     */
+    public AccountStore settle(Set<Payment> _payments)
+    {
+        boolean parallel = _payments.size() >= PARALLEL_THRESHOLD;
+
+        Map<String, AmountTally> sums = stream(_payments, parallel).collect(AmountTally.summingBy(Payment::getPublicKeyFrom, Payment::getAmount));
+        this.banned = stream(sums.entrySet(), parallel)
+                .filter(e -> {
+                    DistributedLedgerAccount account = accounts.get(e.getKey());
+                    return account != null && e.getValue().compareTo(account.getAmount()) > 0;
+                })
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(HashSet::new));
+        //an account already below zero is banned even without payments, a plain comparison on every account
+        stream(accounts, accounts.size() >= PARALLEL_THRESHOLD)
+                .filter(a -> !sums.containsKey(a.getPublicKey()) && a.getAmount().signum() < 0)
+                .map(DistributedLedgerAccount::getPublicKey)
+                .toList().forEach(banned::add);
+
+        _payments.removeIf(p -> banned.contains(p.getPublicKeyFrom()));
+
+        this.debits = banned.isEmpty() ? sums : stream(_payments, parallel).collect(AmountTally.summingBy(Payment::getPublicKeyFrom, Payment::getAmount));
+        //credits are tallied gross and the cost taken once per payment
+        this.credits = stream(_payments, parallel)
+                .filter(p -> p.getAmount().compareTo(transactionCost) > 0)
+                .collect(Collector.of(
+                        HashMap::new,
+                        (Map<String, AmountTally> map, Payment p) -> map.computeIfAbsent(p.getPublicKeyTo(), k -> AmountTally.create()).add(p.getAmount()).subtract(transactionCost),
+                        (left, right) -> {
+                            right.forEach((k, v) -> left.merge(k, v, AmountTally::add));
+                            return left;
+                        }));
+
+        Set<String> affected = new HashSet<>(debits.keySet());
+        affected.addAll(credits.keySet());
+        String[] keys = affected.toArray(new String[0]);
+        Arrays.sort(keys, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+        int shards = Math.max(1, (keys.length + KEYS_PER_SHARD - 1) / KEYS_PER_SHARD);
+        IntStream shardStream = IntStream.range(0, shards);
+        if (parallel)
+        {
+            shardStream = shardStream.parallel();
+        }
+        //the shards compute their accounts in parallel, the store takes one writer at a time so they are written in key order after
+        List<List<DistributedLedgerAccount>> updates = shardStream
+                .mapToObj(shard -> this.settleRange(keys, shard * KEYS_PER_SHARD, Math.min(keys.length, (shard + 1) * KEYS_PER_SHARD)))
+                .toList();
+        for (int shard = 0; shard < shards; shard++)
+        {
+            List<DistributedLedgerAccount> shardUpdates = updates.get(shard);
+            for (int i = 0; i < shardUpdates.size(); i++)
+            {
+                DistributedLedgerAccount account = shardUpdates.get(i);
+                if (account != null)
+                {
+                    accounts.add(account);
+                }
+                else
+                {
+                    DistributedLedgerAccount old = accounts.get(keys[shard * KEYS_PER_SHARD + i]);
+                    if (old != null)
+                    {
+                        accounts.remove(old);
+                    }
+                }
+            }
+        }
+
+        //a banned account that received something was settled with the others and stays
+        banned.stream().filter(key -> !affected.contains(key)).forEach(key -> {
+            DistributedLedgerAccount account = accounts.get(key);
+            if (account != null)
+            {
+                accounts.remove(account);
+            }
+        });
+        return accounts;
+    }
+
+    /**
+     * @return the new account of every key of the range, in the same order, null where the account has to go
+     */
+    private List<DistributedLedgerAccount> settleRange(String[] _keys, int _from, int _to)
+    {
+        List<DistributedLedgerAccount> ret = new ArrayList<>(_to - _from);
+        for (int i = _from; i < _to; i++)
+        {
+            String key = _keys[i];
+            DistributedLedgerAccount old = accounts.get(key);
+            if (old == null)
+            {
+                old = DistributedLedgerAccount.create(key, "", BigDecimal.ZERO, key, "");
+            }
+            AmountTally amount = AmountTally.of(old.getAmount());
+            AmountTally credit = credits.get(key);
+            AmountTally debit = debits.get(key);
+            if (credit != null)
+            {
+                amount.add(credit);
+            }
+            if (debit != null)
+            {
+                amount.subtract(debit);
+            }
+            if (amount.signum() > 0)
+            {
+                ret.add(DistributedLedgerAccount.create(old.getPublicKey(), old.getName(), amount.toBigDecimal(), old.getValidatorNode(), old.getDescription()));
+            }
+            else
+            {
+                ret.add(null);
+            }
+        }
+        return ret;
+    }
+
+    private static <T> Stream<T> stream(Collection<T> _collection, boolean _parallel)
+    {
+        return _parallel ? _collection.parallelStream() : _collection.stream();
+    }
+
+    public Set<String> getBanned() {return banned;}
+}
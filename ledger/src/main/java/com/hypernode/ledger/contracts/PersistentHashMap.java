@@ -0,0 +1,441 @@
+package com.hypernode.ledger.contracts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash array mapped trie from String keys to values.
+ * put and remove return a new map that shares every untouched node with the old one,
+ * so keeping the map of every block costs only the accounts that changed in between.
+ *
+ * Each level consumes 5 bits of the key hash: a node has a 32 bit bitmap of the slots in use
+ * and a compact array with one element per set bit, either an entry or a child node.
+ * Keys with the same full hash end up together in a collision node.
+ */
+public final class PersistentHashMap<V> implements Iterable<V>
+{
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentHashMap<?> EMPTY = new PersistentHashMap<>(new BitmapNode(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentHashMap<V> empty() {return (PersistentHashMap<V>) EMPTY;}
+
+    public int size() {return size;}
+
+    public boolean isEmpty() {return size == 0;}
+
+    @SuppressWarnings("unchecked")
+    public V get(String _key)
+    {
+        int hash = hashOf(_key);
+        Node node = root;
+        int shift = 0;
+        while (true)
+        {
+            if (node instanceof BitmapNode bitmapNode)
+            {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((bitmapNode.bitmap & bit) == 0)
+                {
+                    return null;
+                }
+                Object slot = bitmapNode.slots[Integer.bitCount(bitmapNode.bitmap & (bit - 1))];
+                if (slot instanceof Entry entry)
+                {
+                    return entry.hash == hash && entry.key.equals(_key) ? (V) entry.value : null;
+                }
+                node = (Node) slot;
+                shift += BITS;
+            }
+            else
+            {
+                for (Entry entry : ((CollisionNode) node).entries)
+                {
+                    if (entry.key.equals(_key))
+                    {
+                        return (V) entry.value;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(String _key) {return this.get(_key) != null;}
+
+    public PersistentHashMap<V> put(String _key, V _value)
+    {
+        boolean[] added = new boolean[1];
+        Node newRoot = put(root, 0, new Entry(_key, _value, hashOf(_key)), added);
+        return newRoot == root ? this : new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentHashMap<V> remove(String _key)
+    {
+        Node newRoot = remove(root, 0, _key, hashOf(_key));
+        if (newRoot == root)
+        {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot == null ? empty().root : newRoot, size - 1);
+    }
+
+    private static Node put(Node _node, int _shift, Entry _entry, boolean[] _added)
+    {
+        if (_node instanceof CollisionNode collisionNode)
+        {
+            if (collisionNode.hash != _entry.hash)
+            {
+                //the new key only shares part of the hash, push the collision one level down
+                BitmapNode wrapper = new BitmapNode(bitOf(collisionNode.hash, _shift), new Object[]{collisionNode});
+                return put(wrapper, _shift, _entry, _added);
+            }
+            Entry[] entries = collisionNode.entries;
+            for (int i = 0; i < entries.length; i++)
+            {
+                if (entries[i].key.equals(_entry.key))
+                {
+                    if (entries[i].value == _entry.value)
+                    {
+                        return _node;
+                    }
+                    Entry[] copy = entries.clone();
+                    copy[i] = _entry;
+                    return new CollisionNode(collisionNode.hash, copy);
+                }
+            }
+            Entry[] copy = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, copy, 0, entries.length);
+            copy[entries.length] = _entry;
+            _added[0] = true;
+            return new CollisionNode(collisionNode.hash, copy);
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) _node;
+        int bit = bitOf(_entry.hash, _shift);
+        int index = Integer.bitCount(bitmapNode.bitmap & (bit - 1));
+        if ((bitmapNode.bitmap & bit) == 0)
+        {
+            Object[] slots = new Object[bitmapNode.slots.length + 1];
+            System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+            slots[index] = _entry;
+            System.arraycopy(bitmapNode.slots, index, slots, index + 1, bitmapNode.slots.length - index);
+            _added[0] = true;
+            return new BitmapNode(bitmapNode.bitmap | bit, slots);
+        }
+        Object slot = bitmapNode.slots[index];
+        Object newSlot;
+        if (slot instanceof Entry existing)
+        {
+            if (existing.hash == _entry.hash && existing.key.equals(_entry.key))
+            {
+                if (existing.value == _entry.value)
+                {
+                    return _node;
+                }
+                newSlot = _entry;
+            }
+            else
+            {
+                newSlot = merge(existing, _entry, _shift + BITS);
+                _added[0] = true;
+            }
+        }
+        else
+        {
+            Node child = (Node) slot;
+            newSlot = put(child, _shift + BITS, _entry, _added);
+            if (newSlot == child)
+            {
+                return _node;
+            }
+        }
+        Object[] slots = bitmapNode.slots.clone();
+        slots[index] = newSlot;
+        return new BitmapNode(bitmapNode.bitmap, slots);
+    }
+
+    //two different keys that land in the same slot: a subtree that separates them
+    private static Node merge(Entry _first, Entry _second, int _shift)
+    {
+        if (_first.hash == _second.hash)
+        {
+            return new CollisionNode(_first.hash, new Entry[]{_first, _second});
+        }
+        int firstBit = bitOf(_first.hash, _shift);
+        int secondBit = bitOf(_second.hash, _shift);
+        if (firstBit == secondBit)
+        {
+            return new BitmapNode(firstBit, new Object[]{merge(_first, _second, _shift + BITS)});
+        }
+        Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0 ? new Object[]{_first, _second} : new Object[]{_second, _first};
+        return new BitmapNode(firstBit | secondBit, slots);
+    }
+
+    /**
+     * @return the same node if the key is not there, null if the node ended up empty
+     */
+    private static Node remove(Node _node, int _shift, String _key, int _hash)
+    {
+        if (_node instanceof CollisionNode collisionNode)
+        {
+            Entry[] entries = collisionNode.entries;
+            for (int i = 0; i < entries.length; i++)
+            {
+                if (entries[i].key.equals(_key))
+                {
+                    if (entries.length == 1)
+                    {
+                        return null;
+                    }
+                    Entry[] copy = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, copy, 0, i);
+                    System.arraycopy(entries, i + 1, copy, i, entries.length - i - 1);
+                    return new CollisionNode(collisionNode.hash, copy);
+                }
+            }
+            return _node;
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) _node;
+        int bit = bitOf(_hash, _shift);
+        if ((bitmapNode.bitmap & bit) == 0)
+        {
+            return _node;
+        }
+        int index = Integer.bitCount(bitmapNode.bitmap & (bit - 1));
+        Object slot = bitmapNode.slots[index];
+        if (slot instanceof Entry entry)
+        {
+            if (entry.hash != _hash || !entry.key.equals(_key))
+            {
+                return _node;
+            }
+            return without(bitmapNode, bit, index);
+        }
+        Node child = (Node) slot;
+        Node newChild = remove(child, _shift + BITS, _key, _hash);
+        if (newChild == child)
+        {
+            return _node;
+        }
+        if (newChild == null)
+        {
+            return without(bitmapNode, bit, index);
+        }
+        Object[] slots = bitmapNode.slots.clone();
+        slots[index] = newChild;
+        return new BitmapNode(bitmapNode.bitmap, slots);
+    }
+
+    private static Node without(BitmapNode _node, int _bit, int _index)
+    {
+        if (_node.slots.length == 1)
+        {
+            return null;
+        }
+        Object[] slots = new Object[_node.slots.length - 1];
+        System.arraycopy(_node.slots, 0, slots, 0, _index);
+        System.arraycopy(_node.slots, _index + 1, slots, _index, _node.slots.length - _index - 1);
+        return new BitmapNode(_node.bitmap & ~_bit, slots);
+    }
+
+    /**
+     * Iterates over the values of this version of the map, later puts and removes do not affect it.
+     */
+    @Override
+    public Iterator<V> iterator()
+    {
+        return new Iterator<>()
+        {
+            //one array of slots per level, with the position reached in it
+            private final Deque<Object[]> slotsStack = new ArrayDeque<>();
+            private final Deque<Integer> positionStack = new ArrayDeque<>();
+            private Entry next;
+
+            {
+                this.push(root);
+                this.advance();
+            }
+
+            private void push(Node _node)
+            {
+                slotsStack.push(_node instanceof BitmapNode bitmapNode ? bitmapNode.slots : ((CollisionNode) _node).entries);
+                positionStack.push(0);
+            }
+
+            private void advance()
+            {
+                next = null;
+                while (!slotsStack.isEmpty())
+                {
+                    Object[] slots = slotsStack.peek();
+                    int position = positionStack.pop();
+                    if (position >= slots.length)
+                    {
+                        slotsStack.pop();
+                        continue;
+                    }
+                    positionStack.push(position + 1);
+                    Object slot = slots[position];
+                    if (slot instanceof Entry entry)
+                    {
+                        next = entry;
+                        return;
+                    }
+                    this.push((Node) slot);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {return next != null;}
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next()
+            {
+                if (next == null)
+                {
+                    throw new NoSuchElementException();
+                }
+                V ret = (V) next.value;
+                this.advance();
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * Keys that were added, removed or given another value between two versions of a map.
+     * Subtrees the two versions share are skipped, so when one version was derived from the other
+     * the cost follows the number of changes, not the size of the map.
+     */
+    public static List<String> changedKeys(PersistentHashMap<?> _before, PersistentHashMap<?> _after)
+    {
+        List<String> ret = new ArrayList<>();
+        changedKeys(_before.root, _after.root, ret);
+        return ret;
+    }
+
+    private static void changedKeys(Object _before, Object _after, List<String> _changed)
+    {
+        if (_before == _after)
+        {
+            return;
+        }
+        if (_before instanceof BitmapNode before && _after instanceof BitmapNode after)
+        {
+            int bitmap = before.bitmap | after.bitmap;
+            while (bitmap != 0)
+            {
+                int bit = Integer.lowestOneBit(bitmap);
+                bitmap &= ~bit;
+                changedKeys((before.bitmap & bit) == 0 ? null : before.slots[Integer.bitCount(before.bitmap & (bit - 1))],
+                        (after.bitmap & bit) == 0 ? null : after.slots[Integer.bitCount(after.bitmap & (bit - 1))],
+                        _changed);
+            }
+            return;
+        }
+        //an entry against a subtree, or collisions: compare the entries one by one, there are only a few
+        Map<String, Object> before = new HashMap<>();
+        collect(_before, before);
+        Map<String, Object> after = new HashMap<>();
+        collect(_after, after);
+        before.forEach((key, value) -> {
+            if (after.get(key) != value)
+            {
+                _changed.add(key);
+            }
+        });
+        after.keySet().stream().filter(key -> !before.containsKey(key)).forEach(_changed::add);
+    }
+
+    private static void collect(Object _slot, Map<String, Object> _entries)
+    {
+        if (_slot instanceof Entry entry)
+        {
+            _entries.put(entry.key, entry.value);
+        }
+        else if (_slot instanceof BitmapNode bitmapNode)
+        {
+            for (Object slot : bitmapNode.slots)
+            {
+                collect(slot, _entries);
+            }
+        }
+        else if (_slot instanceof CollisionNode collisionNode)
+        {
+            for (Entry entry : collisionNode.entries)
+            {
+                collect(entry, _entries);
+            }
+        }
+    }
+
+    private static int hashOf(String _key)
+    {
+        int h = _key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitOf(int _hash, int _shift)
+    {
+        return 1 << ((_hash >>> _shift) & MASK);
+    }
+
+    private abstract static class Node {}
+
+    private static final class BitmapNode extends Node
+    {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots)
+        {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class CollisionNode extends Node
+    {
+        final int hash;
+        final Entry[] entries;
+
+        CollisionNode(int hash, Entry[] entries)
+        {
+            this.hash = hash;
+            this.entries = entries;
+        }
+    }
+
+    private static final class Entry
+    {
+        final String key;
+        final Object value;
+        final int hash;
+
+        Entry(String key, Object value, int hash)
+        {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+    }
+}
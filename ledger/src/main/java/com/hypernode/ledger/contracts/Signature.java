@@ -3,18 +3,19 @@ package com.hypernode.ledger.contracts;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.hypernode.ledger.encryptionInterfaces.CanonicalHasher;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
 
-import java.util.Comparator;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Signature
 {
+    @BinaryBase64
     private String publicKey;
+    @BinaryBase64
     private String signatureValue;
     private String messageValue;
     @JsonCreator
@@ -67,49 +68,66 @@ public class Signature
                         .collect(Collectors.joining("|")
         );
     }
+    //Encryption.hash(listToString(messages)) without the joined string
+    public static String listToHash(Set<Signature> messages)
+    {
+        if(messages == null)
+        {
+            return Encryption.hash("");
+        }
+        return CanonicalHasher.create(false).appendSorted(messages.stream().map(Signature::uniqueString), "|").finish();
+    }
     public String uniqueString() {
         return this.getSignatureValue() + ";" + this.getPublicKey()  ;
     }
 
-    public static Set<Signature> publicKeyToName(Set<Signature> signatures, Set<DistributedLedgerAccount> accounts) {
-        Map<String, String> map = accounts.stream()
-                .filter(a -> (a.getName() != null && !a.getName().isEmpty()))
-                .collect(Collectors.toMap(DistributedLedgerAccount::getPublicKey, DistributedLedgerAccount::getName));
+    //names first, then the "#index" of the key index, the full public key only if it has neither
+    public static Set<Signature> publicKeyToName(Set<Signature> signatures, Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex) {
+        AccountStore names = AccountStore.of(accounts);
         return signatures.stream()
-                .map(p -> Signature.create(map.getOrDefault(p.getPublicKey(),p.getPublicKey()),p.messageValue,p.signatureValue))
+                .map(p -> Signature.create(publicKeyToName(p.getPublicKey(), names, keyIndex),p.messageValue,p.signatureValue))
                 .collect(Collectors.toSet());
     }
 
-    public static Signature publicKeyToName(Signature s, Set<DistributedLedgerAccount> accounts)
+    public static Signature publicKeyToName(Signature s, Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex)
     {
+        return Signature.create(publicKeyToName(s.getPublicKey(), AccountStore.of(accounts), keyIndex),s.messageValue,s.signatureValue);
+    }
 
-        String name = accounts.stream()
-                .filter(a -> s.getPublicKey().equals(a.getPublicKey()) && a.getName() != null && !a.getName().isEmpty())
-                .map(DistributedLedgerAccount::getName).findFirst().orElse(s.getPublicKey());
-
-        return Signature.create(name,s.messageValue,s.signatureValue);
+    private static String publicKeyToName(String publicKey, AccountStore names, KeyIndex keyIndex)
+    {
+        String name = names.publicKeyToName(publicKey);
+        //a name given before "#" was reserved would be read back as a key index, the key travels without it
+        if (name != null && !name.startsWith(KeyIndex.TOKEN_PREFIX))
+        {
+            return name;
+        }
+        return keyIndex == null ? publicKey : keyIndex.toToken(publicKey);
     }
 
-    public static Set<Signature> nameToPublicKey(Set<Signature> signatures, Set<DistributedLedgerAccount> accounts)
+    public static Set<Signature> nameToPublicKey(Set<Signature> signatures, Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex)
     {
-        Map<String, String> map = accounts.stream()
-                .filter(a -> (a.getName() != null && !a.getName().isEmpty()))
-                .collect(Collectors.toMap(DistributedLedgerAccount::getName, DistributedLedgerAccount::getPublicKey));
+        AccountStore names = AccountStore.of(accounts);
         return signatures.stream()
-                //.filter(p -> map.containsKey(p.getPublicKey()) )
-                .map(p -> Signature.create(map.getOrDefault(p.getPublicKey(),p.getPublicKey()),p.messageValue,p.signatureValue))
+                .map(p -> Signature.create(nameToPublicKey(p.getPublicKey(), names, keyIndex),p.messageValue,p.signatureValue))
                 .collect(Collectors.toSet());
     }
 
-    public static Signature nameToPublicKey(Signature s, Set<DistributedLedgerAccount> accounts)
+    public static Signature nameToPublicKey(Signature s, Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex)
     {
+        return Signature.create(nameToPublicKey(s.getPublicKey(), AccountStore.of(accounts), keyIndex),s.messageValue,s.signatureValue);
+    }
 
-        String name = accounts.stream()
-                .filter(a -> s.getPublicKey().equals(a.getName())).map(DistributedLedgerAccount::getPublicKey)
-                .findFirst().orElse(s.getPublicKey());
-
-        return Signature.create(name,s.messageValue,s.signatureValue);
-
+    //a "#index" token first, names starting with # are never sent
+    private static String nameToPublicKey(String name, AccountStore names, KeyIndex keyIndex)
+    {
+        String publicKey = keyIndex == null ? null : keyIndex.fromToken(name);
+        if (publicKey != null)
+        {
+            return publicKey;
+        }
+        publicKey = names.nameToPublicKey(name);
+        return publicKey == null ? name : publicKey;
     }
 
 
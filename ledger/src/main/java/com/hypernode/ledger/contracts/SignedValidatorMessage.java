@@ -2,6 +2,7 @@ package com.hypernode.ledger.contracts;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.hypernode.ledger.encryptionInterfaces.CanonicalHasher;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
 
@@ -30,9 +31,8 @@ public class SignedValidatorMessage
         SignedValidatorMessage signedValidatorMessage = new SignedValidatorMessage();
         ValidatorMessageDataContract contract = ValidatorMessageDataContract.createEmpty(_contract.getId());
         contract.setPaymentSet(Payment.populatePublicKeys(
-            _contract.getPaymentSet().stream()
-                    .map(p -> p.validatorSignPayment(_encryptionEntity,status.getHashPreviousBlock()))
-                    .collect(Collectors.toSet()),status.getDistributedLedgerAccounts()));
+            Payment.validatorSignPayments(_contract.getPaymentSet(), _encryptionEntity, status.getHashPreviousBlock()),
+            status.getDistributedLedgerAccounts()));
         contract.setValidatorNodes(new HashSet<>(_contract.getValidatorNodes()));
         contract.setVotingDelegationSet(new HashSet<>(_contract.getVotingDelegationSet()));
         contract.setVotedParameterChanges(_contract.getVotedParameterChanges());
@@ -51,11 +51,19 @@ public class SignedValidatorMessage
     }
 
     public static void mergeValue(Set<SignedValidatorMessage> _set, SignedValidatorMessage _message,EncryptionEntity_BaseInterface _encryptionEntity)
+    {
+        mergeValue(_set, _message, _encryptionEntity, false);
+    }
+
+    /**
+     * @param _verified true if the signatures of _message were already checked (see removeInvalidValidatorsSignatures)
+     */
+    public static void mergeValue(Set<SignedValidatorMessage> _set, SignedValidatorMessage _message,EncryptionEntity_BaseInterface _encryptionEntity, boolean _verified)
     {
         SignedValidatorMessage previousMessage;
         SignedValidatorMessage modifiedMessage;
         Signature messageSignature;
-        if(!_message.validateSignature())
+        if(!_verified && !_message.validateSignature())
         {
             return;
         }
@@ -64,7 +72,15 @@ public class SignedValidatorMessage
             previousMessage = _set.stream()
                     .filter(signedValidatorMessage -> signedValidatorMessage.originalSignature.equals(_message.originalSignature))
                     .findFirst().get();
-            previousMessage.validatorsSignatures.addAll(_message.validatorsSignatures.stream().filter(s -> s.validate(_message.getStringToSign())).toList());
+            if(_verified)
+            {
+                previousMessage.validatorsSignatures.addAll(_message.validatorsSignatures);
+            }
+            else
+            {
+                String stringToSign = _message.getStringToSign();
+                previousMessage.validatorsSignatures.addAll(_message.validatorsSignatures.stream().filter(s -> s.validate(stringToSign)).toList());
+            }
 
         }
         catch(Exception e)
@@ -77,6 +93,12 @@ public class SignedValidatorMessage
         }
     }
 
+    public void removeInvalidValidatorsSignatures()
+    {
+        String stringToSign = this.getStringToSign();
+        this.validatorsSignatures.removeIf(s -> !s.validate(stringToSign));
+    }
+
     public static String SetToString(Set<SignedValidatorMessage> _messages)
     {
         if(_messages == null)
@@ -86,32 +108,41 @@ public class SignedValidatorMessage
         return _messages.stream().map(SignedValidatorMessage::uniqueString).sorted().collect(Collectors.joining("|"));
         //return Signature.listToString(_messages.stream().map(SignedValidatorMessage::getOriginalSignature).collect(Collectors.toSet()));
     }
+    //Encryption.hash(SetToString(_messages)) without the joined string
+    public static String SetToHash(Set<SignedValidatorMessage> _messages)
+    {
+        if(_messages == null)
+        {
+            return Encryption.hash("");
+        }
+        return CanonicalHasher.create(false).appendSorted(_messages.stream().map(SignedValidatorMessage::uniqueString), "|").finish();
+    }
     @JsonIgnore
     public boolean validateSignature()
     {
         return Encryption.verifySignedMessage(this.getStringToSign(),this.originalSignature);
     }
 
-    public SignedValidatorMessage publicKeyToName(Set<DistributedLedgerAccount> accounts)
+    public SignedValidatorMessage publicKeyToName(Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex)
     {
         SignedValidatorMessage ret = new SignedValidatorMessage();
 
         ret.contract = this.getContract();
         ret.contract.setPaymentSet(Payment.removePublicKeys(ret.contract.getPaymentSet(),accounts));
-        ret.validatorsSignatures = Signature.publicKeyToName(this.getValidatorsSignatures(),accounts);
-        ret.originalSignature = Signature.publicKeyToName(this.getOriginalSignature(),accounts);
+        ret.validatorsSignatures = Signature.publicKeyToName(this.getValidatorsSignatures(),accounts,keyIndex);
+        ret.originalSignature = Signature.publicKeyToName(this.getOriginalSignature(),accounts,keyIndex);
 
         return ret;
     }
 
-    public SignedValidatorMessage nameToPublicKey(Set<DistributedLedgerAccount> accounts)
+    public SignedValidatorMessage nameToPublicKey(Set<DistributedLedgerAccount> accounts, KeyIndex keyIndex)
     {
         SignedValidatorMessage ret = new SignedValidatorMessage();
 
         ret.contract = this.getContract();
         ret.contract.setPaymentSet(Payment.populatePublicKeys(this.contract.getPaymentSet(),accounts));
-        ret.validatorsSignatures = Signature.nameToPublicKey(this.getValidatorsSignatures(),accounts);
-        ret.originalSignature = Signature.nameToPublicKey(this.getOriginalSignature(),accounts);
+        ret.validatorsSignatures = Signature.nameToPublicKey(this.getValidatorsSignatures(),accounts,keyIndex);
+        ret.originalSignature = Signature.nameToPublicKey(this.getOriginalSignature(),accounts,keyIndex);
 
         return ret;
     }
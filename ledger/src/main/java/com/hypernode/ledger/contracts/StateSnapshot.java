@@ -0,0 +1,40 @@
+package com.hypernode.ledger.contracts;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * What a node needs to start serving again after a restart: the last status it accepted
+ * and the message it was going to send for the next block.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StateSnapshot
+{
+    private StatusDataContract statusDataContract;
+    private ValidatorMessageDataContract pendingMessage;
+
+    public static StateSnapshot create(StatusDataContract _statusDataContract, ValidatorMessageDataContract _pendingMessage)
+    {
+        StateSnapshot ret = new StateSnapshot();
+        ret.statusDataContract = _statusDataContract;
+        ret.pendingMessage = _pendingMessage;
+        return ret;
+    }
+
+    /**
+     * @return true if the status hashes to the hash it was signed with
+     */
+    @JsonIgnore
+    public boolean isValid()
+    {
+        return statusDataContract != null && statusDataContract.getHash() != null
+                && statusDataContract.getHash().equals(statusDataContract.calculateHash())
+                && (pendingMessage == null || pendingMessage.getId() == statusDataContract.getId() + 1);
+    }
+
+    //getters and setters
+    public StatusDataContract getStatusDataContract() {return statusDataContract;}
+    public void setStatusDataContract(StatusDataContract statusDataContract) {this.statusDataContract = statusDataContract;}
+    public ValidatorMessageDataContract getPendingMessage() {return pendingMessage;}
+    public void setPendingMessage(ValidatorMessageDataContract pendingMessage) {this.pendingMessage = pendingMessage;}
+}
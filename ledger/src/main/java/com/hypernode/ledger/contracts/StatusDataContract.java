@@ -4,10 +4,11 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.hypernode.ledger.encryptionInterfaces.CanonicalHasher;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -17,38 +18,144 @@ public class StatusDataContract
 {
     private int id;
     private Signature signature;
-    private Set<DistributedLedgerAccount> distributedLedgerAccounts;
+    private AccountStore distributedLedgerAccounts;
     //private StatusDataContract previousVersion;
     private List<ValidatorNode> validatorNodeList;
     private LedgerParameters ledgerParameters;
     private LedgerParameters nextLedgerParameters;
     private String hash;
     private String hashPreviousBlock;
+    //4096 buckets for the accounts, a few hundred validators fit in 256
+    static final int ACCOUNTS_TREE_DEPTH = 12;
+    private static final int VALIDATORS_TREE_DEPTH = 8;
+    //built at the first hash, statuses that are only read never need them
+    @JsonIgnore
+    private MerkleStateTree<DistributedLedgerAccount> accountsTree;
+    @JsonIgnore
+    private MerkleStateTree<ValidatorNode> validatorsTree;
+    //the accounts as they were at the last hash, diffed against the current ones to update accountsTree
+    @JsonIgnore
+    private AccountStore accountsTreeStore;
+    //not part of the hash, every node derives the same one from the blocks
+    @JsonIgnore
+    private KeyIndex keyIndex;
 
+    public void signContract(EncryptionEntity_BaseInterface _encryptionEntity)
+    {
+        //the hash covers the whole status through the merkle roots, signing it lets clients check a single account.
+        //computed again every time, a copy of the previous status still carries the previous hash
+        this.computeHash();
+        this.signature = Signature.create(_encryptionEntity, this.hash,false);
+    }
+    public void computeHash(){this.hash = this.calculateHash();}
+    /**
+     * Hash of the status: the accounts and the validators enter through the roots of their merkle trees,
+     * that are kept from one block to the next so only the entries that changed get hashed again.
+     * The accounts tree is updated with the keys changed since the last hash, found by diffing the two
+     * versions of the store, so the cost follows the block and not the number of accounts.
+     */
     @JsonIgnore
-    public String getStringToSign()
+    public synchronized String calculateHash()
     {
-        String s = this.id
-                + ":" + this.distributedLedgerAccounts.stream().map(DistributedLedgerAccount::uniqueString).sorted().collect(Collectors.joining("|"))
-                + ":" + this.validatorNodeList.stream().map(ValidatorNode::uniqueString).sorted().collect(Collectors.joining("|"))
-                + ":" + this.ledgerParameters.getStringToSign()
-                + ":" + this.nextLedgerParameters.getStringToSign()
-                + ":" + this.getHashPreviousBlock();
-
-        return s.replaceAll("\\s+", "");
+        if (this.accountsTree == null)
+        {
+            this.accountsTree = new MerkleStateTree<>(ACCOUNTS_TREE_DEPTH, DistributedLedgerAccount::getPublicKey, DistributedLedgerAccount::uniqueString);
+            this.validatorsTree = new MerkleStateTree<>(VALIDATORS_TREE_DEPTH, ValidatorNode::getPublicKey, ValidatorNode::uniqueString);
+            this.accountsTree.sync(this.distributedLedgerAccounts);
+        }
+        else
+        {
+            this.accountsTree.update(this.distributedLedgerAccounts.changedKeys(this.accountsTreeStore), this.distributedLedgerAccounts::get);
+        }
+        this.accountsTreeStore = this.distributedLedgerAccounts.snapshot();
+        //a few hundred validators at most, walked every time
+        this.validatorsTree.sync(this.validatorNodeList);
+        return hashFromRoots(this.id, this.accountsTree.rootHash(), this.validatorsTree.rootHash(),
+                this.ledgerParameters.getStringToSign(), this.nextLedgerParameters.getStringToSign(), this.getHashPreviousBlock());
     }
-    public void signContract(EncryptionEntity_BaseInterface _encryptionEntity)
+    public static String hashFromRoots(int id, String accountsRoot, String validatorsRoot, String ledgerParameters, String nextLedgerParameters, String hashPreviousBlock)
     {
-        this.signature = Signature.create(_encryptionEntity, this.getStringToSign(),false);
+        return CanonicalHasher.create(true)
+                .append(id)
+                .append(":").append(accountsRoot)
+                .append(":").append(validatorsRoot)
+                .append(":").append(ledgerParameters)
+                .append(":").append(nextLedgerParameters)
+                .append(":").append(hashPreviousBlock)
+                .finish();
+    }
+    /**
+     * Copy of this status that does not see later changes to this one, without the merkle trees.
+     * The accounts are shared in O(1), the validator nodes are copied since there are only a few of them
+     * and a change to a node must not rewrite the status it came from.
+     */
+    @JsonIgnore
+    public synchronized StatusDataContract snapshot()
+    {
+        StatusDataContract ret = StatusDataContract.create(this.id, this.signature, null,
+                this.validatorNodeList == null ? null : this.validatorNodeList.stream().map(ValidatorNode::copy).collect(Collectors.toCollection(ArrayList::new)),
+                this.ledgerParameters, this.nextLedgerParameters, this.hash, this.hashPreviousBlock);
+        ret.distributedLedgerAccounts = this.distributedLedgerAccounts.snapshot();
+        ret.keyIndex = this.getKeyIndex().snapshot();
+        return ret;
+    }
+    /**
+     * Copy of this status to build the next block on, this one is left as it is for the history.
+     * The accounts are a snapshot of the store, so the copy costs nothing until accounts change,
+     * and the merkle trees move to the copy since that is the status that will be hashed next.
+     */
+    @JsonIgnore
+    public synchronized StatusDataContract snapshotForNextBlock()
+    {
+        StatusDataContract ret = this.snapshot();
+        ret.accountsTree = this.accountsTree;
+        ret.validatorsTree = this.validatorsTree;
+        ret.accountsTreeStore = this.accountsTreeStore;
+        //rebuilt from scratch if this status is ever hashed again
+        this.accountsTree = null;
+        this.validatorsTree = null;
+        this.accountsTreeStore = null;
+        return ret;
+    }
+    /**
+     * Gives an index to the accounts and validators that appeared in this status, called when the block is closed.
+     */
+    public void indexNewKeys()
+    {
+        KeyIndex index = this.getKeyIndex();
+        index.append(this.distributedLedgerAccounts.stream().map(DistributedLedgerAccount::getPublicKey).filter(k -> index.indexOf(k) == null).toList());
+        if (this.validatorNodeList != null)
+        {
+            index.append(this.validatorNodeList.stream().map(ValidatorNode::getPublicKey).toList());
+        }
+    }
+    /**
+     * Everything a client needs to check one account against the signed hash of this status,
+     * without downloading the other accounts.
+     *
+     * @return the proof, or null if there is no account with this public key
+     */
+    public synchronized AccountProof getAccountProof(String _publicKey)
+    {
+        DistributedLedgerAccount account = this.distributedLedgerAccounts.get(_publicKey);
+        if (account == null)
+        {
+            return null;
+        }
+        String statusHash = this.calculateHash();
+        return AccountProof.create(this.id, statusHash, this.signature, account, this.accountsTree.proof(account),
+                this.validatorsTree.rootHash(), this.ledgerParameters.getStringToSign(),
+                this.nextLedgerParameters.getStringToSign(), this.hashPreviousBlock);
     }
-    public void computeHash(){this.hash = Encryption.hash(this.getStringToSign());}
     //getters and setters
     public int getId() {return id;}
     public void setId(int id) {this.id = id;}
     public Signature getSignature() {return signature;}
     public void setSignature(Signature signature) {this.signature = signature;}
     public Set<DistributedLedgerAccount> getAccountsList() {return distributedLedgerAccounts;}
-    public void setDistributedLedgerAccounts(Set<DistributedLedgerAccount> distributedLedgerAccounts) {this.distributedLedgerAccounts = distributedLedgerAccounts;}
+    public void setDistributedLedgerAccounts(Set<DistributedLedgerAccount> distributedLedgerAccounts) {this.distributedLedgerAccounts = distributedLedgerAccounts instanceof AccountStore store ? store : AccountStore.create(distributedLedgerAccounts);}
+    @JsonIgnore
+    public AccountStore getAccountStore() {return distributedLedgerAccounts;}
     public List<ValidatorNode> getValidatorNodeList() {return validatorNodeList;}
     public void setValidatorNodeList(List<ValidatorNode> validatorNodeList) {this.validatorNodeList = validatorNodeList;}
     public LedgerParameters getLedgerParameters() {return ledgerParameters;}
@@ -58,6 +165,25 @@ public class StatusDataContract
     public void setHashPreviousBlock(String hashPreviousBlock) {this.hashPreviousBlock = hashPreviousBlock;}
     public Set<DistributedLedgerAccount> getDistributedLedgerAccounts() {return distributedLedgerAccounts;}
     public void setHash(String hash) {this.hash = hash;}
+    //a status that comes without an index (the first one) starts one with its keys in sorted order
+    @JsonIgnore
+    public synchronized KeyIndex getKeyIndex()
+    {
+        if (this.keyIndex == null)
+        {
+            KeyIndex index = KeyIndex.create(List.of());
+            index.append(this.distributedLedgerAccounts.stream().map(DistributedLedgerAccount::getPublicKey).toList());
+            if (this.validatorNodeList != null)
+            {
+                index.append(this.validatorNodeList.stream().map(ValidatorNode::getPublicKey).toList());
+            }
+            //every peer starts from the same first status, its keys can all travel as tokens
+            this.keyIndex = index.snapshot();
+        }
+        return this.keyIndex;
+    }
+    public List<String> getPublicKeyIndex() {return this.getKeyIndex().getKeys();}
+    public void setPublicKeyIndex(List<String> publicKeyIndex) {this.keyIndex = publicKeyIndex == null ? null : KeyIndex.create(publicKeyIndex);}
     public LedgerParameters getNextLedgerParameters() {return nextLedgerParameters;}
     public void setNextLedgerParameters(LedgerParameters nextLedgerParameters) {this.nextLedgerParameters = nextLedgerParameters;}
 
@@ -76,11 +202,7 @@ public class StatusDataContract
         StatusDataContract s = new StatusDataContract();
         s.id = id;
         s.signature=signature;
-        s.distributedLedgerAccounts = new HashSet<>();
-        if(distributedLedgerAccounts != null)
-        {
-            s.distributedLedgerAccounts.addAll(distributedLedgerAccounts);
-        }
+        s.distributedLedgerAccounts = AccountStore.create(distributedLedgerAccounts);
         s.validatorNodeList = validatorNodeList;
         s.ledgerParameters = ledgerParameters;
         s.nextLedgerParameters = nextLedgerParameters;
@@ -30,6 +30,8 @@ public class TransportMessageDataContract
     //private Set<TransportMessageDataContract> peerContracts;
     private Instant received;
     private Instant sent;
+    @JsonIgnore
+    private boolean signaturesVerified = false;//set by verifySignatures, never transmitted
 
 
     public TransportMessageDataContract hardCopy() {
@@ -65,11 +67,13 @@ public class TransportMessageDataContract
             iterator = _newContract.signedValidatorMessages.iterator();
             while (iterator.hasNext()) {
                 currentSignedValidatorMessage = iterator.next();
-                if (currentSignedValidatorMessage.validateSignature())
+                if (_newContract.signaturesVerified || currentSignedValidatorMessage.validateSignature())
                 {
-                    SignedValidatorMessage.mergeValue(this.signedValidatorMessages, currentSignedValidatorMessage,_encryptionEntity);
+                    SignedValidatorMessage.mergeValue(this.signedValidatorMessages, currentSignedValidatorMessage,_encryptionEntity,_newContract.signaturesVerified);
                     previousBlockRevisionResultSignatures.addAll(_newContract.getPreviousBlockRevisionResultSignatures().stream()
-                            .filter(s -> TransportMessageDataContract.validateBlockRevisionSignature(s, this)).toList());
+                            .filter(s -> _newContract.signaturesVerified
+                                    ? TransportMessageDataContract.isBlockRevisionSignaturePrefix(s, this)
+                                    : TransportMessageDataContract.validateBlockRevisionSignature(s, this)).toList());
                 }
             }
         }
@@ -81,7 +85,26 @@ public class TransportMessageDataContract
 
     public static boolean validateBlockRevisionSignature(Signature s, TransportMessageDataContract _this)
     {
-        return s.getMessageValue().startsWith("ID"+_this.getBlockId() + "R" + (_this.getBlockRevision()-1)) && s.validate();
+        return isBlockRevisionSignaturePrefix(s, _this) && s.validate();
+    }
+    private static boolean isBlockRevisionSignaturePrefix(Signature s, TransportMessageDataContract _this)
+    {
+        return s.getMessageValue().startsWith("ID"+_this.getBlockId() + "R" + (_this.getBlockRevision()-1));
+    }
+
+    /**
+     * Checks every signature carried by this received message and drops the ones that do not verify,
+     * so that storeDataContract can merge it without verifying anything again.
+     * It only touches this instance, which means many received messages can be verified in parallel
+     * before being merged one at a time.
+     */
+    public void verifySignatures()
+    {
+        this.signedValidatorMessages.removeIf(m -> !m.validateSignature());
+        this.signedValidatorMessages.forEach(SignedValidatorMessage::removeInvalidValidatorsSignatures);
+        this.signedValidatorMessages = new HashSet<>(this.signedValidatorMessages);//the hash of the elements changed
+        this.previousBlockRevisionResultSignatures.removeIf(s -> s.getMessageValue() == null || !s.validate());
+        this.signaturesVerified = true;
     }
 
     public static TransportMessageDataContract create(int blockRevision,
@@ -128,23 +151,28 @@ public class TransportMessageDataContract
 
         return "ID" + this.blockId
                 + "R" + this.blockTempVersion
-                + ":" + Encryption.hash(SignedValidatorMessage.SetToString(this.signedValidatorMessages))
-                + ":" + Encryption.hash(Signature.listToString(this.previousBlockRevisionResultSignatures));
+                + ":" + SignedValidatorMessage.SetToHash(this.signedValidatorMessages)
+                + ":" + Signature.listToHash(this.previousBlockRevisionResultSignatures);
                 //+ this.getPreviousRevision().getHash();
     }
 
-    public void publicKeyToName(Set<DistributedLedgerAccount> accounts)
+    //the keys of the signatures travel as names or "#index" of the status key index
+    public void publicKeyToName(StatusDataContract status)
     {
-        this.setPreviousBlockRevisionResultSignatures(Signature.publicKeyToName(this.getPreviousBlockRevisionResultSignatures(),accounts));
-        this.setSignature(Signature.publicKeyToName(this.getSignature(),accounts));
-        this.setSignedValidatorMessages(this.getSignedValidatorMessages().stream().map(s -> s.publicKeyToName(accounts)).collect(Collectors.toSet()));
+        Set<DistributedLedgerAccount> accounts = status.getDistributedLedgerAccounts();
+        KeyIndex keyIndex = status.getKeyIndex();
+        this.setPreviousBlockRevisionResultSignatures(Signature.publicKeyToName(this.getPreviousBlockRevisionResultSignatures(),accounts,keyIndex));
+        this.setSignature(Signature.publicKeyToName(this.getSignature(),accounts,keyIndex));
+        this.setSignedValidatorMessages(this.getSignedValidatorMessages().stream().map(s -> s.publicKeyToName(accounts,keyIndex)).collect(Collectors.toSet()));
     }
 
-    public void nameToPublicKey(Set<DistributedLedgerAccount> accounts)
+    public void nameToPublicKey(StatusDataContract status)
     {
-        this.setPreviousBlockRevisionResultSignatures(Signature.nameToPublicKey(this.getPreviousBlockRevisionResultSignatures(),accounts));
-        this.setSignature(Signature.nameToPublicKey(this.getSignature(),accounts));
-        this.setSignedValidatorMessages(this.getSignedValidatorMessages().stream().map(s -> s.nameToPublicKey(accounts)).collect(Collectors.toSet()));
+        Set<DistributedLedgerAccount> accounts = status.getDistributedLedgerAccounts();
+        KeyIndex keyIndex = status.getKeyIndex();
+        this.setPreviousBlockRevisionResultSignatures(Signature.nameToPublicKey(this.getPreviousBlockRevisionResultSignatures(),accounts,keyIndex));
+        this.setSignature(Signature.nameToPublicKey(this.getSignature(),accounts,keyIndex));
+        this.setSignedValidatorMessages(this.getSignedValidatorMessages().stream().map(s -> s.nameToPublicKey(accounts,keyIndex)).collect(Collectors.toSet()));
     }
 
 //getters and setters
@@ -14,7 +14,9 @@ public class ValidatorNode
 {
     private Map<Integer,Integer> address;//hypernode address
     private String connectionString;
+    @BinaryBase64
     private String publicKey;
+    @BinaryBase64
     private String signature;
 
     public static ValidatorNode findByPublicKey(List<ValidatorNode> _list, String _publicKey)
@@ -54,11 +56,22 @@ public class ValidatorNode
         while (validatorNodeListIterator.hasNext())
         {
             validatorNode = validatorNodeListIterator.next();
-            validatorNode.address = _ledgerParameters.calculateAddress(validatorNodeListIterator.nextIndex());
-            returnList.add(validatorNode);
+            Map<Integer,Integer> address = _ledgerParameters.calculateAddress(validatorNodeListIterator.nextIndex());
+            //the nodes of the starting status are part of its hash, a node that moves is a new object
+            returnList.add(Objects.equals(validatorNode.address, address) ? validatorNode : validatorNode.withAddress(address));
         }
         return returnList;
     }
+    public ValidatorNode withAddress(Map<Integer,Integer> _address)
+    {
+        ValidatorNode ret = new ValidatorNode();
+        ret.address = _address;
+        ret.connectionString = this.connectionString;
+        ret.publicKey = this.publicKey;
+        ret.signature = this.signature;
+        return ret;
+    }
+    public ValidatorNode copy() {return this.withAddress(this.address == null ? null : new HashMap<>(this.address));}
     @JsonIgnore
     public boolean validate()
     {
@@ -0,0 +1,278 @@
+package com.hypernode.ledger.contracts;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every version of every account over the last retentionBlocks blocks, to answer "account X as of block N"
+ * with a binary search among the versions of X instead of rebuilding the status of block N.
+ *
+ * The accounts as they were at baseBlockId are a snapshot of the AccountStore of that status,
+ * each block after it adds one version per account it changed (null when the account was removed).
+ * Once the base is more than retentionBlocks behind, the versions up to the new base are folded into it
+ * and dropped, so the memory follows the accounts changed within the retention, not the length of the ledger.
+ *
+ * The same is kept for the account that took each name and for the validator list, in the blocks where they changed,
+ * so a name and a validator node are also answered as they were in block N.
+ */
+public class VersionedAccountStore
+{
+    private final int retentionBlocks;
+    private volatile AccountStore base;
+    private volatile int baseBlockId;
+    private volatile int lastBlockId;
+    private volatile List<ValidatorNode> baseValidatorNodes;
+    private final Map<String, Versions<DistributedLedgerAccount>> versions = new ConcurrentHashMap<>();
+    //name to the account that took it, a version only when the name changed hands
+    private final Map<String, Versions<DistributedLedgerAccount>> nameVersions = new ConcurrentHashMap<>();
+    private final Versions<List<ValidatorNode>> validatorVersions = new Versions<>();
+
+    //versions of one value, block ids increasing
+    private static final class Versions<T>
+    {
+        private int[] blockIds = new int[2];
+        private Object[] values = new Object[2];
+        private int size;
+
+        synchronized void add(int _blockId, T _value)
+        {
+            if (size > 0 && blockIds[size - 1] == _blockId)
+            {
+                values[size - 1] = _value;
+                return;
+            }
+            if (size == blockIds.length)
+            {
+                blockIds = Arrays.copyOf(blockIds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            blockIds[size] = _blockId;
+            values[size] = _value;
+            size++;
+        }
+
+        /**
+         * @return the position of the last version at or before the block, -1 if there is none
+         */
+        synchronized int floor(int _blockId)
+        {
+            int position = Arrays.binarySearch(blockIds, 0, size, _blockId);
+            return position >= 0 ? position : -position - 2;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized T valueAt(int _position) {return (T) values[_position];}
+
+        /**
+         * Drops the versions at or before the block.
+         *
+         * @return true if there is nothing left
+         */
+        synchronized boolean dropUpTo(int _blockId)
+        {
+            int position = this.floor(_blockId) + 1;
+            if (position > 0)
+            {
+                blockIds = Arrays.copyOfRange(blockIds, position, Math.max(size, position + 2));
+                values = Arrays.copyOfRange(values, position, Math.max(size, position + 2));
+                size -= position;
+            }
+            return size == 0;
+        }
+    }
+
+    /**
+     * @param _status the status the versions start from
+     * @param _retentionBlocks how many blocks back the queries must be answered
+     */
+    public static VersionedAccountStore create(StatusDataContract _status, int _retentionBlocks)
+    {
+        VersionedAccountStore ret = new VersionedAccountStore(Math.max(_retentionBlocks, 1));
+        ret.base = _status.getAccountStore().snapshot();
+        ret.baseValidatorNodes = copy(_status.getValidatorNodeList());
+        ret.baseBlockId = _status.getId();
+        ret.lastBlockId = _status.getId();
+        return ret;
+    }
+
+    private VersionedAccountStore(int retentionBlocks)
+    {
+        this.retentionBlocks = retentionBlocks;
+    }
+
+    /**
+     * Adds the accounts changed by an accepted block, the blocks must come in order.
+     */
+    public synchronized void addBlock(BlockRecord _blockRecord)
+    {
+        AccountDelta delta = _blockRecord.getAccountDelta();
+        int blockId = _blockRecord.getBlockId();
+        if (delta == null || blockId <= lastBlockId)
+        {
+            return;
+        }
+        for (String publicKey : delta.getRemovedAccounts())
+        {
+            versions.computeIfAbsent(publicKey, k -> new Versions<>()).add(blockId, null);
+        }
+        for (DistributedLedgerAccount account : delta.getChangedAccounts())
+        {
+            DistributedLedgerAccount previous = this.getAccount(account.getPublicKey(), lastBlockId);
+            if (account.getName() != null && !account.getName().isEmpty() && (previous == null || !account.getName().equals(previous.getName())))
+            {
+                nameVersions.computeIfAbsent(account.getName(), k -> new Versions<>()).add(blockId, account);
+            }
+            versions.computeIfAbsent(account.getPublicKey(), k -> new Versions<>()).add(blockId, account);
+        }
+        if (_blockRecord.getValidatorNodeList() != null)
+        {
+            validatorVersions.add(blockId, copy(_blockRecord.getValidatorNodeList()));
+        }
+        lastBlockId = blockId;
+        //folding costs one pass over the accounts with versions, so it is done once every eighth of the retention
+        if (lastBlockId - baseBlockId > retentionBlocks + Math.max(retentionBlocks / 8, 1))
+        {
+            this.compact(lastBlockId - retentionBlocks);
+        }
+    }
+
+    /**
+     * @return the account as it was in the status with this id, null if it did not exist then
+     *         or if the block is outside of the retained range
+     */
+    public DistributedLedgerAccount getAccount(String _publicKey, int _blockId)
+    {
+        if (_publicKey == null || !this.isRetained(_blockId))
+        {
+            return null;
+        }
+        DistributedLedgerAccount ret = null;
+        boolean found = false;
+        Versions<DistributedLedgerAccount> accountVersions = versions.get(_publicKey);
+        if (accountVersions != null)
+        {
+            synchronized (accountVersions)
+            {
+                int position = accountVersions.floor(_blockId);
+                if (position >= 0)
+                {
+                    ret = accountVersions.valueAt(position);
+                    found = true;
+                }
+            }
+        }
+        if (!found)
+        {
+            ret = this.base.get(_publicKey);
+        }
+        //a compaction that ran meanwhile may have folded the versions of this block into the base
+        return this.isRetained(_blockId) ? ret : null;
+    }
+
+    /**
+     * @return the account that had this name in the status with this id, null if nobody had it then
+     *         or if the block is outside of the retained range
+     */
+    public DistributedLedgerAccount getAccountByName(String _name, int _blockId)
+    {
+        if (_name == null || _name.isEmpty() || !this.isRetained(_blockId))
+        {
+            return null;
+        }
+        String publicKey = null;
+        Versions<DistributedLedgerAccount> holders = nameVersions.get(_name);
+        if (holders != null)
+        {
+            synchronized (holders)
+            {
+                int position = holders.floor(_blockId);
+                if (position >= 0)
+                {
+                    publicKey = holders.valueAt(position).getPublicKey();
+                }
+            }
+        }
+        if (publicKey == null)
+        {
+            publicKey = this.base.nameToPublicKey(_name);
+        }
+        //the last one that took the name may have changed it or gone since
+        DistributedLedgerAccount ret = this.getAccount(publicKey, _blockId);
+        return ret != null && _name.equals(ret.getName()) ? ret : null;
+    }
+
+    /**
+     * @return the validators of the status with this id, null if the block is outside of the retained range
+     */
+    public List<ValidatorNode> getValidatorNodeList(int _blockId)
+    {
+        if (!this.isRetained(_blockId))
+        {
+            return null;
+        }
+        List<ValidatorNode> ret;
+        synchronized (validatorVersions)
+        {
+            int position = validatorVersions.floor(_blockId);
+            ret = position >= 0 ? validatorVersions.valueAt(position) : this.baseValidatorNodes;
+        }
+        return this.isRetained(_blockId) ? ret : null;
+    }
+
+    public boolean isRetained(int _blockId) {return _blockId >= baseBlockId && _blockId <= lastBlockId;}
+
+    public int getBaseBlockId() {return baseBlockId;}
+
+    public int getLastBlockId() {return lastBlockId;}
+
+    //moves the base forward to _newBaseBlockId, folding into it the last version of each account up to there
+    private void compact(int _newBaseBlockId)
+    {
+        AccountStore newBase = base.snapshot();
+        versions.forEach((publicKey, accountVersions) -> {
+            synchronized (accountVersions)
+            {
+                int position = accountVersions.floor(_newBaseBlockId);
+                if (position < 0)
+                {
+                    return;
+                }
+                DistributedLedgerAccount account = accountVersions.valueAt(position);
+                if (account == null)
+                {
+                    DistributedLedgerAccount removed = newBase.get(publicKey);
+                    if (removed != null)
+                    {
+                        newBase.remove(removed);
+                    }
+                }
+                else
+                {
+                    newBase.add(account);
+                }
+            }
+        });
+        List<ValidatorNode> newBaseValidatorNodes;
+        synchronized (validatorVersions)
+        {
+            int position = validatorVersions.floor(_newBaseBlockId);
+            newBaseValidatorNodes = position >= 0 ? validatorVersions.valueAt(position) : baseValidatorNodes;
+        }
+        //queries between the two bases are refused from here on, the base is published before the versions go
+        baseBlockId = _newBaseBlockId;
+        base = newBase;
+        baseValidatorNodes = newBaseValidatorNodes;
+        versions.entrySet().removeIf(e -> e.getValue().dropUpTo(_newBaseBlockId));
+        //the names up to the new base are in its accounts
+        nameVersions.entrySet().removeIf(e -> e.getValue().dropUpTo(_newBaseBlockId));
+        validatorVersions.dropUpTo(_newBaseBlockId);
+    }
+
+    //the versions keep their own nodes, as StatusDataContract.snapshot does
+    private static List<ValidatorNode> copy(List<ValidatorNode> _validatorNodes)
+    {
+        return _validatorNodes == null ? List.of() : _validatorNodes.stream().map(ValidatorNode::copy).toList();
+    }
+}
@@ -4,8 +4,10 @@ import com.hypernode.ledger.client.ClientEngine;
 import com.hypernode.ledger.client.ExternalPayment;
 import com.hypernode.ledger.ErrorHandling;
 import com.hypernode.ledger.contracts.AccountAttributesUpdate;
+import com.hypernode.ledger.contracts.AccountProof;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_ExternalServer;
+import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_UnixSocket;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_Integrated;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -150,6 +152,38 @@ public class ClientEndpoints {
         return "JSONInput";
     }
 
+    /**
+     * Initializes a local unix socket signer, verifying its signature before setting.
+     */
+    @ResponseBody
+    @PostMapping("/hdls-client/setEncryptionEntityUnixSocket")
+    public String setEncryptionEntityUnixSocket(@RequestBody EncryptionEntity_UnixSocket jsonInput) {
+        String testMessage = "the quick brown fox jumps over the lazy dog";
+        if(clientEngine.getEncryptionEntity() != null) {
+            return "Already Started";
+        }
+        if(!Encryption.verifySignedMessage(testMessage,jsonInput.getPublicKey(),jsonInput.signMessage(testMessage)))
+        {
+            return "Invalid Keys";
+        }
+
+        clientEngine.setEncryptionEntity(jsonInput);
+        return "OK";
+    }
+
+    /**
+     * Displays form for setting a local unix socket signer.
+     */
+    @GetMapping("/hdls-client/setEncryptionEntityUnixSocket")
+    public String setEncryptionEntityUnixSocket(Model model) {
+        model.addAttribute("apiEndpoint","/hdls-client/setEncryptionEntityUnixSocket");
+        model.addAttribute("title","Set Encryption Entity (Unix socket)");
+        model.addAttribute("info","");
+        model.addAttribute("jsonLabel","Paste socket path here:");
+        model.addAttribute("jsonDefault", "");
+        return "JSONInput";
+    }
+
     /**
      * Sets or updates the validator endpoint.
      */
@@ -177,6 +211,29 @@ public class ClientEndpoints {
         return "JSONInput";
     }
 
+    /**
+     * Sets the public keys of the validators whose signed status is trusted when checking an account proof.
+     */
+    @ResponseBody
+    @PostMapping("/hdls-client/setTrustedValidators")
+    public String setTrustedValidatorsPost(@RequestBody List<String> publicKeys) {
+        this.clientEngine.setTrustedValidators(publicKeys.stream().map(k -> k.replaceAll("\\s+", "")).toList());
+        return "OK";
+    }
+
+    /**
+     * Displays form for setting the trusted validators.
+     */
+    @GetMapping("/hdls-client/setTrustedValidators")
+    public String clientSetTrustedValidators(Model model) {
+        model.addAttribute("apiEndpoint","/hdls-client/setTrustedValidators");
+        model.addAttribute("title","Set trusted validators");
+        model.addAttribute("info","Account proofs are only accepted if the status is signed by one of these public keys");
+        model.addAttribute("jsonLabel","Paste JSON list of validator public keys here:");
+        model.addAttribute("jsonDefault","[\n\"PUBLIC_KEY_SERVER\"\n]");
+        return "JSONInput";
+    }
+
     /**
      * Signs an offline payment object using the local encryption key.
      */
@@ -285,7 +342,9 @@ public class ClientEndpoints {
         String ret;
         json.setFrom(this.clientEngine.getEncryptionEntity().getPublicKey());
         json.setBlockId( this.clientEngine.getNextAvailablePaymentBlock()-1);
-        json.setPreviousBlockHash( this.clientEngine.getStatus().getHash());
+        //the proof of our own account carries the signed status hash, no need to download the whole status
+        AccountProof accountProof = this.clientEngine.getVerifiedAccountProof(json.getFrom());
+        json.setPreviousBlockHash( accountProof != null ? accountProof.getStatusHash() : this.clientEngine.getStatus().getHash());
         try
         {
             ret = clientEngine.changeVoteDelegation(json);
@@ -1,7 +1,9 @@
 package com.hypernode.ledger.controller;
 
+import com.hypernode.ledger.ErrorHandling;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_Integrated;
+import com.hypernode.ledger.encryptionInterfaces.UnixSocketSignerServer;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -9,9 +11,13 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.io.IOException;
+import java.util.List;
+
 @Controller("/encryptionEntity")
 public class EncryptionEndpointController {
     EncryptionEntity_Integrated encryptionEntity;
+    UnixSocketSignerServer unixSocketSignerServer;
 
     @ResponseBody
     @PostMapping("/encryptionEntity/setEncryptionEntityIntegrated")
@@ -38,6 +44,35 @@ public class EncryptionEndpointController {
     public String signMessage(@RequestBody String message) {
         return encryptionEntity.signMessage(message);
     }
+    @ResponseBody
+    @PostMapping("/encryptionEntity/signMessages")
+    public List<String> signMessages(@RequestBody List<String> messages) {
+        return encryptionEntity.signMessages(messages);
+    }
+
+    /**
+     * Serves the same signatures on a unix domain socket, for a node running on this machine (EncryptionEntity_UnixSocket).
+     */
+    @ResponseBody
+    @PostMapping("/encryptionEntity/startUnixSocketServer")
+    public String startUnixSocketServer(@RequestBody String socketPath) {
+        if(encryptionEntity == null) {
+            return "Set Encryption entity first";
+        }
+        if(unixSocketSignerServer != null) {
+            return "Already Started";
+        }
+        try
+        {
+            unixSocketSignerServer = UnixSocketSignerServer.start(socketPath.replace("\"","").trim(), encryptionEntity);
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error EncryptionEndpointController.startUnixSocketServer",false,e);
+            return "Could not start: " + e.getMessage();
+        }
+        return "OK";
+    }
 
     @GetMapping("/encryptionEntity/setEncryptionEntityIntegrated")
     public String clientSetEncryptionEntityIntegrated(Model model) {
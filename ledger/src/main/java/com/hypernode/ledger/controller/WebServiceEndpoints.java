@@ -8,16 +8,29 @@ import com.hypernode.ledger.contracts.DistributedLedgerAccount;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_ExternalServer;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_Integrated;
+import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_UnixSocket;
+import com.hypernode.ledger.encryptionInterfaces.VerifiedSignatureCache;
+import com.hypernode.ledger.storage.BlockStorage;
+import com.hypernode.ledger.webService.HistoryStream;
+import com.hypernode.ledger.webService.PublishedMessage;
 import com.hypernode.ledger.webService.WebServiceCaller;
 import com.hypernode.ledger.webService.WebServiceEngine;
 import com.hypernode.ledger.webService.WebServiceInitializer;
+import com.hypernode.ledger.webService.WireFormat;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -37,6 +50,8 @@ public class WebServiceEndpoints
     @Autowired
     public WebServiceEngine webServiceEngine;
 
+    private static final int MAX_HISTORY_PAGE = 100;
+    private static final int MAX_ACCOUNT_PAYMENTS_PAGE = 500;
     private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
     /**
@@ -120,15 +135,49 @@ public class WebServiceEndpoints
      * Retrieves the current transport message being transmitted across the network.
      * This endpoint provides access to the latest block data and can be used
      * for network synchronization and as a cached response in CDN deployments.
+     * The message is serialized once per frame: the response carries a strong ETag,
+     * so conditional requests for a message that did not change get a 304 with no body,
+     * and the gzip encoding is served to callers that accept it.
      *
+     * @param ifNoneMatch the ETag the caller already has, if any
+     * @param acceptEncoding the encodings accepted by the caller
      * @return TransportMessageDataContract containing the current block data
      *         and transaction information being propagated through the network
      */
     @ResponseBody
     @GetMapping("/hdls/getCurrentlyTransmittedTransportMessage")
-    public TransportMessageDataContract getCurrentlyTransmittedTransportMessage()
+    public ResponseEntity<byte[]> getCurrentlyTransmittedTransportMessage(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
     {
-        return webServiceEngine.getCurrentlyTransmittedTransportMessage();
+        PublishedMessage message = webServiceEngine.getCurrentlyPublishedMessage();
+        if (message == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        boolean cbor = WireFormat.acceptsCbor(accept);
+        boolean gzip = !cbor && PublishedMessage.acceptsGzip(acceptEncoding);
+        ResponseEntity.BodyBuilder builder = ResponseEntity
+                .status(message.matches(ifNoneMatch) ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                .cacheControl(CacheControl.noCache())//caches can keep it, as long as they revalidate it
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .eTag(cbor ? message.getCborETag() : gzip ? message.getGzipETag() : message.getETag());
+        if (message.matches(ifNoneMatch))
+        {
+            return builder.build();
+        }
+        if (cbor)
+        {
+            return builder.contentType(MediaType.parseMediaType(WireFormat.APPLICATION_CBOR)).body(message.getCborBytes());
+        }
+        if (gzip)
+        {
+            return builder.contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(message.getGzipBytes());
+        }
+        return builder.contentType(MediaType.APPLICATION_JSON).body(message.getIdentityBytes());
     }
 
 
@@ -163,6 +212,22 @@ public class WebServiceEndpoints
     }
 
 
+    /**
+     * Statistics of the verified signature cache, to see how many verifications it is saving.
+     *
+     * @return hits, misses and current number of entries
+     */
+    @ResponseBody
+    @GetMapping("/hdls/getSignatureCacheStats")
+    public Map<String, Long> getSignatureCacheStats()
+    {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        ret.put("hits", VerifiedSignatureCache.getHits());
+        ret.put("misses", VerifiedSignatureCache.getMisses());
+        ret.put("size", (long) VerifiedSignatureCache.size());
+        return ret;
+    }
+
     /**
      * Retrieves account information for a specific public key.
      * Returns the account details including balance and validator assignment.
@@ -177,6 +242,19 @@ public class WebServiceEndpoints
         return DistributedLedgerAccount.find(webServiceEngine.getStatusDataContract().getAccountsList(), _publicKey.replace("\"",""));
     }
 
+    /**
+     * Retrieves an account together with its merkle path to the signed status hash.
+     * Lets clients check a balance without downloading the whole status.
+     *
+     * @param _publicKey String public key of the account to query
+     * @return AccountProof to be checked with AccountProof.verify(), or null if the account is not found
+     */
+    @ResponseBody
+    @PostMapping("/hdls/getAccountProof")
+    public AccountProof getAccountProof(@RequestBody String _publicKey) {
+        return webServiceEngine.getStatusDataContract().getAccountProof(_publicKey.replace("\"",""));
+    }
+
     /**
      * Submits a list of payment transactions to be included in the next block.
      * Validates and queues the transactions for processing by the network consensus.
@@ -236,6 +314,34 @@ public class WebServiceEndpoints
         return webServiceEngine.getAmountAvailable(publicKey);
     }
 
+    /**
+     * Retrieves the balance an account had in a past status.
+     *
+     * @param publicKey String public key of the account to query
+     * @param blockId id of the status
+     * @return the balance, empty if the block is older than the retained versions (ledger.history.balanceRetentionBlocks)
+     */
+    @ResponseBody
+    @GetMapping("/hdls/getAmountAt")
+    public BigDecimal getAmountAt(String publicKey, int blockId) {
+        return webServiceEngine.getAmountAvailableAt(publicKey, blockId);
+    }
+
+    public record AccountInfoAtRequest(String id, int blockId){}
+
+    /**
+     * Account information as it was in an older status: the account, the name it had then and its validator node of then.
+     *
+     * @param request public key or name of the account, and id of the status
+     * @return AccountInfo, empty if the block is older than the retained versions (ledger.history.balanceRetentionBlocks)
+     */
+    @ResponseBody
+    @PostMapping("/hdls/getAccountInfoAt")
+    public AccountInfo getAccountInfoAt(@RequestBody AccountInfoAtRequest request)
+    {
+        return this.webServiceEngine.getAccountInfoAt(request.id(), request.blockId());
+    }
+
     /**
      * Retrieves the current block ID being processed by the system.
      * Useful for synchronization and determining the current state of the ledger.
@@ -249,17 +355,89 @@ public class WebServiceEndpoints
         return this.webServiceEngine.getBlockId();
     }
 
-    @ResponseBody
+    /**
+     * The whole history since the origin, written block by block as it is serialized.
+     *
+     * @return the same JSON document as a serialized LedgerHistory
+     */
     @GetMapping("/hdls/getLedgerHistory")
-    public LedgerHistory getLedgerHistory()
+    public ResponseEntity<StreamingResponseBody> getLedgerHistory()
     {
-        return this.webServiceEngine.getLedgerHistory();
+        LedgerHistory history = this.webServiceEngine.getLedgerHistory();
+        if (history == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(out -> HistoryStream.writeLedgerHistory(out, history.getOriginalContract(), history.getAllBlocks()));
     }
+
+    /**
+     * A page of the history, for clients that prefer bounded responses to a stream.
+     *
+     * @param start id of the status the first block starts from, the first block after it if that one is not kept
+     * @param limit maximum number of blocks, capped at MAX_HISTORY_PAGE
+     */
     @ResponseBody
+    @GetMapping("/hdls/getLedgerHistoryPage")
+    public List<BlockRecord> getLedgerHistoryPage(int start, int limit)
+    {
+        LedgerHistory history = this.webServiceEngine.getLedgerHistory();
+        return history == null ? List.of() : history.getPage(start, Math.min(limit, MAX_HISTORY_PAGE));
+    }
+
+    /**
+     * The blocks between start and end as NDJSON, one block per line, written as they are read.
+     */
+    @GetMapping("/hdls/streamLedgerHistory")
+    public ResponseEntity<StreamingResponseBody> streamLedgerHistory(int start, int end)
+    {
+        LedgerHistory history = this.webServiceEngine.getLedgerHistory();
+        if (history == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(WireFormat.APPLICATION_NDJSON))
+                .body(out -> HistoryStream.writeNdjson(out, history.getBlocks(start, end)));
+    }
+    /**
+     * Reads an accepted block back from the block log on disk.
+     *
+     * @param blockId id of the status the block produced
+     * @return the block record, empty if this node does not have it
+     */
+    @ResponseBody
+    @GetMapping("/hdls/getBlockRecord")
+    public BlockRecord getBlockRecord(int blockId)
+    {
+        return BlockStorage.readBlock(blockId);
+    }
+
     @GetMapping("/hdls/getLedgerHistoryInterval")
-    public LedgerHistory getLedgerHistoryInterval(int start, int end)
+    public ResponseEntity<StreamingResponseBody> getLedgerHistoryInterval(int start, int end)
     {
-        return this.webServiceEngine.getLedgerHistory().getInterval(start,end);
+        LedgerHistory history = this.webServiceEngine.getLedgerHistory();
+        StatusDataContract startingStatus = history == null ? null : history.getStatus(Math.max(start, history.getOriginalContract().getId()));
+        if (startingStatus == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(out -> HistoryStream.writeLedgerHistory(out, startingStatus, history.getBlocks(startingStatus.getId(), end)));
+    }
+
+    /**
+     * A past status, rebuilt from the nearest checkpoint of the history and the blocks after it.
+     *
+     * @param id id of the status
+     * @return the status, empty if it is not in the history of this node
+     */
+    @ResponseBody
+    @GetMapping("/hdls/getHistoricalStatus")
+    public StatusDataContract getHistoricalStatus(int id)
+    {
+        LedgerHistory history = this.webServiceEngine.getLedgerHistory();
+        return history == null ? null : history.getStatus(id);
     }
 
     @ResponseBody
@@ -280,6 +458,21 @@ public class WebServiceEndpoints
         return ret;
     }
 
+    public record AccountPaymentsRequest(String id, int offset, int limit){}
+
+    /**
+     * The payments sent or received by an account since this node started following the ledger, oldest first.
+     *
+     * @param request public key or name of the account, offset of the first payment, and page size (capped at MAX_ACCOUNT_PAYMENTS_PAGE)
+     * @return the page, with the offset of the next one
+     */
+    @ResponseBody
+    @PostMapping("/hdls/getAccountPayments")
+    public AccountPaymentsPage getAccountPayments(@RequestBody AccountPaymentsRequest request)
+    {
+        return this.webServiceEngine.getAccountPayments(request.id(), request.offset(), Math.min(request.limit(), MAX_ACCOUNT_PAYMENTS_PAGE));
+    }
+
     @ResponseBody
     @PostMapping("/hdls/receivePreviousMessageSignature")
     public String receivePreviousMessageSignature(@RequestBody Signature  signature)
@@ -381,7 +574,7 @@ public class WebServiceEndpoints
             return "Invalid Keys";
         }
         webServiceEngine.setEncryptionEntity(jsonInput);
-        return "OK";
+        return this.restoreFromSnapshot();
     }
 
     /**
@@ -405,10 +598,50 @@ public class WebServiceEndpoints
             return "Invalid Keys";
         }
         webServiceEngine.setEncryptionEntity(jsonInput);
-        return "OK";
+        return this.restoreFromSnapshot();
+    }
+
+    /**
+     * Sets the encryption entity for a signer running on the same machine.
+     * Configures the server to ask a local signing process for signatures through a unix domain socket.
+     * Validates the connection by testing message signing before acceptance.
+     *
+     * @param jsonInput EncryptionEntity_UnixSocket object containing the socket path
+     * @return String status message: "OK" if successful, "Already Started" if already configured,
+     *         or "Invalid Keys" if the signer validation fails
+     */
+    @ResponseBody
+    @PostMapping("/hdls-server-admin/setEncryptionEntityUnixSocket")
+    public String setEncryptionEntityUnixSocket(@RequestBody EncryptionEntity_UnixSocket jsonInput) {
+        String testMessage = "the quick brown fox jumps over the lazy dog";
+        if(webServiceEngine.getEncryptionEntity() != null) {
+            return "Already Started";
+        }
+        if(!Encryption.verifySignedMessage(testMessage,jsonInput.getPublicKey(),jsonInput.signMessage(testMessage)))
+        {
+            return "Invalid Keys";
+        }
+        webServiceEngine.setEncryptionEntity(jsonInput);
+        return this.restoreFromSnapshot();
     }
 
 
+    /**
+     * Once the keys are known a node that was restarted picks up from its latest snapshot,
+     * instead of waiting to be authenticated and initialized again by the other nodes.
+     *
+     * @return "OK", or "OK, restored block n" if a snapshot was restored
+     */
+    private String restoreFromSnapshot()
+    {
+        if(webServiceEngine.getStatusDataContract() != null || !WebServiceInitializer.restoreFromSnapshot(webServiceEngine))
+        {
+            return "OK";
+        }
+        this.startTimer();
+        return "OK, restored block " + webServiceEngine.getStatusDataContract().getId();
+    }
+
     /**
      * Initializes and creates a new distributed ledger with the provided configuration.
      * This method sets up the genesis block and initial validator nodes.
@@ -533,7 +766,7 @@ public class WebServiceEndpoints
         myTransportMessageDataContract.signContract(this.webServiceEngine.getEncryptionEntity());
         myTransportMessageDataContract.computeHash();
 
-        transportMessageDataContract.nameToPublicKey(statusDataContract.getDistributedLedgerAccounts());
+        transportMessageDataContract.nameToPublicKey(statusDataContract);
         myTransportMessageDataContract.storeDataContract(transportMessageDataContract, this.webServiceEngine.getEncryptionEntity());
 
         result.init(myTransportMessageDataContract,myTransportMessageDataContract,statusDataContract);
@@ -581,6 +814,21 @@ public class WebServiceEndpoints
         model.addAttribute("jsonDefault", "");
         return "JSONInput";
     }
+    /**
+     * Displays the form page for setting up a local unix socket signer.
+     *
+     * @param model Spring MVC model for passing form configuration to the view
+     * @return String view name "JSONInput" for the socket path form
+     */
+    @GetMapping("/hdls-server-admin/setEncryptionEntityUnixSocket")
+    public String setEncryptionEntityUnixSocket(Model model) {
+        model.addAttribute("apiEndpoint","/hdls-server-admin/setEncryptionEntityUnixSocket");
+        model.addAttribute("title","Set Encryption Entity (Unix socket)");
+        model.addAttribute("info","");
+        model.addAttribute("jsonLabel","Paste socket path here:");
+        model.addAttribute("jsonDefault", "");
+        return "JSONInput";
+    }
     /**
      * Displays the form page for creating a new ledger.
      * Pre-populates the form with default configuration including the current server's public key.
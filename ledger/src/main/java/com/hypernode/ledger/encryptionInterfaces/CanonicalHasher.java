@@ -0,0 +1,176 @@
+package com.hypernode.ledger.encryptionInterfaces;
+
+import com.hypernode.ledger.ErrorHandling;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * Computes the MD5 of a string to sign without building the string.
+ * The pieces are encoded to UTF-8 straight into a small buffer that is flushed to the digest,
+ * so hashing a status with 100k accounts does not allocate the joined string, its whitespace-free copy
+ * and the byte array of the encoding.
+ * The result is byte-identical to Encryption.hash(s) and, with stripWhitespace, to Encryption.hash(s.replaceAll("\\s+", ""))
+ * where s is the concatenation of everything appended.
+ */
+public final class CanonicalHasher
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final MessageDigest MD5_PROTOTYPE = md5();
+
+    private final MessageDigest digest;
+    private final boolean stripWhitespace;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private CanonicalHasher(MessageDigest digest, boolean stripWhitespace)
+    {
+        this.digest = digest;
+        this.stripWhitespace = stripWhitespace;
+    }
+
+    public static CanonicalHasher create(boolean _stripWhitespace)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = (MessageDigest) MD5_PROTOTYPE.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            digest = md5();
+        }
+        return new CanonicalHasher(digest, _stripWhitespace);
+    }
+
+    private static MessageDigest md5()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            ErrorHandling.logEvent("somehow md5 is not present in this java version",true,e);
+            return null;
+        }
+    }
+
+    public CanonicalHasher append(Object value)
+    {
+        return this.append(String.valueOf(value));
+    }
+
+    public CanonicalHasher append(String value)
+    {
+        if (value == null)
+        {
+            value = "null";//same as string concatenation
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (stripWhitespace && isWhitespace(c))
+            {
+                continue;
+            }
+            if (position + 4 > BUFFER_SIZE)
+            {
+                this.flush();
+            }
+            if (c < 0x80)
+            {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                int next = this.nextNonWhitespace(value, i + 1);
+                if (Character.isHighSurrogate(c) && next < length && Character.isLowSurrogate(value.charAt(next)))
+                {
+                    int codePoint = Character.toCodePoint(c, value.charAt(next));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    i = next;
+                }
+                else
+                {
+                    buffer[position++] = '?';//what the UTF-8 encoder writes for a lone surrogate
+                }
+            }
+            else
+            {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends bytes as they are, whitespace included.
+     */
+    public CanonicalHasher append(byte[] value)
+    {
+        this.flush();
+        digest.update(value);
+        return this;
+    }
+
+    /**
+     * Same as appending values.sorted().collect(Collectors.joining(separator)).
+     */
+    public CanonicalHasher appendSorted(Stream<String> values, String separator)
+    {
+        boolean[] first = {true};
+        values.sorted().forEachOrdered(value -> {
+            if (!first[0])
+            {
+                this.append(separator);
+            }
+            first[0] = false;
+            this.append(value);
+        });
+        return this;
+    }
+
+    /**
+     * @return the hex digest, lowercase and 32 characters long like Encryption.hash
+     */
+    public String finish()
+    {
+        this.flush();
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void flush()
+    {
+        digest.update(buffer, 0, position);
+        position = 0;
+    }
+
+    //a surrogate pair can be split by whitespace that the regex would have removed
+    private int nextNonWhitespace(String value, int index)
+    {
+        while (stripWhitespace && index < value.length() && isWhitespace(value.charAt(index)))
+        {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -4,26 +4,48 @@ import com.hypernode.ledger.ErrorHandling;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.NamedParameterSpec;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.Base64;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 
 @Component
 public class Encryption {
 
     private static String KEY_ALGORITHM;//"RSA";//Key algorithms
     private static String SIGN_ALGORITHM;//"MD5withRSA";//Signature algorithms
+    private static int PUBLIC_KEY_CACHE_SIZE = 4096;
+
+    //the same validator keys get verified thousands of times per block, parsing them costs as much as the verify
+    //LRU on the raw key bytes, the access order LinkedHashMap needs the synchronized wrapper even for get
+    private static final Map<ByteBuffer, PublicKey> publicKeyCache = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PublicKey> eldest) {
+                    return size() > PUBLIC_KEY_CACHE_SIZE;
+                }
+            });
+    //verifiers are reset by initVerify so they can be reused by anyone.
+    //A shared pool rather than a ThreadLocal, the peers are read on virtual threads that live for a single task
+    private static final Queue<Signature> verifierPool = new ArrayBlockingQueue<>(256);
 
     @Value("${encryption.keyAlgo}")
     public void setKeyAlgorithm(String keyAlgorithm) {
         KEY_ALGORITHM = keyAlgorithm;
+        publicKeyCache.clear();
+        VerifiedSignatureCache.clear();
     }
     @Value("${encryption.signAlgo}")
     public void setSignAlgorithm(String signAlgorithm) {
         SIGN_ALGORITHM = signAlgorithm;
+        verifierPool.clear();
+        VerifiedSignatureCache.clear();
+    }
+    @Value("${encryption.publicKeyCacheSize:4096}")
+    public void setPublicKeyCacheSize(int publicKeyCacheSize) {
+        PUBLIC_KEY_CACHE_SIZE = publicKeyCacheSize;
     }
 
     //client functions
@@ -85,20 +107,25 @@ public class Encryption {
 
     public static boolean verifySignedMessage(String data, String publicKey, String signature)
     {
-        return Encryption.verifySignedMessage(data,Encryption.base64ToByteArray(publicKey),Encryption.base64ToByteArray(signature));
+        return VerifiedSignatureCache.verify(data, publicKey, signature,
+                () -> Encryption.verifySignedMessage(data,Encryption.base64ToByteArray(publicKey),Encryption.base64ToByteArray(signature)));
     }
     public static boolean verifySignedMessage(String _data, byte[] publicKey, byte[] _signature)
     {
         try
         {
-            KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(publicKey);
-            PublicKey pubKey = keyFactory.generatePublic(keySpec);
+            PublicKey pubKey = decodePublicKey(publicKey);
 
-            Signature signature = Signature.getInstance(SIGN_ALGORITHM);
+            Signature signature = verifierPool.poll();
+            if (signature == null)
+            {
+                signature = Signature.getInstance(SIGN_ALGORITHM);
+            }
             signature.initVerify(pubKey);
             signature.update(_data.getBytes());
-            return signature.verify(_signature);
+            boolean ret = signature.verify(_signature);
+            verifierPool.offer(signature);//only if it completed without errors, dropped if the pool is full
+            return ret;
         }
         catch (Exception e)
         {
@@ -107,20 +134,25 @@ public class Encryption {
         }
     }
 
-    public static String hash(String value)
+    public static PublicKey decodePublicKey(byte[] publicKey) throws GeneralSecurityException
     {
-        MessageDigest md5;
-        try
-        {
-            md5 = MessageDigest.getInstance("MD5");
-        }
-        catch (NoSuchAlgorithmException e)
+        PublicKey ret = publicKeyCache.get(ByteBuffer.wrap(publicKey));
+        if (ret == null)
         {
-            //throw new RuntimeException(e);
-            ErrorHandling.logEvent("somehow md5 is not present in this java version",true,e);
-            return "";
+            //parsed outside the lock, two threads may both parse the same key the first time, that is fine
+            ret = KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(new X509EncodedKeySpec(publicKey));
+            publicKeyCache.put(ByteBuffer.wrap(publicKey.clone()), ret);
         }
-        md5.update(StandardCharsets.UTF_8.encode(value));
-        return String.format("%032x", new BigInteger(1, md5.digest()));
+        return ret;
+    }
+
+    public static String hash(String value)
+    {
+        return CanonicalHasher.create(false).append(value).finish();
+    }
+
+    public static String hash(byte[] value)
+    {
+        return CanonicalHasher.create(false).append(value).finish();
     }
 }
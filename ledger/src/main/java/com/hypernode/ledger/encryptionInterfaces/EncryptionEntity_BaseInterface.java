@@ -1,9 +1,21 @@
 package com.hypernode.ledger.encryptionInterfaces;
 
+import java.util.List;
+
 public interface EncryptionEntity_BaseInterface {
 
     String getPublicKey();
 
     String signMessage(String _message);
 
+    /**
+     * Signs several messages at once, implementations can do it in parallel or in a single round trip.
+     *
+     * @return the signatures, in the same order as the messages
+     */
+    default List<String> signMessages(List<String> _messages)
+    {
+        return _messages.stream().map(this::signMessage).toList();
+    }
+
 }
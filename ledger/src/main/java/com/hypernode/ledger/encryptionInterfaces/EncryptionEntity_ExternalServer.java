@@ -5,16 +5,36 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.hypernode.ledger.ErrorHandling;
 import com.hypernode.ledger.webService.WebServiceCaller;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public class EncryptionEntity_ExternalServer implements EncryptionEntity_BaseInterface {
 
+    //messages per signMessages request, the requests are all sent together and the server signs each one in parallel
+    private static final int SIGN_BATCH_SIZE = 64;
+
     String connectionString;
+    //the key of the signing server does not change, no reason to ask it every time
+    private volatile String publicKey;
     @Override
     public String getPublicKey()
     {
+        String ret = publicKey;
+        if (ret != null)
+        {
+            return ret;
+        }
         try
         {
-            return WebServiceCaller.callServerMethodThrows(connectionString, "getPublicKey", null, new TypeReference<String>() {
+            ret = WebServiceCaller.callServerMethodThrows(connectionString, "getPublicKey", null, new TypeReference<String>() {
             });
+            if (ret != null && !ret.isEmpty())
+            {
+                publicKey = ret;
+            }
+            return ret;
         }
         catch (Exception e)
         {
@@ -38,6 +58,43 @@ public class EncryptionEntity_ExternalServer implements EncryptionEntity_BaseInt
         }
 
     }
+
+    /**
+     * Splits the messages in batches and sends all of them without waiting for the previous answer,
+     * so a few hundred signatures cost about one round trip instead of one each.
+     */
+    @Override
+    public List<String> signMessages(List<String> _messages)
+    {
+        List<CompletableFuture<List<String>>> batches = new ArrayList<>();
+        for (int i = 0; i < _messages.size(); i += SIGN_BATCH_SIZE)
+        {
+            List<String> batch = _messages.subList(i, Math.min(i + SIGN_BATCH_SIZE, _messages.size()));
+            batches.add(WebServiceCaller.callServerMethodAsync(connectionString, "signMessages", batch, new TypeReference<List<String>>() {
+            }));
+        }
+        List<String> ret = new ArrayList<>(_messages.size());
+        for (int i = 0; i < batches.size(); i++)
+        {
+            int batchSize = Math.min(SIGN_BATCH_SIZE, _messages.size() - i * SIGN_BATCH_SIZE);
+            List<String> signatures;
+            try
+            {
+                signatures = batches.get(i).join();
+            }
+            catch (Exception e)
+            {
+                ErrorHandling.logEvent("Signature did not work",false,e);
+                signatures = null;
+            }
+            if (signatures == null || signatures.size() != batchSize)
+            {
+                signatures = Collections.nCopies(batchSize, "");//same as a failed signMessage
+            }
+            ret.addAll(signatures);
+        }
+        return ret;
+    }
 @JsonCreator
     public static EncryptionEntity_ExternalServer create(String connectionString)
     {
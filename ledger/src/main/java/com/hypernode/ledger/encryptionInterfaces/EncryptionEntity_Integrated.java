@@ -5,9 +5,13 @@ import com.hypernode.ledger.ErrorHandling;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 //@JsonTypeName("Integrated")
 @Component
 public class EncryptionEntity_Integrated implements EncryptionEntity_BaseInterface {
@@ -28,6 +32,10 @@ public class EncryptionEntity_Integrated implements EncryptionEntity_BaseInterfa
     //this base one will load it in memory
     private String privateKey;
     private String publicKey;
+    //parsed on the first signature and kept, the private key string never changes after create
+    private volatile PrivateKey parsedPrivateKey;
+    //initialized signers, sign() resets them to the state after initSign so they can be used again as they are
+    private final Queue<java.security.Signature> signerPool = new ArrayBlockingQueue<>(64);
 
     @Override
     public String getPublicKey() {return publicKey;}
@@ -36,14 +44,16 @@ public class EncryptionEntity_Integrated implements EncryptionEntity_BaseInterfa
     {
         try
         {
-
-            PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Encryption.base64ToByteArray(this.privateKey));
-            KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-            PrivateKey priKey = keyFactory.generatePrivate(keySpec);
-            java.security.Signature signature = java.security.Signature.getInstance(SIGN_ALGORITHM);
-            signature.initSign(priKey);
+            java.security.Signature signature = signerPool.poll();
+            if (signature == null)
+            {
+                signature = java.security.Signature.getInstance(SIGN_ALGORITHM);
+                signature.initSign(this.getParsedPrivateKey());
+            }
             signature.update(_message.getBytes());//Set the data to be calculated
-            return Encryption.ByteArrayToBase64(signature.sign());
+            String ret = Encryption.ByteArrayToBase64(signature.sign());
+            signerPool.offer(signature);
+            return ret;
 
         }
         catch (Exception e)
@@ -53,6 +63,27 @@ public class EncryptionEntity_Integrated implements EncryptionEntity_BaseInterfa
         }
     }
 
+    /**
+     * Signs the messages in parallel on all the cores, ML-DSA signatures are expensive enough to be worth it.
+     */
+    @Override
+    public List<String> signMessages(List<String> _messages)
+    {
+        return _messages.parallelStream().map(this::signMessage).toList();
+    }
+
+    private PrivateKey getParsedPrivateKey() throws GeneralSecurityException
+    {
+        PrivateKey ret = parsedPrivateKey;
+        if (ret == null)
+        {
+            PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Encryption.base64ToByteArray(this.privateKey));
+            ret = KeyFactory.getInstance(KEY_ALGORITHM).generatePrivate(keySpec);
+            parsedPrivateKey = ret;
+        }
+        return ret;
+    }
+
     @JsonCreator
     public static EncryptionEntity_Integrated create(
             String publicKey,
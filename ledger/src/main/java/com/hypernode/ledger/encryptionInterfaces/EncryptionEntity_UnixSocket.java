@@ -0,0 +1,118 @@
+package com.hypernode.ledger.encryptionInterfaces;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.hypernode.ledger.ErrorHandling;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Signer running as a separate process on the same machine (see UnixSocketSignerServer),
+ * reached through a unix domain socket.
+ * The private key stays out of this JVM like with EncryptionEntity_ExternalServer,
+ * without paying HTTP and JSON for every signature: frames are length prefixed binary
+ * and signMessages sends the whole batch in a single request.
+ */
+public class EncryptionEntity_UnixSocket implements EncryptionEntity_BaseInterface {
+
+    String socketPath;
+    private volatile String publicKey;
+    //open connections, one request at a time on each of them
+    private final Queue<SocketChannel> connections = new ArrayBlockingQueue<>(8);
+
+    @Override
+    public String getPublicKey()
+    {
+        String ret = publicKey;
+        if (ret != null)
+        {
+            return ret;
+        }
+        try
+        {
+            ret = this.call(UnixSocketFrame.OP_GET_PUBLIC_KEY, List.of()).get(0);
+            publicKey = ret;
+            return ret;
+        }
+        catch (Exception e)
+        {
+            ErrorHandling.logEvent("error",false,e);
+            return "";
+        }
+    }
+
+    @Override
+    public String signMessage(String _message)
+    {
+        return this.signMessages(List.of(_message)).get(0);
+    }
+
+    @Override
+    public List<String> signMessages(List<String> _messages)
+    {
+        try
+        {
+            List<String> ret = this.call(UnixSocketFrame.OP_SIGN_MESSAGES, _messages);
+            if (ret.size() == _messages.size())
+            {
+                return ret;
+            }
+            ErrorHandling.logEvent("the signer returned " + ret.size() + " signatures for " + _messages.size() + " messages",false,null);
+        }
+        catch (Exception e)
+        {
+            ErrorHandling.logEvent("Signature did not work",false,e);
+        }
+        return Collections.nCopies(_messages.size(), "");
+    }
+
+    private List<String> call(byte _opcode, List<String> _items) throws IOException
+    {
+        SocketChannel channel = connections.poll();
+        if (channel == null || !channel.isOpen())
+        {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+        }
+        UnixSocketFrame response;
+        try
+        {
+            new UnixSocketFrame(_opcode, _items).write(channel);
+            response = UnixSocketFrame.read(channel);
+        }
+        catch (IOException e)
+        {
+            channel.close();//the stream is out of sync, never reuse it
+            throw e;
+        }
+        if (response == null)
+        {
+            channel.close();
+            throw new IOException("signer closed the connection");
+        }
+        if (!connections.offer(channel))
+        {
+            channel.close();
+        }
+        if (response.code() != UnixSocketFrame.STATUS_OK)
+        {
+            throw new IOException("signer error " + String.join(" ", response.items()));
+        }
+        return response.items();
+    }
+
+    @JsonCreator
+    public static EncryptionEntity_UnixSocket create(String socketPath)
+    {
+        EncryptionEntity_UnixSocket encryptionEntity = new EncryptionEntity_UnixSocket();
+        encryptionEntity.socketPath = socketPath;
+        return encryptionEntity;
+    }
+
+}
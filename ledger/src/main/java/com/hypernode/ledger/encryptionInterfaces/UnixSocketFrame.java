@@ -0,0 +1,101 @@
+package com.hypernode.ledger.encryptionInterfaces;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Framing shared by EncryptionEntity_UnixSocket and UnixSocketSignerServer.
+ * [int frame length][byte code][int count] then count times [int length][UTF-8 bytes].
+ * Requests carry an opcode and the messages to sign, answers a status and the signatures in the same order.
+ */
+record UnixSocketFrame(byte code, List<String> items)
+{
+    static final byte OP_GET_PUBLIC_KEY = 1;
+    static final byte OP_SIGN_MESSAGES = 2;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    void write(SocketChannel channel) throws IOException
+    {
+        List<byte[]> encodedItems = new ArrayList<>(items.size());
+        int length = 1 + 4;
+        for (String item : items)
+        {
+            byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+            encodedItems.add(bytes);
+            length += 4 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put(code).putInt(encodedItems.size());
+        for (byte[] bytes : encodedItems)
+        {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the next frame, or null if the other side closed the connection between two frames
+     */
+    static UnixSocketFrame read(SocketChannel channel) throws IOException
+    {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        if (!readFully(channel, lengthBuffer, true))
+        {
+            return null;
+        }
+        int length = lengthBuffer.flip().getInt();
+        if (length < 5 || length > MAX_FRAME_LENGTH)
+        {
+            throw new IOException("invalid frame length " + length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, false);
+        buffer.flip();
+        byte code = buffer.get();
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4)
+        {
+            throw new IOException("invalid item count " + count);
+        }
+        List<String> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            int itemLength = buffer.getInt();
+            if (itemLength < 0 || itemLength > buffer.remaining())
+            {
+                throw new IOException("invalid item length " + itemLength);
+            }
+            items.add(new String(buffer.array(), buffer.position(), itemLength, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + itemLength);
+        }
+        return new UnixSocketFrame(code, items);
+    }
+
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                if (eofAllowed && buffer.position() == 0)
+                {
+                    return false;
+                }
+                throw new EOFException("connection closed in the middle of a frame");
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+package com.hypernode.ledger.encryptionInterfaces;
+
+import com.hypernode.ledger.ErrorHandling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+/**
+ * Server side of EncryptionEntity_UnixSocket.
+ * Started by the signing process (see EncryptionEndpointController), every connection is served
+ * on its own virtual thread, one frame at a time.
+ */
+public class UnixSocketSignerServer implements Closeable
+{
+    private final Path socketPath;
+    private final ServerSocketChannel serverChannel;
+    private final EncryptionEntity_BaseInterface encryptionEntity;
+
+    private UnixSocketSignerServer(Path socketPath, ServerSocketChannel serverChannel, EncryptionEntity_BaseInterface encryptionEntity)
+    {
+        this.socketPath = socketPath;
+        this.serverChannel = serverChannel;
+        this.encryptionEntity = encryptionEntity;
+    }
+
+    /**
+     * The socket is bound inside a new directory that only the owner can enter, restricted to the owner,
+     * and only then renamed to _socketPath, so there is no moment in which someone else can connect to it.
+     */
+    public static UnixSocketSignerServer start(String _socketPath, EncryptionEntity_BaseInterface _encryptionEntity) throws IOException
+    {
+        Path path = Path.of(_socketPath).toAbsolutePath();
+        Files.deleteIfExists(path);//left over by a previous run
+        Path privateDirectory = null;
+        try
+        {
+            privateDirectory = Files.createTempDirectory(path.getParent(), "." + path.getFileName() + "-",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            ErrorHandling.logEvent("cannot restrict the permissions of " + path,false,e);
+        }
+        ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try
+        {
+            if (privateDirectory == null)
+            {
+                serverChannel.bind(UnixDomainSocketAddress.of(path));
+            }
+            else
+            {
+                Path boundPath = privateDirectory.resolve(path.getFileName());
+                serverChannel.bind(UnixDomainSocketAddress.of(boundPath));
+                //only the owner of the process can ask for signatures
+                Files.setPosixFilePermissions(boundPath, PosixFilePermissions.fromString("rw-------"));
+                Files.move(boundPath, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        catch (IOException e)
+        {
+            serverChannel.close();
+            throw e;
+        }
+        finally
+        {
+            if (privateDirectory != null)
+            {
+                Files.deleteIfExists(privateDirectory.resolve(path.getFileName()));
+                Files.deleteIfExists(privateDirectory);
+            }
+        }
+        UnixSocketSignerServer server = new UnixSocketSignerServer(path, serverChannel, _encryptionEntity);
+        Thread.ofVirtual().start(server::acceptConnections);
+        return server;
+    }
+
+    private void acceptConnections()
+    {
+        while (serverChannel.isOpen())
+        {
+            try
+            {
+                SocketChannel channel = serverChannel.accept();
+                Thread.ofVirtual().start(() -> this.serve(channel));
+            }
+            catch (IOException e)
+            {
+                if (serverChannel.isOpen())
+                {
+                    ErrorHandling.logEvent("error UnixSocketSignerServer.accept",false,e);
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel)
+    {
+        try (channel)
+        {
+            UnixSocketFrame request;
+            while ((request = UnixSocketFrame.read(channel)) != null)
+            {
+                this.answer(request).write(channel);
+            }
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error UnixSocketSignerServer.serve",false,e);
+        }
+    }
+
+    private UnixSocketFrame answer(UnixSocketFrame request)
+    {
+        return switch (request.code())
+        {
+            case UnixSocketFrame.OP_GET_PUBLIC_KEY ->
+                    new UnixSocketFrame(UnixSocketFrame.STATUS_OK, List.of(encryptionEntity.getPublicKey()));
+            case UnixSocketFrame.OP_SIGN_MESSAGES ->
+                    new UnixSocketFrame(UnixSocketFrame.STATUS_OK, encryptionEntity.signMessages(request.items()));
+            default -> new UnixSocketFrame(UnixSocketFrame.STATUS_ERROR, List.of("unknown opcode " + request.code()));
+        };
+    }
+
+    public String getSocketPath() {return socketPath.toString();}
+
+    @Override
+    public void close() throws IOException
+    {
+        serverChannel.close();
+        Files.deleteIfExists(socketPath);
+    }
+}
@@ -0,0 +1,99 @@
+package com.hypernode.ledger.encryptionInterfaces;
+
+import com.hypernode.ledger.ErrorHandling;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Remembers the outcome of signature verifications.
+ * The same (message, public key, signature) triples get verified in storeDataContract, again in
+ * BlockRevisionResult.getBannedValidators and again at every temp version, the result can never change
+ * so the second time it is only a lookup.
+ * Only successful verifications are kept, garbage signatures from a peer must not evict valid entries.
+ * The entries are keyed by a SHA-256 of the length prefixed triple, so a few MB of keys and signatures
+ * do not stay in memory, and evicted in LRU order once the configured size is reached.
+ */
+@Component
+public class VerifiedSignatureCache
+{
+    private static int MAX_SIZE = 65536;
+
+    private static final Map<ByteBuffer, Boolean> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            });
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    @Value("${encryption.verifiedSignatureCacheSize:65536}")
+    public void setMaxSize(int maxSize) {
+        MAX_SIZE = maxSize;
+    }
+
+    /**
+     * @param verifier the actual verification, only called on a miss
+     * @return true if cached, otherwise the freshly computed verification result
+     */
+    public static boolean verify(String data, String publicKey, String signature, BooleanSupplier verifier)
+    {
+        if (data == null || publicKey == null || signature == null || MAX_SIZE <= 0)
+        {
+            return verifier.getAsBoolean();
+        }
+        ByteBuffer key = digest(data, publicKey, signature);
+        if (cache.get(key) != null)
+        {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        boolean ret = verifier.getAsBoolean();
+        if (ret)
+        {
+            cache.put(key, Boolean.TRUE);
+        }
+        return ret;
+    }
+
+    static ByteBuffer digest(String data, String publicKey, String signature)
+    {
+        MessageDigest sha256;
+        try
+        {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            ErrorHandling.logEvent("somehow sha-256 is not present in this java version",true,e);
+            return null;
+        }
+        //length prefixed, "ab"+"c" and "a"+"bc" must not collide
+        for (String value : new String[]{data, publicKey, signature})
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            sha256.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            sha256.update(bytes);
+        }
+        return ByteBuffer.wrap(sha256.digest());
+    }
+
+    //results depend on the algorithms in use
+    public static void clear() {cache.clear();}
+
+    public static long getHits() {return hits.get();}
+    public static long getMisses() {return misses.get();}
+    public static int size() {return cache.size();}
+}
@@ -0,0 +1,338 @@
+package com.hypernode.ledger.storage;
+
+import com.hypernode.ledger.ErrorHandling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of blocks on disk, one record per block id, ids strictly increasing.
+ *
+ * The log is a sequence of segment files named after the first block id they hold; when a segment
+ * passes segmentSize the next block starts a new one. Each segment has an offset index next to it,
+ * a flat file of longs where entry (blockId - firstBlockId) is the position of the record plus one (0 = no block),
+ * so finding a block is a floor lookup among the segments and one read in the index, and the heap only
+ * holds one small object per segment however long the chain gets.
+ *
+ * Record layout: int payload length, int CRC32C of the payload, int block id, payload.
+ * Segments are read through read-only memory maps. At open the last segment is checked record by record,
+ * anything after the first incomplete or corrupted record (a crash in the middle of a write) is cut.
+ */
+public class BlockLog implements Closeable
+{
+    private static final int HEADER_LENGTH = 12;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    //a gap in the block ids bigger than this starts a new segment instead of filling the index with zeros
+    private static final int MAX_INDEX_GAP = 4096;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean fsync;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private int lastBlockId = -1;
+
+    private static final class Segment
+    {
+        final int firstBlockId;
+        final Path path;
+        final FileChannel channel;
+        final FileChannel indexChannel;
+        long size;
+        int lastBlockId;
+        volatile MappedByteBuffer mapped;
+
+        Segment(int firstBlockId, Path path, FileChannel channel, FileChannel indexChannel)
+        {
+            this.firstBlockId = firstBlockId;
+            this.path = path;
+            this.channel = channel;
+            this.indexChannel = indexChannel;
+        }
+    }
+
+    /**
+     * Opens the log in this directory, creating it if needed, and repairs the end of the last segment.
+     *
+     * @param _segmentSize size after which a new segment is started
+     * @param _fsync force every block to disk before append returns
+     */
+    public static BlockLog open(Path _directory, long _segmentSize, boolean _fsync) throws IOException
+    {
+        BlockLog ret = new BlockLog(_directory, _segmentSize, _fsync);
+        Files.createDirectories(_directory);
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(_directory))
+        {
+            paths = files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path path : paths)
+        {
+            String name = path.getFileName().toString();
+            int firstBlockId;
+            try
+            {
+                firstBlockId = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                ErrorHandling.logEvent("BlockLog: ignoring unknown file " + name, false, e);
+                continue;
+            }
+            ret.segments.put(firstBlockId, ret.openSegment(firstBlockId));
+        }
+        //only the last segment can have been cut by a crash, the others are checked only if their index is missing
+        for (Segment segment : ret.segments.values())
+        {
+            long indexSize = segment.indexChannel.size();
+            if (segment != ret.segments.lastEntry().getValue() && indexSize > 0 && indexSize % Long.BYTES == 0)
+            {
+                segment.lastBlockId = segment.firstBlockId + (int) (indexSize / Long.BYTES) - 1;
+            }
+            else
+            {
+                ret.recover(segment);
+            }
+            if (segment.lastBlockId >= 0)
+            {
+                ret.lastBlockId = segment.lastBlockId;
+            }
+        }
+        //a segment without blocks (created right before a crash) would take the next block at the wrong offset
+        for (Segment segment : List.copyOf(ret.segments.values()))
+        {
+            if (segment.lastBlockId < 0)
+            {
+                segment.channel.close();
+                segment.indexChannel.close();
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(ret.indexPath(segment.firstBlockId));
+                ret.segments.remove(segment.firstBlockId);
+            }
+        }
+        return ret;
+    }
+
+    private BlockLog(Path directory, long segmentSize, boolean fsync)
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Writes the block at the end of the log.
+     *
+     * @return false if the block id is not after the last one written, nothing is written then
+     */
+    public synchronized boolean append(int _blockId, byte[] _payload) throws IOException
+    {
+        if (_blockId <= lastBlockId)
+        {
+            ErrorHandling.logEvent("BlockLog: block " + _blockId + " is not after the last block " + lastBlockId, false, null);
+            return false;
+        }
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || segment.size >= segmentSize || (segment.lastBlockId >= 0 && _blockId - segment.lastBlockId > MAX_INDEX_GAP))
+        {
+            segment = this.openSegment(_blockId);
+            segments.put(_blockId, segment);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(_payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + _payload.length);
+        record.putInt(_payload.length).putInt((int) crc.getValue()).putInt(_blockId).put(_payload).flip();
+        long position = segment.size;
+        while (record.hasRemaining())
+        {
+            segment.channel.write(record, position + record.position());
+        }
+        this.writeIndex(segment, _blockId, position);
+        if (fsync)
+        {
+            segment.channel.force(false);
+        }
+        segment.size = position + HEADER_LENGTH + _payload.length;
+        segment.lastBlockId = _blockId;
+        lastBlockId = _blockId;
+        return true;
+    }
+
+    /**
+     * @return the payload of the block, null if it is not in the log
+     */
+    public byte[] read(int _blockId)
+    {
+        Segment segment;
+        long position;
+        synchronized (this)
+        {
+            Map.Entry<Integer, Segment> entry = segments.floorEntry(_blockId);
+            if (entry == null || _blockId > entry.getValue().lastBlockId)
+            {
+                return null;
+            }
+            segment = entry.getValue();
+        }
+        try
+        {
+            position = this.readIndex(segment, _blockId);
+            if (position < 0)
+            {
+                return null;
+            }
+            ByteBuffer mapped = this.map(segment, position + HEADER_LENGTH);
+            int length = mapped.getInt((int) position);
+            if (mapped.getInt((int) position + 8) != _blockId)
+            {
+                ErrorHandling.logEvent("BlockLog: index of " + segment.path + " points to the wrong block", false, null);
+                return null;
+            }
+            byte[] ret = new byte[length];
+            this.map(segment, position + HEADER_LENGTH + length).get((int) position + HEADER_LENGTH, ret);
+            CRC32C crc = new CRC32C();
+            crc.update(ret);
+            if ((int) crc.getValue() != mapped.getInt((int) position + 4))
+            {
+                ErrorHandling.logEvent("BlockLog: checksum mismatch for block " + _blockId, false, null);
+                return null;
+            }
+            return ret;
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("BlockLog: error reading block " + _blockId, false, e);
+            return null;
+        }
+    }
+
+    public synchronized int getLastBlockId() {return lastBlockId;}
+
+    public synchronized int getFirstBlockId() {return segments.isEmpty() ? -1 : segments.firstKey();}
+
+    public synchronized int getSegmentCount() {return segments.size();}
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (Segment segment : segments.values())
+        {
+            segment.channel.close();
+            segment.indexChannel.close();
+            segment.mapped = null;
+        }
+        segments.clear();
+    }
+
+    private Segment openSegment(int _firstBlockId) throws IOException
+    {
+        Path path = directory.resolve(String.format("%010d", _firstBlockId) + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel = FileChannel.open(this.indexPath(_firstBlockId), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(_firstBlockId, path, channel, indexChannel);
+        segment.size = channel.size();
+        segment.lastBlockId = -1;
+        return segment;
+    }
+
+    private Path indexPath(int _firstBlockId)
+    {
+        return directory.resolve(String.format("%010d", _firstBlockId) + INDEX_SUFFIX);
+    }
+
+    //goes through the records, rebuilds the index and cuts whatever follows the last valid record
+    private void recover(Segment _segment) throws IOException
+    {
+        long fileSize = _segment.channel.size();
+        _segment.indexChannel.truncate(0);
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (position + HEADER_LENGTH <= fileSize)
+        {
+            header.clear();
+            _segment.channel.read(header, position);
+            int length = header.getInt(0);
+            int blockId = header.getInt(8);
+            if (length < 0 || position + HEADER_LENGTH + length > fileSize || blockId <= _segment.lastBlockId || blockId < _segment.firstBlockId)
+            {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            _segment.channel.read(payload, position + HEADER_LENGTH);
+            CRC32C crc = new CRC32C();
+            crc.update(payload.flip());
+            if ((int) crc.getValue() != header.getInt(4))
+            {
+                break;
+            }
+            this.writeIndex(_segment, blockId, position);
+            _segment.lastBlockId = blockId;
+            position += HEADER_LENGTH + length;
+        }
+        if (position < fileSize)
+        {
+            ErrorHandling.logEvent("BlockLog: cutting " + (fileSize - position) + " bytes at the end of " + _segment.path, false, null);
+            _segment.channel.truncate(position);
+        }
+        _segment.size = position;
+    }
+
+    private void writeIndex(Segment _segment, int _blockId, long _position) throws IOException
+    {
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES).putLong(_position + 1).flip();
+        long indexPosition = (long) (_blockId - _segment.firstBlockId) * Long.BYTES;
+        while (entry.hasRemaining())
+        {
+            _segment.indexChannel.write(entry, indexPosition + entry.position());
+        }
+    }
+
+    private long readIndex(Segment _segment, int _blockId) throws IOException
+    {
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+        long indexPosition = (long) (_blockId - _segment.firstBlockId) * Long.BYTES;
+        while (entry.hasRemaining())
+        {
+            if (_segment.indexChannel.read(entry, indexPosition + entry.position()) < 0)
+            {
+                return -1;
+            }
+        }
+        return entry.getLong(0) - 1;
+    }
+
+    //the map of the segment, mapped again if the segment grew past it since the last read
+    private ByteBuffer map(Segment _segment, long _end) throws IOException
+    {
+        MappedByteBuffer mapped = _segment.mapped;
+        if (mapped == null || mapped.capacity() < _end)
+        {
+            synchronized (_segment)
+            {
+                mapped = _segment.mapped;
+                if (mapped == null || mapped.capacity() < _end)
+                {
+                    long size = _segment.channel.size();
+                    if (size < _end || size > Integer.MAX_VALUE)
+                    {
+                        throw new IOException("block outside of segment " + _segment.path);
+                    }
+                    mapped = _segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    _segment.mapped = mapped;
+                }
+            }
+        }
+        return mapped.duplicate();
+    }
+}
@@ -0,0 +1,337 @@
+package com.hypernode.ledger.storage;
+
+import com.hypernode.ledger.ErrorHandling;
+import com.hypernode.ledger.contracts.BlockRecord;
+import com.hypernode.ledger.contracts.StateSnapshot;
+import com.hypernode.ledger.contracts.StatusDataContract;
+import com.hypernode.ledger.webService.WireFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The block log of this node, opened the first time a block is written or read.
+ * Blocks are stored as CBOR, the same encoding used on the wire.
+ * Every ledger.storage.snapshotInterval blocks the state of the node is written next to them, see SnapshotStore.
+ * An empty ledger.storage.directory turns persistence off.
+ * A restarted node only picks up the snapshot and the blocks after it when ledger.storage.restoreOnStart is set,
+ * the directory then has to be the one this node wrote for this ledger.
+ * A block is only written if it follows the last one in the log, and a log that does not end with the status
+ * the node starts from (an earlier chain, a new genesis) is moved aside before anything is written to it.
+ */
+@Component
+public class BlockStorage
+{
+    private static String DIRECTORY = "ledger-data";
+    private static long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static boolean FSYNC = false;
+    private static int SNAPSHOT_INTERVAL = 100;
+    private static int SNAPSHOTS_KEPT = 2;
+    private static boolean RESTORE_ON_START = false;
+    private static BlockLog blockLog;
+    private static SnapshotStore snapshotStore;
+    //the last block written, so the next one is checked without reading it back from the log
+    private static volatile LastBlock lastBlock;
+
+    private record LastBlock(BlockLog log, int blockId, String statusHash) {}
+
+    @Value("${ledger.storage.directory:ledger-data}")
+    public void setDirectory(String directory) {DIRECTORY = directory;}
+    @Value("${ledger.storage.segmentSize:67108864}")
+    public void setSegmentSize(long segmentSize) {SEGMENT_SIZE = segmentSize;}
+    @Value("${ledger.storage.fsync:false}")
+    public void setFsync(boolean fsync) {FSYNC = fsync;}
+    @Value("${ledger.storage.snapshotInterval:100}")
+    public void setSnapshotInterval(int snapshotInterval) {SNAPSHOT_INTERVAL = snapshotInterval;}
+    @Value("${ledger.storage.snapshotsKept:2}")
+    public void setSnapshotsKept(int snapshotsKept) {SNAPSHOTS_KEPT = snapshotsKept;}
+    @Value("${ledger.storage.restoreOnStart:false}")
+    public void setRestoreOnStart(boolean restoreOnStart) {RESTORE_ON_START = restoreOnStart;}
+
+    public static boolean isEnabled() {return DIRECTORY != null && !DIRECTORY.isBlank();}
+
+    public static boolean isRestoreOnStart() {return RESTORE_ON_START && isEnabled();}
+
+    public static Path getDirectory() {return Path.of(DIRECTORY);}
+
+    /**
+     * @return the block log, null if persistence is off or the directory can not be opened
+     */
+    public static synchronized BlockLog getBlockLog()
+    {
+        if (blockLog == null && isEnabled())
+        {
+            try
+            {
+                blockLog = BlockLog.open(getDirectory().resolve("blocks"), SEGMENT_SIZE, FSYNC);
+            }
+            catch (IOException e)
+            {
+                ErrorHandling.logEvent("error opening the block log in " + DIRECTORY, false, e);
+            }
+        }
+        return blockLog;
+    }
+
+    /**
+     * @return true if the block is now in the log, false if persistence is off or the block was not written
+     */
+    public static boolean appendBlock(BlockRecord _blockRecord)
+    {
+        return append(getBlockLog(), _blockRecord);
+    }
+
+    /**
+     * Writes the block if it is the one right after the last block of the log and starts from its hash.
+     *
+     * @return false if the block does not follow the log or can not be written, nothing is written then
+     */
+    public static synchronized boolean append(BlockLog _log, BlockRecord _blockRecord)
+    {
+        if (_log == null)
+        {
+            return false;
+        }
+        int lastBlockId = _log.getLastBlockId();
+        if (lastBlockId >= 0)
+        {
+            String lastHash = lastStatusHash(_log, lastBlockId);
+            if (_blockRecord.getBlockId() != lastBlockId + 1 || lastHash == null || !lastHash.equals(_blockRecord.getHashPreviousBlock()))
+            {
+                ErrorHandling.logEvent("block " + _blockRecord.getBlockId() + " does not follow block " + lastBlockId + " of the block log", false, null);
+                return false;
+            }
+        }
+        try
+        {
+            if (!_log.append(_blockRecord.getBlockId(), WireFormat.getCborMapper().writeValueAsBytes(_blockRecord)))
+            {
+                return false;
+            }
+        }
+        catch (IOException e)
+        {
+            //the node keeps running, the block stays in memory
+            ErrorHandling.logEvent("error writing block " + _blockRecord.getBlockId() + " to the block log", false, e);
+            return false;
+        }
+        lastBlock = new LastBlock(_log, _blockRecord.getBlockId(), _blockRecord.getStatusHash());
+        return true;
+    }
+
+    /**
+     * @return true if the log is empty or its last block produced this status
+     */
+    public static boolean continuesFrom(BlockLog _log, StatusDataContract _status)
+    {
+        int lastBlockId = _log.getLastBlockId();
+        return lastBlockId < 0 || (lastBlockId == _status.getId() && Objects.equals(lastStatusHash(_log, lastBlockId), _status.getHash()));
+    }
+
+    /**
+     * Called when the node starts from a status: a log that does not end with it belongs to another chain
+     * or misses blocks, it is moved with its snapshots to a stale-* directory and a new log is started.
+     *
+     * @return false if persistence is off or the log can not be opened
+     */
+    public static synchronized boolean startFrom(StatusDataContract _status)
+    {
+        BlockLog log = getBlockLog();
+        if (log == null || continuesFrom(log, _status))
+        {
+            return log != null;
+        }
+        Path stale = getDirectory().resolve("stale-" + System.currentTimeMillis());
+        ErrorHandling.logEvent("the block log ends at block " + log.getLastBlockId() + ", not at status " + _status.getId()
+                + ", moving it to " + stale, false, null);
+        try
+        {
+            log.close();
+            blockLog = null;
+            snapshotStore = null;
+            lastBlock = null;
+            Files.createDirectories(stale);
+            for (String name : List.of("blocks", "snapshots"))
+            {
+                if (Files.exists(getDirectory().resolve(name)))
+                {
+                    Files.move(getDirectory().resolve(name), stale.resolve(name));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error moving the block log to " + stale, false, e);
+            return false;
+        }
+        return getBlockLog() != null;
+    }
+
+    public static int getLastBlockId()
+    {
+        BlockLog log = getBlockLog();
+        return log == null ? -1 : log.getLastBlockId();
+    }
+
+    private static String lastStatusHash(BlockLog _log, int _lastBlockId)
+    {
+        LastBlock last = lastBlock;
+        if (last != null && last.log() == _log && last.blockId() == _lastBlockId)
+        {
+            return last.statusHash();
+        }
+        BlockRecord blockRecord = readBlock(_log, _lastBlockId);
+        return blockRecord == null ? null : blockRecord.getStatusHash();
+    }
+
+    /**
+     * @return the block, null if it is not in the log
+     */
+    public static BlockRecord readBlock(int _blockId)
+    {
+        return readBlock(getBlockLog(), _blockId);
+    }
+
+    private static BlockRecord readBlock(BlockLog _log, int _blockId)
+    {
+        byte[] payload = _log == null ? null : _log.read(_blockId);
+        if (payload == null)
+        {
+            return null;
+        }
+        try
+        {
+            return WireFormat.getCborMapper().readValue(payload, BlockRecord.class);
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error reading block " + _blockId + " from the block log", false, e);
+            return null;
+        }
+    }
+
+    /**
+     * Brings a status up to the last block of the log, applying the blocks written after it one by one.
+     * Each block must start from the hash of the block before it, and the last status must match the hash
+     * it was accepted with: hashing once at the end checks the whole chain without hashing every status.
+     *
+     * @return the status of the last block in the log, the same status if the log has nothing after it,
+     *         null if a block is missing or does not follow from the status before it
+     */
+    public static StatusDataContract replay(StatusDataContract _status, BlockLog _log)
+    {
+        StatusDataContract ret = _status;
+        int lastBlockId = _log == null ? -1 : _log.getLastBlockId();
+        for (int blockId = _status.getId() + 1; blockId <= lastBlockId; blockId++)
+        {
+            BlockRecord blockRecord = readBlock(_log, blockId);
+            StatusDataContract next = blockRecord == null || !ret.getHash().equals(blockRecord.getHashPreviousBlock()) ? null : blockRecord.applyTo(ret);
+            if (next == null)
+            {
+                ErrorHandling.logEvent("error replaying the block log, block " + blockId + " does not follow from status " + ret.getId(), false, null);
+                return null;
+            }
+            ret = next;
+        }
+        if (ret != _status && !ret.getHash().equals(ret.calculateHash()))
+        {
+            ErrorHandling.logEvent("error replaying the block log, status " + ret.getId() + " does not match its hash", false, null);
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the snapshot store, null if persistence is off or the directory can not be opened
+     */
+    public static synchronized SnapshotStore getSnapshotStore()
+    {
+        if (snapshotStore == null && isEnabled())
+        {
+            try
+            {
+                snapshotStore = SnapshotStore.open(getDirectory().resolve("snapshots"), SNAPSHOTS_KEPT, FSYNC);
+            }
+            catch (IOException e)
+            {
+                ErrorHandling.logEvent("error opening the snapshots in " + DIRECTORY, false, e);
+            }
+        }
+        return snapshotStore;
+    }
+
+    public static boolean isSnapshotDue(int _blockId)
+    {
+        return SNAPSHOT_INTERVAL > 0 && _blockId % SNAPSHOT_INTERVAL == 0;
+    }
+
+    /**
+     * Encodes the snapshot on the calling thread, so the engine can go on changing the state afterwards.
+     */
+    public static void writeSnapshot(StateSnapshot _snapshot)
+    {
+        SnapshotStore store = getSnapshotStore();
+        if (store == null)
+        {
+            return;
+        }
+        int blockId = _snapshot.getStatusDataContract().getId();
+        try
+        {
+            store.write(blockId, WireFormat.getCborMapper().writeValueAsBytes(_snapshot));
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error writing the snapshot of block " + blockId, false, e);
+        }
+    }
+
+    /**
+     * @return the newest snapshot whose status matches its hash, null if there is none
+     */
+    public static StateSnapshot readLatestSnapshot()
+    {
+        SnapshotStore store = getSnapshotStore();
+        if (store == null)
+        {
+            return null;
+        }
+        List<Integer> blockIds;
+        try
+        {
+            blockIds = store.getBlockIds();
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error listing the snapshots in " + DIRECTORY, false, e);
+            return null;
+        }
+        for (int i = blockIds.size() - 1; i >= 0; i--)
+        {
+            byte[] payload = store.read(blockIds.get(i));
+            if (payload == null)
+            {
+                continue;
+            }
+            try
+            {
+                StateSnapshot ret = WireFormat.getCborMapper().readValue(payload, StateSnapshot.class);
+                if (ret.isValid())
+                {
+                    return ret;
+                }
+                ErrorHandling.logEvent("the snapshot of block " + blockIds.get(i) + " does not match its hash", false, null);
+            }
+            catch (IOException e)
+            {
+                ErrorHandling.logEvent("error reading the snapshot of block " + blockIds.get(i), false, e);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,162 @@
+package com.hypernode.ledger.storage;
+
+import com.hypernode.ledger.ErrorHandling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot files of the node state, one file per block id, the payload compressed with gzip.
+ *
+ * File layout: int magic, int block id, int length, int CRC32C of the compressed payload, compressed payload.
+ * A snapshot is written to a temporary file and moved in place, so a crash leaves either the old
+ * set of snapshots or the new one, never half a file under a snapshot name.
+ * Only the newest snapshotsKept files are kept.
+ */
+public class SnapshotStore
+{
+    private static final int MAGIC = 0x48534e50;//"HSNP"
+    private static final int HEADER_LENGTH = 16;
+    private static final String SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final int snapshotsKept;
+    private final boolean fsync;
+
+    public static SnapshotStore open(Path _directory, int _snapshotsKept, boolean _fsync) throws IOException
+    {
+        Files.createDirectories(_directory);
+        return new SnapshotStore(_directory, Math.max(_snapshotsKept, 1), _fsync);
+    }
+
+    private SnapshotStore(Path directory, int snapshotsKept, boolean fsync)
+    {
+        this.directory = directory;
+        this.snapshotsKept = snapshotsKept;
+        this.fsync = fsync;
+    }
+
+    public synchronized void write(int _blockId, byte[] _payload) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(_payload.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+        {
+            gzip.write(_payload);
+        }
+        byte[] body = compressed.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        ByteBuffer file = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+        file.putInt(MAGIC).putInt(_blockId).putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+
+        Path temporary = directory.resolve(String.format("%010d", _blockId) + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            while (file.hasRemaining())
+            {
+                channel.write(file);
+            }
+            if (fsync)
+            {
+                channel.force(true);
+            }
+        }
+        Files.move(temporary, this.snapshotPath(_blockId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        List<Path> snapshots = this.list();
+        for (int i = 0; i < snapshots.size() - snapshotsKept; i++)
+        {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    /**
+     * @return the ids of the snapshots on disk, oldest first
+     */
+    public synchronized List<Integer> getBlockIds() throws IOException
+    {
+        return this.list().stream().map(SnapshotStore::blockIdOf).toList();
+    }
+
+    /**
+     * @return the uncompressed payload of the snapshot, null if it is missing or damaged
+     */
+    public byte[] read(int _blockId)
+    {
+        Path path = this.snapshotPath(_blockId);
+        try
+        {
+            if (!Files.exists(path))
+            {
+                return null;
+            }
+            ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (file.remaining() < HEADER_LENGTH || file.getInt(0) != MAGIC || file.getInt(4) != _blockId
+                    || file.getInt(8) != file.remaining() - HEADER_LENGTH)
+            {
+                ErrorHandling.logEvent("SnapshotStore: " + path + " is not a complete snapshot", false, null);
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(file.array(), HEADER_LENGTH, file.getInt(8));
+            if ((int) crc.getValue() != file.getInt(12))
+            {
+                ErrorHandling.logEvent("SnapshotStore: checksum mismatch in " + path, false, null);
+                return null;
+            }
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(file.array(), HEADER_LENGTH, file.getInt(8))))
+            {
+                return gzip.readAllBytes();
+            }
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("SnapshotStore: error reading " + path, false, e);
+            return null;
+        }
+    }
+
+    private List<Path> list() throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            //leftovers of a write cut by a crash
+            files.filter(p -> p.getFileName().toString().endsWith(TEMPORARY_SUFFIX)).forEach(p -> p.toFile().delete());
+        }
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX) && blockIdOf(p) >= 0).sorted().toList();
+        }
+    }
+
+    private Path snapshotPath(int _blockId)
+    {
+        return directory.resolve(String.format("%010d", _blockId) + SUFFIX);
+    }
+
+    private static int blockIdOf(Path _path)
+    {
+        String name = _path.getFileName().toString();
+        try
+        {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+}
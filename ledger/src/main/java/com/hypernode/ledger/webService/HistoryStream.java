@@ -0,0 +1,52 @@
+package com.hypernode.ledger.webService;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.hypernode.ledger.contracts.BlockRecord;
+import com.hypernode.ledger.contracts.StatusDataContract;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the ledger history to a response one block at a time, flushing after each,
+ * so the node never holds more than one serialized block however long the history is.
+ */
+public class HistoryStream
+{
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Same document as a serialized LedgerHistory: {"originalContract":..., "blockRecords":[...]}
+     */
+    public static void writeLedgerHistory(OutputStream _out, StatusDataContract _originalContract, Iterable<BlockRecord> _blocks) throws IOException
+    {
+        try (JsonGenerator generator = WireFormat.getJsonMapper().getFactory().createGenerator(_out))
+        {
+            generator.writeStartObject();
+            generator.writeFieldName("originalContract");
+            WireFormat.getJsonMapper().writeValue(generator, _originalContract);
+            generator.writeArrayFieldStart("blockRecords");
+            for (BlockRecord block : _blocks)
+            {
+                WireFormat.getJsonMapper().writeValue(generator, block);
+                generator.flush();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * One block per line.
+     */
+    public static void writeNdjson(OutputStream _out, Iterable<BlockRecord> _blocks) throws IOException
+    {
+        for (BlockRecord block : _blocks)
+        {
+            _out.write(WireFormat.getJsonMapper().writeValueAsBytes(block));
+            _out.write(NEW_LINE);
+            _out.flush();
+        }
+    }
+}
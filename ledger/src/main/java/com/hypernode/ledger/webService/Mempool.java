@@ -0,0 +1,181 @@
+package com.hypernode.ledger.webService;
+
+import com.hypernode.ledger.contracts.AccountStore;
+import com.hypernode.ledger.contracts.DistributedLedgerAccount;
+import com.hypernode.ledger.contracts.Payment;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The payments this node collected for the block it is going to propose, admitted one at a time by the web threads
+ * and taken all at once by the block builder.
+ *
+ * A payment is refused when the block is full or when the sender would spend more than its projected balance:
+ * the balance in the current status, minus what it spends in the payments already handed to the block builder
+ * and not applied yet, minus what it spends in the payments already admitted. PaymentSettlement bans a sender
+ * that spends more than its balance, so the overspend is refused here instead of losing the whole account there.
+ * Incoming payments are not counted until they are applied.
+ *
+ * Admissions run in parallel under the read lock, the state of one sender is updated atomically in its map entry.
+ * drain takes the write lock, so the block builder never sees half of an admission.
+ */
+public class Mempool
+{
+    public enum Admission {ACCEPTED, DUPLICATE, WRONG_BLOCK, FULL, UNKNOWN_SENDER, INSUFFICIENT_FUNDS}
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Payment> payments = ConcurrentHashMap.newKeySet();
+    private final Map<String, BigDecimal> spentBySender = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile Map<String, BigDecimal> spentInFlight = Map.of();
+    private volatile AccountStore accounts;
+    private volatile int blockId;
+    private volatile int maxPayments;
+
+    /**
+     * @param _blockId id of the block the payments are collected for
+     * @param _accounts accounts of the current status
+     * @param _maxPayments maximum number of payments in the block
+     * @param _inFlight payments already handed to the block builder and not applied to _accounts yet
+     */
+    public static Mempool create(int _blockId, AccountStore _accounts, int _maxPayments, Collection<Payment> _inFlight)
+    {
+        Mempool ret = new Mempool();
+        ret.blockId = _blockId;
+        ret.accounts = _accounts;
+        ret.maxPayments = _maxPayments;
+        ret.spentInFlight = spentBySender(_inFlight);
+        return ret;
+    }
+
+    public Admission admit(Payment _payment)
+    {
+        lock.readLock().lock();
+        try
+        {
+            if (_payment.getBlockId() != blockId)
+            {
+                return Admission.WRONG_BLOCK;
+            }
+            String sender = senderOf(_payment);
+            DistributedLedgerAccount account = accounts.get(sender);
+            if (account == null)
+            {
+                return Admission.UNKNOWN_SENDER;
+            }
+            if (!payments.add(_payment))
+            {
+                return Admission.DUPLICATE;
+            }
+            if (count.incrementAndGet() > maxPayments)
+            {
+                count.decrementAndGet();
+                payments.remove(_payment);
+                return Admission.FULL;
+            }
+            BigDecimal available = account.getAmount().subtract(spentInFlight.getOrDefault(sender, BigDecimal.ZERO));
+            boolean[] refused = new boolean[1];
+            spentBySender.compute(sender, (key, spent) -> {
+                BigDecimal total = (spent == null ? BigDecimal.ZERO : spent).add(_payment.getAmount());
+                if (total.compareTo(available) > 0)
+                {
+                    refused[0] = true;
+                    return spent;
+                }
+                return total;
+            });
+            if (refused[0])
+            {
+                count.decrementAndGet();
+                payments.remove(_payment);
+                return Admission.INSUFFICIENT_FUNDS;
+            }
+            return Admission.ACCEPTED;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the balance the sender can still spend in this block, null if it is not an account
+     */
+    public BigDecimal getProjectedBalance(String _publicKey)
+    {
+        lock.readLock().lock();
+        try
+        {
+            DistributedLedgerAccount account = accounts.get(_publicKey);
+            if (account == null)
+            {
+                return null;
+            }
+            return account.getAmount()
+                    .subtract(spentInFlight.getOrDefault(_publicKey, BigDecimal.ZERO))
+                    .subtract(spentBySender.getOrDefault(_publicKey, BigDecimal.ZERO));
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the payments collected so far to the block builder and starts collecting for the next block.
+     *
+     * @param _nextBlockId id of the block the next payments are collected for
+     * @param _accounts accounts of the new current status
+     * @param _maxPayments maximum number of payments in the next block
+     * @return the collected payments, a set nobody else writes to
+     */
+    public Set<Payment> drain(int _nextBlockId, AccountStore _accounts, int _maxPayments)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            Set<Payment> ret = new HashSet<>(payments);
+            spentInFlight = spentBySender(ret);
+            payments.clear();
+            spentBySender.clear();
+            count.set(0);
+            blockId = _nextBlockId;
+            accounts = _accounts;
+            maxPayments = _maxPayments;
+            return ret;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {return count.get();}
+
+    public int getBlockId() {return blockId;}
+
+    private static Map<String, BigDecimal> spentBySender(Collection<Payment> _payments)
+    {
+        Map<String, BigDecimal> ret = new ConcurrentHashMap<>();
+        if (_payments != null)
+        {
+            _payments.stream().filter(p -> senderOf(p) != null).forEach(p -> ret.merge(senderOf(p), p.getAmount(), BigDecimal::add));
+        }
+        return ret;
+    }
+
+    //payments coming from clients only have from, the ones out of a message have the public key too
+    private static String senderOf(Payment _payment)
+    {
+        String publicKey = _payment.getPublicKeyFrom();
+        return publicKey == null || publicKey.isEmpty() ? _payment.getFrom() : publicKey;
+    }
+}
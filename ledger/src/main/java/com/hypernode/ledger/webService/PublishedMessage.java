@@ -0,0 +1,139 @@
+package com.hypernode.ledger.webService;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.hypernode.ledger.ErrorHandling;
+import com.hypernode.ledger.encryptionInterfaces.Encryption;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A message serialized once, at the moment it starts being transmitted,
+ * and then served as-is to every peer and CDN that asks for it.
+ * Keeps the JSON bytes (identity and gzip encoded) and the CBOR bytes, plus a strong ETag computed on the content
+ * so that conditional requests can be answered with a 304.
+ */
+public final class PublishedMessage
+{
+    private final byte[] identityBytes;
+    private final byte[] gzipBytes;
+    private final byte[] cborBytes;
+    private final String eTag;
+
+    private PublishedMessage(byte[] identityBytes, byte[] gzipBytes, byte[] cborBytes, String eTag)
+    {
+        this.identityBytes = identityBytes;
+        this.gzipBytes = gzipBytes;
+        this.cborBytes = cborBytes;
+        this.eTag = eTag;
+    }
+
+    public static PublishedMessage create(Object message)
+    {
+        try
+        {
+            byte[] identityBytes = WireFormat.getJsonMapper().writeValueAsBytes(message);
+            byte[] cborBytes = WireFormat.getCborMapper().writeValueAsBytes(message);
+            return new PublishedMessage(identityBytes, gzip(identityBytes), cborBytes, "\"" + Encryption.hash(identityBytes) + "\"");
+        }
+        catch (JsonProcessingException e)
+        {
+            //should never happen, the same object is serialized by hardCopy
+            ErrorHandling.logEvent("error PublishedMessage.create",true,e);
+            return null;
+        }
+    }
+
+    private static byte[] gzip(byte[] value)
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(value.length / 4 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream))
+        {
+            gzipOutputStream.write(value);
+        }
+        catch (IOException e)
+        {
+            ErrorHandling.logEvent("error PublishedMessage.gzip",true,e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @param ifNoneMatch the If-None-Match header of the request, can be null
+     * @return true if the caller already has this exact content
+     */
+    public boolean matches(String ifNoneMatch)
+    {
+        if (ifNoneMatch == null)
+        {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(this.eTag) || tag.equals(this.getGzipETag()) || tag.equals(this.getCborETag()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header of the request, can be null
+     * @return true if gzip is accepted with a q-value above 0, listed by name or through "*" when it is not listed
+     */
+    public static boolean acceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(","))
+        {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean accepted = qValue(parts) > 0;
+            if (name.equals("gzip") || name.equals("x-gzip"))
+            {
+                return accepted;
+            }
+            if (name.equals("*"))
+            {
+                wildcard = accepted;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    //"gzip;q=0" means the caller does not want gzip, a q-value that can not be read counts as 0
+    private static double qValue(String[] parts)
+    {
+        for (int i = 1; i < parts.length; i++)
+        {
+            String parameter = parts[i].trim().toLowerCase();
+            if (parameter.startsWith("q="))
+            {
+                try
+                {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    public byte[] getIdentityBytes() {return identityBytes;}
+    public byte[] getGzipBytes() {return gzipBytes;}
+    public byte[] getCborBytes() {return cborBytes;}
+    public String getETag() {return eTag;}
+    //a different representation needs a different strong validator
+    public String getGzipETag() {return eTag.substring(0, eTag.length() - 1) + "-gzip\"";}
+    public String getCborETag() {return eTag.substring(0, eTag.length() - 1) + "-cbor\"";}
+}
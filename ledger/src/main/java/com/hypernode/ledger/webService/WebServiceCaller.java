@@ -2,24 +2,71 @@ package com.hypernode.ledger.webService;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.hypernode.ledger.ErrorHandling;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
 //import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
 
 //@Slf4j
+@Component
 public class WebServiceCaller {
-    private static final ObjectMapper objectmapper = new ObjectMapper();
+    private static long CONNECT_TIMEOUT_MILLISECONDS = 10000;
+    private static long REQUEST_TIMEOUT_MILLISECONDS = 30000;
+    //INFO one client for the whole application.
+    // The java HttpClient keeps a pool of open connections per host, so every peer gets its connection reused
+    // frame after frame instead of paying a new TCP/TLS handshake, and with HTTP/2 all the calls towards
+    // the same peer are multiplexed on that single connection.
+    private static volatile HttpClient client;
+    //ask the peers for CBOR, they answer JSON if they don't know it
+    private static boolean BINARY_WIRE_FORMAT = true;
 
-    static {
-        objectmapper.registerModule(new JavaTimeModule());
+    @Value("${webService.connectTimeoutMilliseconds:10000}")
+    public void setConnectTimeoutMilliseconds(long connectTimeoutMilliseconds) {
+        CONNECT_TIMEOUT_MILLISECONDS = connectTimeoutMilliseconds;
+        client = null;//the connect timeout belongs to the client, build it again with the new value
     }
+    @Value("${webService.requestTimeoutMilliseconds:30000}")
+    public void setRequestTimeoutMilliseconds(long requestTimeoutMilliseconds) {
+        REQUEST_TIMEOUT_MILLISECONDS = requestTimeoutMilliseconds;
+    }
+    @Value("${webService.binaryWireFormat:true}")
+    public void setBinaryWireFormat(boolean binaryWireFormat) {
+        BINARY_WIRE_FORMAT = binaryWireFormat;
+    }
+
+    private static HttpClient getClient()
+    {
+        HttpClient ret = client;
+        if (ret == null)
+        {
+            synchronized (WebServiceCaller.class)
+            {
+                if (client == null)
+                {
+                    client = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)//falls back to HTTP/1.1 if the peer does not support it
+                            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MILLISECONDS))
+                            .followRedirects(HttpClient.Redirect.NORMAL)
+                            .build();
+                }
+                ret = client;
+            }
+        }
+        return ret;
+    }
+
     public static <T> T callServerMethod(String connectionString, String endpointName, Object bodyObject, TypeReference<T> typeRef) throws IOException, InterruptedException {
         try
         {
@@ -34,64 +81,107 @@ public class WebServiceCaller {
     }
 
     public static <T> T callServerMethodThrows(String connectionString, String endpointName, Object bodyObject, TypeReference<T> typeRef) {
-        if (connectionString == null || connectionString.isBlank()) {
-            throw new IllegalArgumentException("Connection string is empty");
-        }
         try {
-            // Create an HttpClient
-            java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder()
-                    .connectTimeout(Duration.ofSeconds(10))
-                    .build();
-
-            // Build the request
-            if (!connectionString.endsWith("/")) {
-                connectionString = connectionString + "/";
+            HttpRequest request = buildRequest(connectionString, endpointName, bodyObject, typeRef);
+            // Send the request and get the response
+            HttpResponse<byte[]> response = getClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+            return readResponse(response, typeRef);
+        }
+        catch (IOException | InterruptedException e)
+        {
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
             }
+            ErrorHandling.logEvent("Error webservicecaller.callServerMethodThrows " + endpointName,true,e);
+            //throw new RuntimeException(e);
+            return null;
+        }
+    }
 
-            if (!connectionString.startsWith("https://")
-            && !connectionString.startsWith("http://")) {
-                connectionString = "http://" + connectionString;
-            }
+    /**
+     * Non blocking version of callServerMethodThrows.
+     * The request is sent on the shared client and the returned future completes
+     * once the response has been received and deserialized, or completes exceptionally
+     * with the same errors callServerMethodThrows would have thrown.
+     *
+     * @return CompletableFuture with the deserialized response
+     */
+    public static <T> CompletableFuture<T> callServerMethodAsync(String connectionString, String endpointName, Object bodyObject, TypeReference<T> typeRef) {
+        HttpRequest request;
+        try
+        {
+            request = buildRequest(connectionString, endpointName, bodyObject, typeRef);
+        }
+        catch (RuntimeException | JsonProcessingException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+        return getClient().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    try
+                    {
+                        return readResponse(response, typeRef);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
 
-            HttpRequest.Builder builder = HttpRequest.newBuilder()
-                    .uri(URI.create(connectionString + endpointName))
-                    .header("Content-Type", "application/json");
-            HttpRequest request;
-            if (bodyObject == null) {
-                request = builder.GET().build();
-            } else {
+    private static HttpRequest buildRequest(String connectionString, String endpointName, Object bodyObject, TypeReference<?> typeRef) throws JsonProcessingException {
+        if (connectionString == null || connectionString.isBlank()) {
+            throw new IllegalArgumentException("Connection string is empty");
+        }
+        // Build the request
+        if (!connectionString.endsWith("/")) {
+            connectionString = connectionString + "/";
+        }
 
-                String body = objectmapper.writeValueAsString(bodyObject);
-                request = builder
-                        .POST(HttpRequest.BodyPublishers.ofString(body))
-                        .build();
-            }
+        if (!connectionString.startsWith("https://")
+        && !connectionString.startsWith("http://")) {
+            connectionString = "http://" + connectionString;
+        }
 
-            // Send the request and get the response
-            HttpResponse<String> response = client.send(request,
-                    HttpResponse.BodyHandlers.ofString());
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(connectionString + endpointName))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MILLISECONDS))
+                .header("Content-Type", WireFormat.APPLICATION_JSON)
+                .header("Accept-Encoding", "gzip");
+        //plain strings come back as text whatever we ask for
+        if (BINARY_WIRE_FORMAT && !typeRef.getType().equals(String.class)) {
+            builder.header("Accept", WireFormat.ACCEPT_BINARY);
+        }
+        if (bodyObject == null) {
+            return builder.GET().build();
+        }
+        //request bodies stay JSON, every node can read them
+        String body = WireFormat.getJsonMapper().writeValueAsString(bodyObject);
+        return builder
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
 
-            // Process the response
-            System.out.println("Status code: " + response.statusCode());
-            System.out.println("Body: " + response.body());
-            if (typeRef.getType().equals(String.class)) {
-                return (T) response.body();
-            }
-            return objectmapper.readValue(response.body(), typeRef);
+    @SuppressWarnings("unchecked")
+    private static <T> T readResponse(HttpResponse<byte[]> response, TypeReference<T> typeRef) throws IOException {
+        // Process the response
+        if (response.statusCode() < 200 || response.statusCode() >= 300)
+        {
+            //only the status code gets logged, bodies can be several MB long
+            ErrorHandling.logEvent("Status code " + response.statusCode() + " from " + response.uri(),false,null);
         }
-        catch (IOException | InterruptedException e)
+        byte[] body = response.body();
+        if (response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip"))
         {
-            if (e instanceof JsonProcessingException)
+            try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(body)))
             {
-                //log.error("Unexpected response type [expected {}] when calling {}", typeRef, connectionString + endpointName, e);
+                body = gzipInputStream.readAllBytes();
             }
-            else
-            {
-                //log.error("Unexpected error when calling {}", connectionString + endpointName, e);
-            }
-            ErrorHandling.logEvent("Error webservicecaller.callServerMethodThrows",true,e);
-            //throw new RuntimeException(e);
-            return null;
         }
+        if (typeRef.getType().equals(String.class)) {
+            return (T) new String(body, StandardCharsets.UTF_8);
+        }
+        return WireFormat.mapperFor(response.headers().firstValue("Content-Type").orElse(null)).readValue(body, typeRef);
     }
 }
@@ -6,6 +6,8 @@ import com.hypernode.ledger.client.ExternalPayment;
 import com.hypernode.ledger.contracts.*;
 import com.hypernode.ledger.encryptionInterfaces.Encryption;
 import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_BaseInterface;
+import com.hypernode.ledger.storage.BlockStorage;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -13,8 +15,12 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static java.time.Instant.now;
 
@@ -22,9 +28,13 @@ import static java.time.Instant.now;
 //@Slf4j
 @Service
 public class WebServiceEngine {
+    private static final long PEER_RETRY_DELAY_MILLISECONDS = 1000;
+    static int BALANCE_RETENTION_BLOCKS = 100000;
+    static int HISTORY_BLOCKS_IN_MEMORY = 10000;
     StatusDataContract statusDataContract;
     TransportMessageDataContract transportMessageDataContract;
     TransportMessageDataContract currentlyTransmittedTransportMessage;
+    volatile PublishedMessage currentlyPublishedMessage;//currentlyTransmittedTransportMessage, already serialized
     TransportMessageDataContract nextTransmittedTransportMessage;
     TransportMessageDataContract previousRevisionTransportMessageDataContract;
     ValidatorMessageDataContract pendingNextMessage;
@@ -32,6 +42,9 @@ public class WebServiceEngine {
     List<ValidatorNode> peers;
     EncryptionEntity_BaseInterface encryptionEntity;
     LedgerHistory ledgerHistory;
+    AccountPaymentIndex accountPaymentIndex;
+    VersionedAccountStore versionedAccountStore;
+    Mempool mempool;
     BlockRevisionResult blockRevisionResult;
 
     public void TimedUpdatingEvent() {
@@ -60,57 +73,100 @@ public class WebServiceEngine {
 
     public void TimedReadingEvent()
     {
-        //INFO to use executors to read in parallel you would have to rewrite and retest everything to be thread safe.
-        List<ValidatorNode> retryPeers = new ArrayList<>();
-        for (ValidatorNode peer : this.peers)
+        //peers are downloaded and signature-checked concurrently on virtual threads,
+        // while the merge into transportMessageDataContract stays on this thread (see mergeReceivedData)
+        // so storeDataContract never has more than one writer.
+        for (ValidatorNode peer : readPeersWithRetry(this.peers, this::fetchPeerMessage, this::mergeReceivedData, PEER_RETRY_DELAY_MILLISECONDS))
         {
-            try
-            {
-                String connectionString = peer.getConnectionString();
-                TransportMessageDataContract peerMessage = WebServiceCaller.callServerMethodThrows(
-                        connectionString,
-                        "hdls/getCurrentlyTransmittedTransportMessage",
-                        null,
-                        new TypeReference<>() {
-                        }
-                );
-                this.receiveData(peerMessage);
-            }
-            catch (Exception e)
-            {
-                ErrorHandling.logEvent("failed reading data from" + peer.getConnectionString(), false, e);
-                // log or handle errors
-                // have a retry
-                retryPeers.add(peer);
-            }
+            ErrorHandling.logEvent("failed re-reading data from" + peer.getConnectionString(), false, null);
+        }
+        this.prepareNextMessage();
+    }
+
+    /**
+     * Reads the peers, then once more after _retryDelayMilliseconds the ones that could not be read.
+     *
+     * @return the peers that could not be read either time
+     */
+    public static <T> List<ValidatorNode> readPeersWithRetry(List<ValidatorNode> _peers, Function<ValidatorNode, T> _fetch, Consumer<T> _merge, long _retryDelayMilliseconds)
+    {
+        List<ValidatorNode> retryPeers = readPeers(_peers, _fetch, _merge);
+        if (retryPeers.isEmpty())
+        {
+            return retryPeers;
         }
         try
         {
-            wait(5000); //wait a second before retrying
+            Thread.sleep(_retryDelayMilliseconds); //wait a second before retrying
         }
-        catch (Exception e)
+        catch (InterruptedException e)
         {
-
+            Thread.currentThread().interrupt();
         }
-        for (ValidatorNode peer : retryPeers) {
-            try
+        return readPeers(retryPeers, _fetch, _merge);
+    }
+
+    /**
+     * Fetches and verifies the messages of the given peers in parallel,
+     * merging each verified message on the calling thread as soon as its download is complete.
+     *
+     * @param _fetch downloads and verifies the message of a peer, null if the message does not verify,
+     *               an exception if the peer could not be read
+     * @return the peers that could not be read, to be retried
+     */
+    public static <T> List<ValidatorNode> readPeers(List<ValidatorNode> _peers, Function<ValidatorNode, T> _fetch, Consumer<T> _merge)
+    {
+        List<ValidatorNode> failedPeers = new ArrayList<>();
+        Map<ValidatorNode, Future<T>> peerMessages = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (ValidatorNode peer : _peers)
             {
-                String connectionString = peer.getConnectionString();
-                TransportMessageDataContract peerMessage = WebServiceCaller.callServerMethodThrows(
-                        connectionString,
-                        "hdls/getCurrentlyTransmittedTransportMessage",
-                        null,
-                        new TypeReference<>() {
-                        }
-                );
-                this.receiveData(peerMessage);
+                peerMessages.put(peer, executor.submit(() -> _fetch.apply(peer)));
             }
-            catch (Exception e)
+            for (Map.Entry<ValidatorNode, Future<T>> peerMessage : peerMessages.entrySet())
             {
-                ErrorHandling.logEvent("failed re-reading data from" + peer.getConnectionString(), false, e);
+                try
+                {
+                    T message = peerMessage.getValue().get();
+                    if (message != null)
+                    {
+                        _merge.accept(message);
+                    }
+                }
+                catch (ExecutionException e)
+                {
+                    ErrorHandling.logEvent("failed reading data from" + peerMessage.getKey().getConnectionString(), false, e);
+                    failedPeers.add(peerMessage.getKey());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    failedPeers.add(peerMessage.getKey());
+                }
             }
         }
-        this.prepareNextMessage();
+        return failedPeers;
+    }
+
+    /**
+     * @return the verified message, null if the peer answered with a message that does not verify
+     * @throws IllegalStateException if the peer did not answer, so that it is read again
+     */
+    private TransportMessageDataContract fetchPeerMessage(ValidatorNode peer)
+    {
+        TransportMessageDataContract peerMessage = WebServiceCaller.callServerMethodThrows(
+                peer.getConnectionString(),
+                "hdls/getCurrentlyTransmittedTransportMessage",
+                null,
+                new TypeReference<>() {
+                }
+        );
+        if (peerMessage == null)
+        {
+            throw new IllegalStateException("no message from " + peer.getConnectionString());
+        }
+        return this.verifyReceivedData(peerMessage) ? peerMessage : null;
     }
 
     /**
@@ -123,10 +179,26 @@ public class WebServiceEngine {
      */
 
     public void receiveData(TransportMessageDataContract _dataContract) {
+        if (this.verifyReceivedData(_dataContract))
+        {
+            this.mergeReceivedData(_dataContract);
+        }
+    }
+
+    /**
+     * First half of receiveData, safe to run on many threads at once:
+     * it only reads the status and the peer list, and it only modifies the message it is given.
+     * Translates the names back into public keys, checks that the sender is one of the peers
+     * and verifies every signature carried by the message.
+     *
+     * @param _dataContract the message from the other validator node
+     * @return true if the message can be merged
+     */
+    boolean verifyReceivedData(TransportMessageDataContract _dataContract) {
         ValidatorNode validatorNode;
         try
         {
-            _dataContract.nameToPublicKey(this.statusDataContract.getDistributedLedgerAccounts());
+            _dataContract.nameToPublicKey(this.statusDataContract);
             //INFO now the system is strict and only receives from your peers
             // to avoid ddos or flooding.
             // if you want to manually enter the messages use this line instead
@@ -137,29 +209,41 @@ public class WebServiceEngine {
                     && Encryption.verifySignedMessage(_dataContract.getStringToSign(), _dataContract.getSignature())
             )
             {
-                //someone gave you data, you have to process it and see if it is still good
-                this.transportMessageDataContract.storeDataContract(_dataContract, this.getEncryptionEntity());
-            }
-            else
-            {
-                ErrorHandling.logEvent("error before receiveData for " + _dataContract.getSignature().getPublicKey(),false,null);
+                _dataContract.verifySignatures();
+                return true;
             }
+            ErrorHandling.logEvent("error before receiveData for " + _dataContract.getSignature().getPublicKey(),false,null);
             //else ... ignore the message
-
         }
         catch (Exception e)
         {
             ErrorHandling.logEvent("error during receiveData for " + _dataContract.getSignature().getPublicKey(),false,e);
-            return;
         }
+        return false;
+    }
 
-
+    /**
+     * Second half of receiveData: the single writer of transportMessageDataContract.
+     *
+     * @param _dataContract a message that already passed verifyReceivedData
+     */
+    synchronized void mergeReceivedData(TransportMessageDataContract _dataContract) {
+        try
+        {
+            //someone gave you data, you have to process it and see if it is still good
+            this.transportMessageDataContract.storeDataContract(_dataContract, this.getEncryptionEntity());
+        }
+        catch (Exception e)
+        {
+            ErrorHandling.logEvent("error during receiveData for " + _dataContract.getSignature().getPublicKey(),false,e);
+        }
     }
 
     public boolean updateCurrentMessage()
     {
         this.currentlyTransmittedTransportMessage = this.nextTransmittedTransportMessage.hardCopy();
         this.currentlyTransmittedTransportMessage.setSent(Instant.now());
+        this.publishCurrentMessage();
         ErrorHandling.logEvent("updateCurrentMessage block " + this.currentlyTransmittedTransportMessage.getBlockId()
                 + "rev " + this.currentlyTransmittedTransportMessage.getBlockRevision()
                 + "version" + this.currentlyTransmittedTransportMessage.getBlockTempVersion()
@@ -170,6 +254,15 @@ public class WebServiceEngine {
 
     }
 
+    /**
+     * Serializes the currently transmitted message once per frame,
+     * instead of once per peer or CDN request.
+     */
+    void publishCurrentMessage()
+    {
+        this.currentlyPublishedMessage = PublishedMessage.create(this.currentlyTransmittedTransportMessage);
+    }
+
     public void prepareNextMessage()
     {
         //implements point 3b
@@ -187,7 +280,7 @@ public class WebServiceEngine {
         }
         this.nextTransmittedTransportMessage = messageToSend.hardCopy();
         this.nextTransmittedTransportMessage.signContract(this.encryptionEntity);
-        this.nextTransmittedTransportMessage.publicKeyToName(this.statusDataContract.getDistributedLedgerAccounts());
+        this.nextTransmittedTransportMessage.publicKeyToName(this.statusDataContract);
         ErrorHandling.logEvent("updated nextTransmittedTransportMessage id " + nextTransmittedTransportMessage.getBlockId()
                 +" rev " + nextTransmittedTransportMessage.getBlockRevision()
                 + "ver " + nextTransmittedTransportMessage.getBlockTempVersion()
@@ -281,10 +374,21 @@ public class WebServiceEngine {
      * This new status will then be distributed to the servers who are waiting to be let into the network
      */
     private TransportMessageDataContract newBlockId() {
-        ledgerHistory.addNewBlockRevisionResult(this.blockRevisionResult);
-
         this.statusDataContract = this.blockRevisionResult.getResultingStatusDataContract();
+        BlockRecord blockRecord = BlockRecord.create(this.blockRevisionResult);
+        ledgerHistory.addBlockRecord(blockRecord, this.statusDataContract);
+        accountPaymentIndex.addBlock(blockRecord, this.statusDataContract.getAccountStore());
+        versionedAccountStore.addBlock(blockRecord);
         this.statusDataContract.signContract(this.getEncryptionEntity());
+        //a block that is not in the log stays in the history in memory, and no snapshot is written past the log
+        boolean stored = BlockStorage.appendBlock(blockRecord);
+        //the payments collected for the next block, nobody writes to this set after the drain
+        this.pendingNextMessage.setPaymentSet(this.mempool.drain(this.pendingNextMessage.getId() + 1,
+                this.statusDataContract.getAccountStore(), this.statusDataContract.getNextLedgerParameters().getMaxTransactionsPerBlock()));
+        if (stored && BlockStorage.isSnapshotDue(this.statusDataContract.getId()))
+        {
+            BlockStorage.writeSnapshot(StateSnapshot.create(this.statusDataContract, this.pendingNextMessage));
+        }
 
 
         //let the other servers waiting to be authenticated back in
@@ -329,7 +433,7 @@ public class WebServiceEngine {
         //the caller asks for a message to sign and then gives it back signed.
         //He will need to use a public key of an account he controls,
         // which will then be used for staking
-        return Encryption.hash(this.statusDataContract.getStringToSign());
+        return this.statusDataContract.calculateHash();
         //this will be updated at the meshExchangeData when it's time to validate the block revision and switch to the new one
     }
 
@@ -347,8 +451,9 @@ public class WebServiceEngine {
             return false;
         }
 
-        if (this.statusDataContract.getAccountsList().stream().noneMatch(c -> c.getPublicKey().equals(_publicKey)
-                && c.getAmount().compareTo(this.statusDataContract.getLedgerParameters().getAmountRequestedToBeValidator()) > 0)) {
+        DistributedLedgerAccount candidate = this.statusDataContract.getAccountStore().get(_publicKey);
+        if (candidate == null
+                || candidate.getAmount().compareTo(this.statusDataContract.getLedgerParameters().getAmountRequestedToBeValidator()) <= 0) {
             //not enough credit to become a validator
             return false;
         }
@@ -389,29 +494,41 @@ public class WebServiceEngine {
 
     public List<ExternalPayment> notifySpend(List<ExternalPayment> _requestedPayments) {
 
-        List<ExternalPayment> validPayments = new ArrayList<>(_requestedPayments.stream().filter(
+        List<ExternalPayment> validPayments = _requestedPayments.stream().filter(
                 payment -> payment.verifyClientSignature()
                         && payment.getAmount().compareTo(this.statusDataContract.getNextLedgerParameters().getTransactionCost()) >= 0
                         && (this.statusDataContract.getNextLedgerParameters().getMaxMessageLength() <=0
                              ||   this.statusDataContract.getNextLedgerParameters().getMaxMessageLength() > payment.getComment().length())
-                        && this.statusDataContract.getAccountsList().stream().anyMatch(c -> c.getValidatorNode().equals(this.getEncryptionEntity().getPublicKey()) && c.getPublicKey().equals(payment.getFrom()))
+                        && this.isDelegatedToThisNode(payment.getFrom())
                         && payment.getBlockId() == this.statusDataContract.getId() + 2
-                        && DistributedLedgerAccount.exists(this.statusDataContract.getAccountsList(), payment.getFrom())).toList());
+                        && DistributedLedgerAccount.exists(this.statusDataContract.getAccountsList(), payment.getFrom())).toList();
 
-        if(this.pendingNextMessage.getPaymentSet().size() + validPayments.size() > this.statusDataContract.getNextLedgerParameters().getMaxTransactionsPerBlock())
+        //each payment gets its own answer, a full block or an overspend only refuses the payments concerned
+        List<ExternalPayment> ret = new ArrayList<>(validPayments.size());
+        for (ExternalPayment payment : validPayments)
         {
-            ErrorHandling.logEvent("too many payments, limit reached for this frame",false,null);
-            return new ArrayList<ExternalPayment>(0);//TODO return string saying list is full?
+            Mempool.Admission admission = this.mempool.admit(Payment.createFromExternalPayment(payment));
+            if (admission == Mempool.Admission.ACCEPTED)
+            {
+                ret.add(payment);
+            }
+            else
+            {
+                ErrorHandling.logEvent("payment refused: " + admission,false,null);
+            }
         }
+        return ret;
+    }
 
-        this.pendingNextMessage.getPaymentSet().addAll(validPayments.stream().map(Payment::createFromExternalPayment).toList());
-
-        return validPayments;
+    private boolean isDelegatedToThisNode(String _publicKey)
+    {
+        DistributedLedgerAccount account = this.statusDataContract.getAccountStore().get(_publicKey);
+        return account != null && account.getValidatorNode().equals(this.getEncryptionEntity().getPublicKey());
     }
 
     public String notifyupdateAccountAttributes(AccountAttributesUpdate _accountAttributesUpdate)
     {
-        if(_accountAttributesUpdate.validate(this.statusDataContract.getId()+1, Encryption.hash(this.statusDataContract.getStringToSign())))
+        if(_accountAttributesUpdate.validate(this.statusDataContract.getId()+1, this.statusDataContract.calculateHash()))
         {
             this.pendingNextMessage.getVotingDelegationSet().add(_accountAttributesUpdate);
             return "OK";
@@ -423,7 +540,7 @@ public class WebServiceEngine {
     {
         try
         {
-            return this.statusDataContract.getAccountsList().stream().filter(a -> a.getPublicKey().equals(publicKey)).findFirst().get().getAmount();
+            return this.statusDataContract.getAccountStore().get(publicKey).getAmount();
         }
         catch (Exception e)
         {
@@ -432,6 +549,42 @@ public class WebServiceEngine {
         }
     }
 
+    /**
+     * @return the balance of the account in the status with this id, null if the block is not retained
+     *         (see ledger.history.balanceRetentionBlocks), zero if the account did not exist then
+     */
+    public BigDecimal getAmountAvailableAt(String publicKey, int blockId)
+    {
+        if (this.versionedAccountStore == null || !this.versionedAccountStore.isRetained(blockId))
+        {
+            return null;
+        }
+        DistributedLedgerAccount account = this.versionedAccountStore.getAccount(publicKey, blockId);
+        return account == null ? BigDecimal.ZERO : account.getAmount();
+    }
+
+    /**
+     * Same as getAccountInfo, with the account, its name and its validator node as they were in the status with this id.
+     */
+    public AccountInfo getAccountInfoAt(String id, int blockId)
+    {
+        AccountInfo ret = new AccountInfo();
+        if (this.versionedAccountStore == null)
+        {
+            return ret;
+        }
+        DistributedLedgerAccount account = Optional.ofNullable(this.versionedAccountStore.getAccount(id, blockId))
+                .orElseGet(() -> this.versionedAccountStore.getAccountByName(id, blockId));
+        List<ValidatorNode> validatorNodes = this.versionedAccountStore.getValidatorNodeList(blockId);
+        if (account == null || validatorNodes == null)
+        {
+            return ret;
+        }
+        ret.setAccount(account);
+        ret.setNode(validatorNodes.stream().filter(v -> v.getPublicKey().equals(account.getPublicKey())).findFirst().orElse(new ValidatorNode()));
+        return ret;
+    }
+
     public AccountInfo getAccountInfo(String id)
     {
         AccountInfo ret = new AccountInfo();
@@ -439,11 +592,11 @@ public class WebServiceEngine {
         ValidatorNode node;
         if(id.length()<200)
         {
-            account = this.statusDataContract.getAccountsList().stream().filter(d -> d.getName().equals(id)).findFirst().orElse(new DistributedLedgerAccount());
+            account = Optional.ofNullable(this.statusDataContract.getAccountStore().getByName(id)).orElse(new DistributedLedgerAccount());
         }
         else
         {//INFO postman has a bug where the id gets truncated when it has a "+" in it
-            account = this.statusDataContract.getAccountsList().stream().filter(d -> d.getPublicKey().equals(id)).findFirst().orElse(new DistributedLedgerAccount());
+            account = Optional.ofNullable(this.statusDataContract.getAccountStore().get(id)).orElse(new DistributedLedgerAccount());
         }
         if(account.getPublicKey().isEmpty())
         {
@@ -455,6 +608,19 @@ public class WebServiceEngine {
         return ret;
     }
 
+    /**
+     * @param id public key or name of the account
+     */
+    public AccountPaymentsPage getAccountPayments(String id, int offset, int limit)
+    {
+        if (this.accountPaymentIndex == null)
+        {
+            return AccountPaymentsPage.create(id, 0, -1, List.of());
+        }
+        String publicKey = Optional.ofNullable(this.statusDataContract.getAccountStore().nameToPublicKey(id)).orElse(id);
+        return this.accountPaymentIndex.getPayments(publicKey, offset, limit);
+    }
+
     public int getBlockId()
     {
         return this.nextTransmittedTransportMessage.getBlockId();
@@ -464,7 +630,15 @@ public class WebServiceEngine {
     public void setEncryptionEntity(EncryptionEntity_BaseInterface credentials){ encryptionEntity = credentials;}
     public StatusDataContract getStatusDataContract() {return statusDataContract;}
     public TransportMessageDataContract getCurrentlyTransmittedTransportMessage() {return currentlyTransmittedTransportMessage;}
+    public PublishedMessage getCurrentlyPublishedMessage() {return currentlyPublishedMessage;}
     public ValidatorMessageDataContract getPendingNextMessage() {return pendingNextMessage;}
     public void setThisValidatorNode(ValidatorNode thisValidatorNode) {this.thisValidatorNode = thisValidatorNode;}
     public LedgerHistory getLedgerHistory() {return ledgerHistory;}
+    public AccountPaymentIndex getAccountPaymentIndex() {return accountPaymentIndex;}
+    public VersionedAccountStore getVersionedAccountStore() {return versionedAccountStore;}
+    public Mempool getMempool() {return mempool;}
+    @Value("${ledger.history.balanceRetentionBlocks:100000}")
+    public void setBalanceRetentionBlocks(int balanceRetentionBlocks) {BALANCE_RETENTION_BLOCKS = balanceRetentionBlocks;}
+    @Value("${ledger.history.blocksInMemory:10000}")
+    public void setHistoryBlocksInMemory(int historyBlocksInMemory) {HISTORY_BLOCKS_IN_MEMORY = historyBlocksInMemory;}
 }
\ No newline at end of file
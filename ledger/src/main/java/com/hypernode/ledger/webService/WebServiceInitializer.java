@@ -4,6 +4,8 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.hypernode.ledger.ErrorHandling;
 import com.hypernode.ledger.contracts.*;
 import com.hypernode.ledger.controller.WebServiceEndpoints;
+import com.hypernode.ledger.storage.BlockLog;
+import com.hypernode.ledger.storage.BlockStorage;
 
 import java.util.HashSet;
 
@@ -63,13 +65,72 @@ public class WebServiceInitializer {
      * @param _lastDataContract the last validated data contract
      */
     public static void initialize(WebServiceEngine _this, StatusDataContract _lastDataContract) {
+        initialize(_this, _lastDataContract, null);
+    }
+
+    /**
+     * Restarts the node from the latest snapshot on disk instead of waiting for another node to send it the status.
+     * The blocks the log holds after the snapshot are applied on top of it, so the node comes back at the last block
+     * it accepted. If there were none it also keeps the message it had prepared for the next block.
+     * From there it follows the others like a node that just joined.
+     *
+     * @return false if restoring is off, if there is no valid snapshot, if the log does not follow from it
+     *         or if this node is not a validator in the restored status
+     */
+    public static boolean restoreFromSnapshot(WebServiceEngine _this)
+    {
+        if (!BlockStorage.isRestoreOnStart())
+        {
+            return false;
+        }
+        StateSnapshot snapshot = BlockStorage.readLatestSnapshot();
+        if (snapshot == null)
+        {
+            return false;
+        }
+        StatusDataContract status = BlockStorage.replay(snapshot.getStatusDataContract(), BlockStorage.getBlockLog());
+        if (status == null)
+        {
+            return false;
+        }
+        if (status.getValidatorNodeList().stream().noneMatch(v -> v.getPublicKey().equals(_this.getEncryptionEntity().getPublicKey())))
+        {
+            ErrorHandling.logEvent("this node is not a validator in the status of block " + status.getId(), false, null);
+            return false;
+        }
+        status.signContract(_this.getEncryptionEntity());
+        initialize(_this, status, status == snapshot.getStatusDataContract() ? snapshot.getPendingMessage() : null);
+        //the payments of the blocks before the restart are only in the log, the index is built again from it
+        BlockLog log = BlockStorage.getBlockLog();
+        for (int blockId = log == null ? 0 : Math.max(log.getFirstBlockId(), 1); log != null && blockId <= Math.min(status.getId(), log.getLastBlockId()); blockId++)
+        {
+            BlockRecord blockRecord = BlockStorage.readBlock(blockId);
+            if (blockRecord != null)
+            {
+                _this.accountPaymentIndex.addBlock(blockRecord, status.getAccountStore());
+            }
+        }
+        ErrorHandling.logEvent("restored from the snapshot of block " + snapshot.getStatusDataContract().getId() + " up to block " + status.getId(), false, null);
+        return true;
+    }
+
+    private static void initialize(WebServiceEngine _this, StatusDataContract _lastDataContract, ValidatorMessageDataContract _pendingMessage) {
         _this.statusDataContract = _lastDataContract;
         _this.statusDataContract.setNextLedgerParameters(_this.statusDataContract.getLedgerParameters());
-        _this.ledgerHistory = LedgerHistory.create(_lastDataContract);
-        ValidatorMessageDataContract message = ValidatorMessageDataContract.createEmpty(_lastDataContract.getId()+1);
-        message.setValidatorNodes( new HashSet<>());
-        message.setPaymentSet( new HashSet<>());
-        message.setVotedParameterChanges(_lastDataContract.getLedgerParameters());
+        //without a block log there is nowhere to read the older blocks from, they all stay in memory
+        _this.ledgerHistory = BlockStorage.isEnabled() && BlockStorage.startFrom(_lastDataContract)
+                ? LedgerHistory.create(_lastDataContract, WebServiceEngine.HISTORY_BLOCKS_IN_MEMORY, BlockStorage::readBlock, BlockStorage::getLastBlockId)
+                : LedgerHistory.create(_lastDataContract);
+        _this.accountPaymentIndex = AccountPaymentIndex.create(id -> _this.ledgerHistory.getBlock(id));
+        _this.versionedAccountStore = VersionedAccountStore.create(_lastDataContract, WebServiceEngine.BALANCE_RETENTION_BLOCKS);
+        ValidatorMessageDataContract message = _pendingMessage;
+        if(message == null)
+        {
+            message = ValidatorMessageDataContract.createEmpty(_lastDataContract.getId()+1);
+            message.setValidatorNodes( new HashSet<>());
+            message.setPaymentSet( new HashSet<>());
+            message.setVotedParameterChanges(_lastDataContract.getLedgerParameters());
+        }
         _this.thisValidatorNode = ValidatorNode.findByPublicKey(_this.statusDataContract.getValidatorNodeList(), _this.getEncryptionEntity().getPublicKey());
         _this.statusDataContract.getLedgerParameters().setGroupParameters(_this.statusDataContract.getValidatorNodeList().size());
         _this.peers = _this.statusDataContract.getLedgerParameters().calculatePeers(_this.statusDataContract.getValidatorNodeList(), _this.thisValidatorNode.getAddress());
@@ -77,12 +138,15 @@ public class WebServiceInitializer {
         //_this.transportMessageDataContract.setPeerContracts(new HashSet<>());
 
         _this.nextTransmittedTransportMessage = _this.transportMessageDataContract.hardCopy();
-        _this.nextTransmittedTransportMessage.publicKeyToName(_this.statusDataContract.getDistributedLedgerAccounts());
+        _this.nextTransmittedTransportMessage.publicKeyToName(_this.statusDataContract);
         _this.currentlyTransmittedTransportMessage = _this.nextTransmittedTransportMessage;
+        _this.publishCurrentMessage();
         _this.pendingNextMessage = ValidatorMessageDataContract.createEmpty(message.getId()+1);
         _this.pendingNextMessage.setPaymentSet( new HashSet<>());
         _this.pendingNextMessage.setValidatorNodes(new HashSet<>());
-        _this.pendingNextMessage.setVotedParameterChanges(_lastDataContract.getLedgerParameters());
+        _this.pendingNextMessage.setVotedParameterChanges(message.getVotedParameterChanges());
+        _this.mempool = Mempool.create(_this.pendingNextMessage.getId(), _this.statusDataContract.getAccountStore(),
+                _this.statusDataContract.getNextLedgerParameters().getMaxTransactionsPerBlock(), message.getPaymentSet());
         _this.blockRevisionResult = BlockRevisionResult.processRevision(_this.transportMessageDataContract,_this.transportMessageDataContract,_this.statusDataContract);
         //you are now authenticated, at the next block revision the Validator list will be updated
         //and at the next one you will be able to exchange messages
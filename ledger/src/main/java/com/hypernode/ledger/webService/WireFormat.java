@@ -0,0 +1,48 @@
+package com.hypernode.ledger.webService;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Encodings used between nodes.
+ * JSON is always available; CBOR is the compact binary alternative, picked through the Accept and
+ * Content-Type headers, where the properties marked with BinaryBase64 (keys and signatures)
+ * travel as raw bytes instead of base64 text.
+ * Spring serves CBOR on every endpoint by itself once jackson-dataformat-cbor is on the classpath,
+ * the mappers here are for the code that handles the bytes directly (WebServiceCaller, PublishedMessage).
+ */
+public class WireFormat
+{
+    public static final String APPLICATION_JSON = "application/json";
+    public static final String APPLICATION_CBOR = "application/cbor";
+    //one JSON document per line, for responses that are written while they are read
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    //what a node asks for: binary if the other side knows it, JSON otherwise
+    public static final String ACCEPT_BINARY = APPLICATION_CBOR + ", " + APPLICATION_JSON + ";q=0.9";
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);//same output as the spring converter
+    private static final ObjectMapper cborMapper = new CBORMapper()
+            .registerModule(new JavaTimeModule());
+
+    public static boolean acceptsCbor(String accept)
+    {
+        return accept != null && accept.toLowerCase().contains(APPLICATION_CBOR);
+    }
+
+    public static boolean isCbor(String contentType)
+    {
+        return contentType != null && contentType.toLowerCase().startsWith(APPLICATION_CBOR);
+    }
+
+    public static ObjectMapper mapperFor(String contentType)
+    {
+        return isCbor(contentType) ? cborMapper : jsonMapper;
+    }
+
+    public static ObjectMapper getJsonMapper() {return jsonMapper;}
+    public static ObjectMapper getCborMapper() {return cborMapper;}
+}
@@ -1,15 +1,71 @@
 package com.hypernode.ledger;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.hypernode.ledger.contracts.*;
+import com.hypernode.ledger.controller.WebServiceEndpoints;
+import com.hypernode.ledger.encryptionInterfaces.CanonicalHasher;
+import com.hypernode.ledger.encryptionInterfaces.Encryption;
+import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_ExternalServer;
+import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_Integrated;
+import com.hypernode.ledger.encryptionInterfaces.EncryptionEntity_UnixSocket;
+import com.hypernode.ledger.encryptionInterfaces.UnixSocketSignerServer;
+import com.hypernode.ledger.encryptionInterfaces.VerifiedSignatureCache;
+import com.hypernode.ledger.storage.BlockLog;
+import com.hypernode.ledger.storage.BlockStorage;
+import com.hypernode.ledger.storage.SnapshotStore;
+import com.hypernode.ledger.webService.HistoryStream;
+import com.hypernode.ledger.webService.Mempool;
+import com.hypernode.ledger.webService.PublishedMessage;
+import com.hypernode.ledger.webService.WebServiceEngine;
+import com.hypernode.ledger.webService.WireFormat;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 //@SpringBootTest
 class LedgerApplicationTests {
@@ -59,6 +115,1362 @@ class LedgerApplicationTests {
 
 
 
+    @Test
+    public void test126() throws Exception
+    {
+        //keys and signatures travel as raw bytes in CBOR and come back as the same strings
+        ObjectMapper cborMapper = WireFormat.getCborMapper();
+        String publicKey = Base64.getEncoder().encodeToString(new byte[]{1, 2, 3, 4, 5, (byte) 250});
+        Signature signature = Signature.create(publicKey, "message", "");
+        byte[] cbor = cborMapper.writeValueAsBytes(signature);
+        assertFalse(new String(cbor, StandardCharsets.ISO_8859_1).contains(publicKey));
+        Signature read = cborMapper.readValue(cbor, Signature.class);
+        assertEquals(publicKey, read.getPublicKey());
+        assertEquals("", read.getSignatureValue());
+        assertEquals("message", read.getMessageValue());
+
+        //names and non canonical base64 stay text
+        signature = Signature.create("ACCOUNT1_NAME", null, "ab=");
+        read = cborMapper.readValue(cborMapper.writeValueAsBytes(signature), Signature.class);
+        assertEquals("ACCOUNT1_NAME", read.getPublicKey());
+        assertEquals("ab=", read.getSignatureValue());
+    }
+
+    @Test
+    public void test127() throws Exception
+    {
+        //a batch signed by a signer on the other side of a unix domain socket
+        new Encryption().setKeyAlgorithm("RSA");
+        new Encryption().setSignAlgorithm("SHA256withRSA");
+        new EncryptionEntity_Integrated().setKeyAlgorithm("RSA");
+        new EncryptionEntity_Integrated().setSignAlgorithm("SHA256withRSA");
+        KeyPair keyPair = Encryption.createNewKey();
+        EncryptionEntity_Integrated signer = EncryptionEntity_Integrated.create(
+                Encryption.ByteArrayToBase64(keyPair.getPublic().getEncoded()),
+                Encryption.ByteArrayToBase64(keyPair.getPrivate().getEncoded()));
+        Path socketPath = Files.createTempDirectory("hdls").resolve("signer.sock");
+        try (UnixSocketSignerServer server = UnixSocketSignerServer.start(socketPath.toString(), signer))
+        {
+            //bound in a private directory and moved where it was asked, already restricted to the owner
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socketPath)));
+            try (Stream<Path> files = Files.list(socketPath.getParent()))
+            {
+                assertEquals(List.of(socketPath), files.toList());
+            }
+            EncryptionEntity_UnixSocket encryptionEntity = EncryptionEntity_UnixSocket.create(server.getSocketPath());
+            assertEquals(signer.getPublicKey(), encryptionEntity.getPublicKey());
+            List<String> messages = List.of("first", "second", "àèìòù");
+            List<String> signatures = encryptionEntity.signMessages(messages);
+            assertEquals(messages.size(), signatures.size());
+            for (int i = 0; i < messages.size(); i++)
+            {
+                assertTrue(Encryption.verifySignedMessage(messages.get(i), encryptionEntity.getPublicKey(), signatures.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void test128() throws Exception
+    {
+        //the streamed hash must match the old hash of the joined string, whitespace and non ascii included
+        List<String> values = List.of("b 1:\tx", "a\r\n2", "\u00e8\u20ac", "\ud83d \ude00", "\ud83d", "z");
+        String joined = "7:" + values.stream().sorted().collect(Collectors.joining("|")) + ":end \n";
+        String streamed = CanonicalHasher.create(true).append(7).append(":").appendSorted(values.stream(), "|").append(":end \n").finish();
+        assertEquals(md5Hex(joined.replaceAll("\\s+", "")), streamed);
+        assertEquals(md5Hex(joined), CanonicalHasher.create(false).append(joined).finish());
+        assertEquals(md5Hex(joined), Encryption.hash(joined));
+    }
+
+    @Test
+    public void test129()
+    {
+        //a tree updated block after block must have the same root as one built from scratch
+        List<DistributedLedgerAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("key" + i, "", BigDecimal.valueOf(i), "key0", ""));
+        }
+        MerkleStateTree<DistributedLedgerAccount> incremental = new MerkleStateTree<>(12, DistributedLedgerAccount::getPublicKey, DistributedLedgerAccount::uniqueString);
+        incremental.sync(accounts);
+        String firstRoot = incremental.rootHash();
+        accounts.set(5, DistributedLedgerAccount.create("key5", "", BigDecimal.ONE, "key0", ""));
+        accounts.remove(17);
+        accounts.add(DistributedLedgerAccount.create("key2000", "", BigDecimal.TEN, "key0", ""));
+        incremental.sync(accounts);
+        MerkleStateTree<DistributedLedgerAccount> fresh = new MerkleStateTree<>(12, DistributedLedgerAccount::getPublicKey, DistributedLedgerAccount::uniqueString);
+        fresh.sync(new ArrayList<>(accounts));
+        assertEquals(fresh.rootHash(), incremental.rootHash());
+        assertEquals(accounts.size(), incremental.size());
+        assertFalse(firstRoot.equals(incremental.rootHash()));
+    }
+
+    @Test
+    public void test130() throws Exception
+    {
+        //an account proof checks out against the signed status hash, and stops checking out if the account is altered
+        new Encryption().setKeyAlgorithm("RSA");
+        new Encryption().setSignAlgorithm("SHA256withRSA");
+        new EncryptionEntity_Integrated().setKeyAlgorithm("RSA");
+        new EncryptionEntity_Integrated().setSignAlgorithm("SHA256withRSA");
+        KeyPair keyPair = Encryption.createNewKey();
+        EncryptionEntity_Integrated signer = EncryptionEntity_Integrated.create(
+                Encryption.ByteArrayToBase64(keyPair.getPublic().getEncoded()),
+                Encryption.ByteArrayToBase64(keyPair.getPrivate().getEncoded()));
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 500; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("key" + i, "", new BigDecimal("1" + i + ".50"), "key0", ""));
+        }
+        StatusDataContract status = StatusDataContract.create(7, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        status.computeHash();
+        status.signContract(signer);
+
+        ObjectMapper objectMapper = WireFormat.getJsonMapper();
+        List<String> trusted = List.of(signer.getPublicKey());
+        AccountProof proof = objectMapper.readValue(objectMapper.writeValueAsBytes(status.getAccountProof("key42")), AccountProof.class);
+        assertTrue(proof.verify(trusted));
+        assertFalse(proof.verify(List.of()));
+        assertEquals(status.getHash(), proof.getStatusHash());
+
+        proof.setAccount(DistributedLedgerAccount.create("key42", "", new BigDecimal("1000000"), "key0", ""));
+        assertFalse(proof.verify(trusted));
+
+        //a status built and signed by someone else checks out on its own, but not against the trusted validator
+        KeyPair forgerKeys = Encryption.createNewKey();
+        EncryptionEntity_Integrated forger = EncryptionEntity_Integrated.create(
+                Encryption.ByteArrayToBase64(forgerKeys.getPublic().getEncoded()),
+                Encryption.ByteArrayToBase64(forgerKeys.getPrivate().getEncoded()));
+        StatusDataContract forged = StatusDataContract.create(7, null,
+                Set.of(DistributedLedgerAccount.create("key42", "", new BigDecimal("1000000"), "key0", "")), new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        forged.signContract(forger);
+        AccountProof forgedProof = forged.getAccountProof("key42");
+        assertTrue(forgedProof.verify(List.of(forger.getPublicKey())));
+        assertFalse(forgedProof.verify(trusted));
+        forgedProof.setStatusSignature(Signature.create(signer.getPublicKey(), null, forgedProof.getStatusSignature().getSignatureValue()));
+        assertFalse(forgedProof.verify(trusted));
+
+        //a copy signed without hashing it first still signs its own hash, not the one it was copied with
+        StatusDataContract next = status.snapshotForNextBlock();
+        next.getAccountStore().add(DistributedLedgerAccount.create("key42", "", BigDecimal.ONE, "key0", ""));
+        next.signContract(signer);
+        assertFalse(status.getHash().equals(next.getHash()));
+        assertTrue(next.getAccountProof("key42").verify(trusted));
+    }
+
+    @Test
+    public void test131()
+    {
+        //the indexed store answers like the scans it replaces, and keeps the indexes right when accounts are replaced
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 100; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("key" + i, i % 10 == 0 ? "name" + i : "", new BigDecimal(i + 1), "key" + (i % 3), ""));
+        }
+        AccountStore store = AccountStore.create(accounts);
+        assertEquals(accounts.size(), store.size());
+        assertEquals(accounts, store);
+        assertEquals(DistributedLedgerAccount.calculateAmountDelegated(new HashSet<>(accounts)), store.calculateAmountDelegated());
+        assertEquals("key20", store.getByName("name20").getPublicKey());
+
+        store.add(DistributedLedgerAccount.create("key20", "renamed", new BigDecimal(5), "key1", ""));
+        assertEquals(100, store.size());
+        assertEquals(null, store.getByName("name20"));
+        assertEquals("key20", store.getByName("renamed").getPublicKey());
+        assertFalse(store.getDelegators("key2").stream().anyMatch(a -> a.getPublicKey().equals("key20")));
+        assertTrue(DistributedLedgerAccount.exists(store, "key99"));
+        store.removeIf(a -> a.getPublicKey().equals("key99"));
+        assertFalse(DistributedLedgerAccount.exists(store, "key99"));
+        assertEquals(DistributedLedgerAccount.calculateAmountDelegated(new HashSet<>(store)), store.calculateAmountDelegated());
+    }
+
+    @Test
+    public void test132()
+    {
+        //settlement: overspending sender banned, cost taken from the credit, new recipient created, empty account dropped
+        BigDecimal cost = new BigDecimal("0.10");
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create("a", "alice", new BigDecimal("10"), "v", ""));
+        accounts.add(DistributedLedgerAccount.create("b", "", new BigDecimal("5"), "v", ""));
+        accounts.add(DistributedLedgerAccount.create("c", "", new BigDecimal("1"), "v", ""));
+        accounts.add(DistributedLedgerAccount.create("untouched", "", new BigDecimal("3"), "v", ""));
+        Set<Payment> payments = new HashSet<>();
+        payments.add(settlementPayment("a", "b", "4", "1"));
+        payments.add(settlementPayment("a", "new", "6", "2"));
+        payments.add(settlementPayment("c", "b", "2", "3"));//c only has 1
+        payments.add(settlementPayment("b", "a", "0.05", "4"));//below the cost, nothing arrives
+
+        AccountStore store = AccountStore.create(accounts);
+        Set<DistributedLedgerAccount> result = Payment.processPayments(store, payments, cost);
+        assertTrue(result == store);
+        assertEquals(3, payments.size());
+        assertEquals(null, store.get("a"));//spent everything
+        assertEquals(0, new BigDecimal("8.85").compareTo(store.get("b").getAmount()));
+        assertEquals(null, store.get("c"));
+        assertEquals(0, new BigDecimal("5.90").compareTo(store.get("new").getAmount()));
+        assertEquals("new", store.get("new").getValidatorNode());
+        assertEquals(0, new BigDecimal("3").compareTo(store.get("untouched").getAmount()));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void test133()
+    {
+        //the long tally gives the same value and scale as the BigDecimal sum, also once it overflows
+        List<BigDecimal> values = List.of(new BigDecimal("1.5"), new BigDecimal("0.125"),
+                new BigDecimal("-3"), new BigDecimal("9223372036854775807"), new BigDecimal("12.0000"));
+        BigDecimal expected = BigDecimal.ZERO;
+        AmountTally tally = AmountTally.create();
+        for (BigDecimal value : values)
+        {
+            expected = expected.add(value);
+            tally.add(value);
+            assertEquals(expected, tally.toBigDecimal());
+        }
+        assertEquals(0, AmountTally.of(new BigDecimal("2.50")).compareTo(new BigDecimal("2.5")));
+        assertTrue(AmountTally.of(new BigDecimal("5")).doubled().compareTo(new BigDecimal("10")) == 0);
+    }
+
+    @Test
+    public void test134()
+    {
+        //the persistent map follows a HashMap through random puts and removes, and old versions do not move
+        Random random = new Random(134);
+        Map<String, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer> map = PersistentHashMap.empty();
+        PersistentHashMap<Integer> halfway = null;
+        Map<String, Integer> expectedHalfway = null;
+        for (int i = 0; i < 20000; i++)
+        {
+            //"Aa" and "BB" have the same hashCode, so do all their concatenations
+            String key = random.nextInt(8) == 0 ? (random.nextBoolean() ? "Aa" : "BB") + (random.nextBoolean() ? "Aa" : "BB") : "k" + random.nextInt(5000);
+            if (random.nextInt(3) == 0)
+            {
+                expected.remove(key);
+                map = map.remove(key);
+            }
+            else
+            {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+            if (i == 10000)
+            {
+                halfway = map;
+                expectedHalfway = new HashMap<>(expected);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet())
+        {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        List<Integer> values = new ArrayList<>();
+        map.forEach(values::add);
+        assertEquals(expected.size(), values.size());
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(values));
+        assertEquals(expectedHalfway.size(), halfway.size());
+        for (Map.Entry<String, Integer> e : expectedHalfway.entrySet())
+        {
+            assertEquals(e.getValue(), halfway.get(e.getKey()));
+        }
+
+        AccountStore store = AccountStore.create(List.of(DistributedLedgerAccount.create("a", "alice", BigDecimal.ONE, "v", "")));
+        AccountStore snapshot = store.snapshot();
+        store.add(DistributedLedgerAccount.create("a", "alice", BigDecimal.TEN, "v", ""));
+        store.add(DistributedLedgerAccount.create("b", "", BigDecimal.ONE, "v", ""));
+        assertEquals(1, snapshot.size());
+        assertEquals(BigDecimal.ONE, snapshot.getByName("alice").getAmount());
+        assertEquals(BigDecimal.TEN, store.getByName("alice").getAmount());
+    }
+
+    @Test
+    public void test135()
+    {
+        //unnamed keys travel as "#index", named ones as their name, and come back as the same public keys
+        String longKey = "k".repeat(400);
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create(longKey, "", BigDecimal.ONE, longKey, ""));
+        accounts.add(DistributedLedgerAccount.create("named", "bob", BigDecimal.ONE, "named", ""));
+        StatusDataContract status = StatusDataContract.create(1, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        Set<Signature> signatures = Set.of(Signature.create(longKey, "m", "s1"), Signature.create("named", "m", "s2"));
+
+        Set<Signature> onTheWire = Signature.publicKeyToName(signatures, status.getDistributedLedgerAccounts(), status.getKeyIndex());
+        assertTrue(onTheWire.stream().anyMatch(s -> s.getPublicKey().equals(KeyIndex.TOKEN_PREFIX + status.getKeyIndex().indexOf(longKey))));
+        assertTrue(onTheWire.stream().anyMatch(s -> s.getPublicKey().equals("bob")));
+        assertEquals(signatures, Signature.nameToPublicKey(onTheWire, status.getDistributedLedgerAccounts(), status.getKeyIndex()));
+
+        //indexes are stable, new keys go at the end, and the previous block does not see them
+        int index = status.getKeyIndex().indexOf(longKey);
+        StatusDataContract next = status.snapshotForNextBlock();
+        next.getAccountsList().add(DistributedLedgerAccount.create("a new key", "", BigDecimal.ONE, "a new key", ""));
+        next.indexNewKeys();
+        assertEquals(index, next.getKeyIndex().indexOf(longKey));
+        assertEquals(2, next.getKeyIndex().indexOf("a new key"));
+        assertEquals(null, status.getKeyIndex().indexOf("a new key"));
+        assertEquals(next.getPublicKeyIndex(), KeyIndex.create(next.getPublicKeyIndex()).getKeys());
+    }
+
+    @Test
+    public void test136()
+    {
+        //the registry follows the renames done by updateAccountAttributes, and a taken name is refused
+        AccountStore store = AccountStore.create(List.of(
+                DistributedLedgerAccount.create("k1", "alice", BigDecimal.ONE, "k1", ""),
+                DistributedLedgerAccount.create("k2", "", BigDecimal.ONE, "k2", "")));
+        AccountAttributesUpdate rename = new AccountAttributesUpdate();
+        rename.setFrom("k1");
+        rename.setDelegated("k2");
+        rename.setName("carol");
+        rename.setDescription("");
+        AccountAttributesUpdate taken = new AccountAttributesUpdate();
+        taken.setFrom("k2");
+        taken.setDelegated("k2");
+        taken.setName("carol2");
+        taken.setDescription("");
+        DistributedLedgerAccount.updateAccountAttributes(store, Set.of(rename, taken));
+        assertEquals("k1", store.nameToPublicKey("carol"));
+        assertEquals(null, store.nameToPublicKey("alice"));
+        assertEquals("carol2", store.publicKeyToName("k2"));
+        assertEquals("k2", store.get("k1").getValidatorNode());
+
+        AccountAttributesUpdate again = new AccountAttributesUpdate();
+        again.setFrom("k2");
+        again.setDelegated("k2");
+        again.setName("carol");
+        again.setDescription("");
+        DistributedLedgerAccount.updateAccountAttributes(store, Set.of(again));
+        assertEquals("k1", store.nameToPublicKey("carol"));
+        assertEquals("carol2", store.publicKeyToName("k2"));
+    }
+
+    @Test
+    public void test137() throws Exception
+    {
+        //blocks come back from the log, across segments, after a reopen, and a torn write at the end is cut away
+        Path directory = Files.createTempDirectory("blocklog");
+        try (BlockLog log = BlockLog.open(directory, 1000, false))
+        {
+            for (int i = 1; i <= 100; i++)
+            {
+                assertTrue(log.append(i, ("block " + i).repeat(i % 7 + 1).getBytes(StandardCharsets.UTF_8)));
+            }
+            assertFalse(log.append(50, new byte[1]));
+            assertTrue(log.getSegmentCount() > 1);
+        }
+        Path last;
+        try (Stream<Path> files = Files.list(directory))
+        {
+            last = files.filter(p -> p.toString().endsWith(".log")).sorted().reduce((a, b) -> b).get();
+        }
+        Files.write(last, new byte[]{0, 0, 0, 50, 1, 2}, StandardOpenOption.APPEND);
+        try (BlockLog log = BlockLog.open(directory, 1000, false))
+        {
+            assertEquals(100, log.getLastBlockId());
+            for (int i = 1; i <= 100; i++)
+            {
+                assertEquals(("block " + i).repeat(i % 7 + 1), new String(log.read(i), StandardCharsets.UTF_8));
+            }
+            assertEquals(null, log.read(101));
+            assertTrue(log.append(105, "after a gap".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(null, log.read(103));
+            assertEquals("after a gap", new String(log.read(105), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test138() throws Exception
+    {
+        //a snapshot comes back with the same hash, only the newest ones are kept and a damaged one is refused
+        Path directory = Files.createTempDirectory("snapshots");
+        SnapshotStore store = SnapshotStore.open(directory, 2, false);
+        for (int id = 1; id <= 3; id++)
+        {
+            Set<DistributedLedgerAccount> accounts = new HashSet<>();
+            accounts.add(DistributedLedgerAccount.create("k1", "alice", new BigDecimal("10.5"), "k1", ""));
+            accounts.add(DistributedLedgerAccount.create("k2", "", BigDecimal.valueOf(id), "k1", ""));
+            StatusDataContract status = StatusDataContract.create(id, null, accounts, new ArrayList<>(),
+                    new LedgerParameters(), new LedgerParameters(), null, "previous" + id);
+            status.computeHash();
+            ValidatorMessageDataContract pending = ValidatorMessageDataContract.createEmpty(id + 1);
+            store.write(id, WireFormat.getCborMapper().writeValueAsBytes(StateSnapshot.create(status, pending)));
+        }
+        assertEquals(List.of(2, 3), store.getBlockIds());
+
+        StateSnapshot restored = WireFormat.getCborMapper().readValue(store.read(3), StateSnapshot.class);
+        assertTrue(restored.isValid());
+        assertEquals(4, restored.getPendingMessage().getId());
+        assertEquals("alice", restored.getStatusDataContract().getAccountStore().publicKeyToName("k1"));
+        assertEquals(0, BigDecimal.valueOf(3).compareTo(restored.getStatusDataContract().getAccountStore().get("k2").getAmount()));
+
+        restored.getStatusDataContract().setHashPreviousBlock("tampered");
+        assertFalse(restored.isValid());
+        Path last = directory.resolve(String.format("%010d", 3) + ".snap");
+        byte[] bytes = Files.readAllBytes(last);
+        bytes[bytes.length - 5] ^= 1;
+        Files.write(last, bytes);
+        assertEquals(null, store.read(3));
+        assertTrue(store.read(2) != null);
+    }
+
+    @Test
+    public void test139() throws Exception
+    {
+        //ranges and pages come out in block order, moving the origin keeps the blocks after it, the stream has one block per line
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create("k0", "", BigDecimal.ONE, "k0", ""));
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        status.computeHash();
+        LedgerHistory history = LedgerHistory.create(status);
+        List<BlockRecord> records = new ArrayList<>();
+        for (int id = 1; id <= 10; id++)
+        {
+            String key = "k" + id;
+            records.add(historyBlock(status, store -> store.add(DistributedLedgerAccount.create(key, "", BigDecimal.ONE, key, ""))));
+            status = records.get(records.size() - 1).applyTo(status);
+        }
+        for (int i = records.size() - 1; i >= 0; i--)
+        {
+            history.addBlockRecord(records.get(i), null);
+        }
+        assertEquals(List.of(4, 5, 6), history.getInterval(3, 7).getBlockRecords().stream().map(BlockRecord::getBlockId).toList());
+        assertEquals(3, history.getInterval(3, 7).getOriginalContract().getId());
+        assertEquals(List.of(9, 10), history.getPage(8, 5).stream().map(BlockRecord::getBlockId).toList());
+        assertEquals(0, history.getRange(5, 5).size());
+
+        history.changeOriginalContract(4);
+        assertEquals(4, history.getOriginalContract().getId());
+        assertEquals(5, history.getOriginalContract().getAccountStore().size());
+        assertEquals(6, history.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistoryStream.writeNdjson(out, history.getRange(4, 8).values());
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(7, WireFormat.getJsonMapper().readValue(lines[2], BlockRecord.class).getBlockId());
+
+        out.reset();
+        HistoryStream.writeLedgerHistory(out, history.getOriginalContract(), history.getBlockRecords());
+        JsonNode document = WireFormat.getJsonMapper().readTree(out.toByteArray());
+        assertEquals(4, document.get("originalContract").get("id").asInt());
+        assertEquals(6, document.get("blockRecords").size());
+    }
+
+    @Test
+    public void test140() throws Exception
+    {
+        //a block record only holds the accounts it changed, and the statuses rebuilt from it match the hashes of the blocks
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 5000; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("k" + i, i == 1 ? "alice" : "", BigDecimal.valueOf(i), "k0", ""));
+        }
+        StatusDataContract genesis = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        genesis.computeHash();
+        LedgerHistory history = LedgerHistory.create(genesis);
+        StatusDataContract status = genesis;
+        for (int id = 1; id <= 70; id++)
+        {
+            int n = id;
+            BlockRecord record = historyBlock(status, store -> {
+                store.add(DistributedLedgerAccount.create("k" + n, "", BigDecimal.valueOf(-n), "k0", ""));
+                store.add(DistributedLedgerAccount.create("new" + n, "", BigDecimal.ONE, "k0", ""));
+                store.remove(store.get("k" + (n + 2000)));
+            });
+            assertEquals(2, record.getAccountDelta().getChangedAccounts().size());
+            assertEquals(List.of("k" + (n + 2000)), record.getAccountDelta().getRemovedAccounts());
+            status = WireFormat.getCborMapper().readValue(WireFormat.getCborMapper().writeValueAsBytes(record), BlockRecord.class).applyTo(status);
+            assertEquals(record.getStatusHash(), status.calculateHash());
+            history.addBlockRecord(record, status);
+        }
+        //a rename is a changed account, and the registry of the rebuilt status follows it
+        AccountAttributesUpdate rename = new AccountAttributesUpdate();
+        rename.setFrom("k1");
+        rename.setDelegated("k0");
+        rename.setName("bob");
+        rename.setDescription("");
+        BlockRecord renamed = historyBlock(status, store -> DistributedLedgerAccount.updateAccountAttributes(store, Set.of(rename)));
+        assertEquals(1, renamed.getAccountDelta().getChangedAccounts().size());
+        assertEquals("k1", renamed.applyTo(status).getAccountStore().nameToPublicKey("bob"));
+
+        assertEquals(70, history.getStatus(70).getId());
+        assertEquals(0, BigDecimal.valueOf(-66).compareTo(history.getStatus(66).getAccountStore().get("k66").getAmount()));
+        assertEquals(null, history.getStatus(66).getAccountStore().get("k2066"));
+        assertTrue(history.getStatus(65).getAccountStore().get("k2066") != null);
+        assertEquals(null, history.getStatus(71));
+    }
+
+    @Test
+    public void test141()
+    {
+        //payments are found under sender and receiver, a name is resolved to its key, pages follow each other
+        AccountStore accounts = AccountStore.create(List.of(DistributedLedgerAccount.create("kb", "bob", BigDecimal.ONE, "kb", "")));
+        Map<Integer, BlockRecord> blocks = new HashMap<>();
+        AccountPaymentIndex index = AccountPaymentIndex.create(blocks::get);
+        for (int id = 1; id <= 5; id++)
+        {
+            ValidatorMessageDataContract message = ValidatorMessageDataContract.createEmpty(id);
+            message.getPaymentSet().add(settlementPayment("ka", "kc", String.valueOf(id), "s" + id));
+            Payment toName = Payment.createNew("kc", "bob", "", BigDecimal.ONE, id, "t" + id);
+            message.getPaymentSet().add(toName);
+            BlockRecord record = new BlockRecord();
+            record.setBlockId(id);
+            record.setMessage(message);
+            blocks.put(id, WireFormat.getCborMapper().convertValue(record, BlockRecord.class));
+            index.addBlock(record, accounts);
+            index.addBlock(record, accounts);
+        }
+        AccountPaymentsPage first = index.getPayments("kc", 0, 4);
+        assertEquals(10, first.getTotal());
+        assertEquals(4, first.getNextOffset());
+        assertEquals(List.of(1, 1, 2, 2), first.getPayments().stream().map(AccountPayment::getBlockId).toList());
+        AccountPaymentsPage last = index.getPayments("kc", 8, 4);
+        assertEquals(-1, last.getNextOffset());
+        assertEquals(List.of(5, 5), last.getPayments().stream().map(AccountPayment::getBlockId).toList());
+        assertEquals(5, index.getPayments("kb", 0, 100).getTotal());
+        assertEquals(0, index.getPayments("ka", 5, 100).getPayments().size());
+        assertEquals(0, index.getPayments("nobody", 0, 10).getTotal());
+
+        //the payments are read back from the blocks, a block that is gone leaves its payments out of the page
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(last.getPayments().stream().map(AccountPayment::getPayment)
+                .filter(p -> p.getFrom().equals("ka")).findFirst().get().getAmount()));
+        blocks.remove(1);
+        AccountPaymentsPage missing = index.getPayments("kc", 0, 4);
+        assertEquals(List.of(2, 2), missing.getPayments().stream().map(AccountPayment::getBlockId).toList());
+        assertEquals(4, missing.getNextOffset());
+    }
+
+    @Test
+    public void test142()
+    {
+        //point in time lookups give the same accounts as the statuses of those blocks, also after compactions
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 50; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("k" + i, "", BigDecimal.valueOf(i), "k0", ""));
+        }
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        status.computeHash();
+        VersionedAccountStore versioned = VersionedAccountStore.create(status, 40);
+        Random random = new Random(142);
+        List<StatusDataContract> statuses = new ArrayList<>(List.of(status));
+        for (int id = 1; id <= 200; id++)
+        {
+            int changed = random.nextInt(60);
+            int removed = random.nextInt(60);
+            BlockRecord record = historyBlock(status, store -> {
+                store.add(DistributedLedgerAccount.create("k" + changed, "", BigDecimal.valueOf(random.nextInt(1000)), "k0", ""));
+                if (store.get("k" + removed) != null && removed != changed)
+                {
+                    store.remove(store.get("k" + removed));
+                }
+            });
+            status = record.applyTo(status);
+            statuses.add(status);
+            versioned.addBlock(record);
+        }
+        assertEquals(200, versioned.getLastBlockId());
+        assertTrue(versioned.getBaseBlockId() > 0 && versioned.getBaseBlockId() <= 160);
+        for (int id = versioned.getBaseBlockId(); id <= 200; id++)
+        {
+            for (int i = 0; i < 60; i++)
+            {
+                assertEquals(statuses.get(id).getAccountStore().get("k" + i), versioned.getAccount("k" + i, id));
+            }
+        }
+        assertEquals(null, versioned.getAccount("k1", versioned.getBaseBlockId() - 1));
+        assertEquals(null, versioned.getAccount("k1", 201));
+    }
+
+    @Test
+    public void test143() throws Exception
+    {
+        //payments are admitted one by one against the projected balance, the drain hands over a stable set
+        AccountStore accounts = AccountStore.create(List.of(
+                DistributedLedgerAccount.create("alice", "", new BigDecimal("10"), "alice", ""),
+                DistributedLedgerAccount.create("bob", "", new BigDecimal("5"), "bob", "")));
+        Mempool mempool = Mempool.create(3, accounts, 4, List.of());
+        Payment first = Payment.createNew("alice", "bob", "", new BigDecimal("6"), 3, "s1");
+        assertEquals(Mempool.Admission.ACCEPTED, mempool.admit(first));
+        assertEquals(Mempool.Admission.DUPLICATE, mempool.admit(first));
+        assertEquals(Mempool.Admission.INSUFFICIENT_FUNDS,
+                mempool.admit(Payment.createNew("alice", "bob", "", new BigDecimal("5"), 3, "s2")));
+        assertEquals(Mempool.Admission.WRONG_BLOCK,
+                mempool.admit(Payment.createNew("alice", "bob", "", new BigDecimal("1"), 4, "s3")));
+        assertEquals(Mempool.Admission.UNKNOWN_SENDER,
+                mempool.admit(Payment.createNew("carol", "bob", "", new BigDecimal("1"), 3, "s4")));
+        assertEquals(new BigDecimal("4"), mempool.getProjectedBalance("alice"));
+        assertEquals(1, mempool.size());
+
+        //concurrent submissions never go over the balance nor the block size
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Callable<Mempool.Admission>> tasks = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+        {
+            Payment payment = Payment.createNew(i % 2 == 0 ? "alice" : "bob", "alice", "", BigDecimal.ONE, 3, "c" + i);
+            tasks.add(() -> mempool.admit(payment));
+        }
+        long accepted = 0;
+        for (Future<Mempool.Admission> result : executor.invokeAll(tasks))
+        {
+            accepted += result.get() == Mempool.Admission.ACCEPTED ? 1 : 0;
+        }
+        executor.shutdown();
+        assertEquals(3, accepted);
+        assertEquals(4, mempool.size());
+        assertTrue(mempool.getProjectedBalance("alice").signum() >= 0);
+        assertTrue(mempool.getProjectedBalance("bob").signum() >= 0);
+
+        //what was drained is still spent until the block is applied
+        Set<Payment> drained = mempool.drain(4, accounts, 4);
+        assertEquals(4, drained.size());
+        assertTrue(drained.contains(first));
+        assertEquals(0, mempool.size());
+        assertEquals(4, mempool.getBlockId());
+        BigDecimal aliceLeft = mempool.getProjectedBalance("alice");
+        assertEquals(new BigDecimal("10").subtract(drained.stream().filter(p -> p.getFrom().equals("alice"))
+                .map(Payment::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add)), aliceLeft);
+        mempool.admit(Payment.createNew("alice", "bob", "", BigDecimal.ONE, 4, "n1"));
+        assertEquals(aliceLeft.subtract(BigDecimal.ONE), mempool.getProjectedBalance("alice"));
+        assertEquals(4, drained.size());
+    }
+
+    @Test
+    public void test144()
+    {
+        //a validator joining moves the others to new addresses, the kept trees must still give the hash of a fresh status
+        LedgerParameters ledgerParameters = new LedgerParameters();
+        ledgerParameters.setMaxConnections(3);
+        Set<ValidatorNode> joining = new HashSet<>();
+        for (int i = 2; i <= 6; i++)
+        {
+            joining.add(connectedValidatorNode(i));
+        }
+        List<ValidatorNode> validators = ValidatorNode.merge(List.of(), joining, ledgerParameters);
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 300; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("key" + i, "", BigDecimal.valueOf(i), "a2", ""));
+        }
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, validators, ledgerParameters, ledgerParameters, null, "previous");
+        status.computeHash();
+        String parentHash = status.getHash();
+        Map<String, String> parentAddresses = new HashMap<>();
+        validators.forEach(v -> parentAddresses.put(v.getPublicKey(), String.valueOf(v.getAddress())));
+
+        StatusDataContract child = status.snapshotForNextBlock();
+        child.setValidatorNodeList(ValidatorNode.merge(child.getValidatorNodeList(), Set.of(connectedValidatorNode(1)), ledgerParameters));
+        child.getAccountStore().add(DistributedLedgerAccount.create("key7", "", BigDecimal.ONE, "a1", ""));
+        child.getAccountStore().remove(child.getAccountStore().get("key8"));
+        child.setId(1);
+        child.computeHash();
+        assertFalse(child.getValidatorNodeList().stream().allMatch(v -> String.valueOf(v.getAddress()).equals(parentAddresses.get(v.getPublicKey()))));
+        StatusDataContract fresh = StatusDataContract.create(1, null, new HashSet<>(child.getAccountsList()),
+                new ArrayList<>(child.getValidatorNodeList()), ledgerParameters, ledgerParameters, null, "previous");
+        assertEquals(fresh.calculateHash(), child.getHash());
+
+        //the starting status kept its nodes where they were, so it still matches its own hash
+        status.getValidatorNodeList().forEach(v -> assertEquals(parentAddresses.get(v.getPublicKey()), String.valueOf(v.getAddress())));
+        assertEquals(parentHash, status.calculateHash());
+    }
+
+    @Test
+    public void test145()
+    {
+        //statuses before and after a change of the validator set come back from the history with their own hash
+        LedgerParameters ledgerParameters = new LedgerParameters();
+        ledgerParameters.setMaxConnections(3);
+        Set<ValidatorNode> joining = new HashSet<>();
+        for (int i = 2; i <= 6; i++)
+        {
+            joining.add(connectedValidatorNode(i));
+        }
+        Set<DistributedLedgerAccount> accounts = Set.of(DistributedLedgerAccount.create("key0", "", BigDecimal.TEN, "a2", ""));
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, ValidatorNode.merge(List.of(), joining, ledgerParameters),
+                ledgerParameters, ledgerParameters, null, "previous");
+        status.computeHash();
+        LedgerHistory history = LedgerHistory.create(status);
+
+        StatusDataContract child = status.snapshotForNextBlock();
+        child.setHashPreviousBlock(status.getHash());
+        child.setValidatorNodeList(ValidatorNode.merge(child.getValidatorNodeList(), Set.of(connectedValidatorNode(1)), ledgerParameters));
+        child.setId(1);
+        child.computeHash();
+        BlockRevisionResult block = new BlockRevisionResult();
+        block.setStatusDataContractStarting(status);
+        block.setNewStatusDataContract(child);
+        block.setBannedValidators(new HashSet<>());
+        block.setValidValidatorNodes(new HashSet<>());
+        BlockRecord record = BlockRecord.create(block);
+        history.addBlockRecord(record, child);
+        assertEquals(6, record.getValidatorNodeList().size());
+
+        //a node changed in the copy is not changed in the status it was copied from
+        StatusDataContract copy = child.snapshot();
+        copy.getValidatorNodeList().get(0).setAddress(new HashMap<>());
+        assertEquals(child.getHash(), child.calculateHash());
+
+        assertEquals(status.getHash(), history.getStatus(0).calculateHash());
+        assertEquals(child.getHash(), history.getStatus(1).getHash());
+        assertEquals(child.getHash(), history.getStatus(1).calculateHash());
+    }
+
+    @Test
+    public void test146() throws Exception
+    {
+        //a snapshot is brought up to the last logged block, a log that does not follow from it is refused
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 20; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("k" + i, "", BigDecimal.valueOf(i), "k0", ""));
+        }
+        StatusDataContract snapshot = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        snapshot.computeHash();
+        BlockLog log = BlockLog.open(Files.createTempDirectory("replay"), 1 << 20, false);
+        StatusDataContract status = snapshot;
+        for (int id = 1; id <= 5; id++)
+        {
+            int changed = id;
+            BlockRecord record = historyBlock(status, store -> store.add(DistributedLedgerAccount.create("k" + changed, "", BigDecimal.TEN, "k0", "")));
+            log.append(record.getBlockId(), WireFormat.getCborMapper().writeValueAsBytes(record));
+            status = record.applyTo(status);
+        }
+        StatusDataContract replayed = BlockStorage.replay(snapshot, log);
+        assertEquals(5, replayed.getId());
+        assertEquals(status.getHash(), replayed.calculateHash());
+        assertEquals(status, BlockStorage.replay(status, log));
+
+        StatusDataContract other = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "another ledger");
+        other.computeHash();
+        assertEquals(null, BlockStorage.replay(other, log));
+        log.close();
+    }
+
+    @Test
+    public void test147()
+    {
+        //only the last blocks stay in memory, the older ones come from the log and the history reads the same
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create("k0", "", BigDecimal.ONE, "k0", ""));
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        status.computeHash();
+        NavigableMap<Integer, BlockRecord> log = new TreeMap<>();
+        LedgerHistory history = LedgerHistory.create(status, 10, log::get, () -> log.isEmpty() ? -1 : log.lastKey());
+        List<String> hashes = new ArrayList<>(List.of(status.getHash()));
+        for (int id = 1; id <= 70; id++)
+        {
+            String key = "k" + id;
+            BlockRecord record = historyBlock(status, store -> store.add(DistributedLedgerAccount.create(key, "", BigDecimal.ONE, key, "")));
+            status = record.applyTo(status);
+            log.put(record.getBlockId(), record);
+            history.addBlockRecord(record, status);
+            hashes.add(status.getHash());
+        }
+        assertEquals(10, history.size());
+        assertEquals(List.of(1, 2, 3), history.getPage(0, 3).stream().map(BlockRecord::getBlockId).toList());
+        assertEquals(List.of(58, 59, 60, 61, 62), history.getRange(57, 63).values().stream().map(BlockRecord::getBlockId).toList());
+        int count = 0;
+        for (BlockRecord ignored : history.getAllBlocks())
+        {
+            count++;
+        }
+        assertEquals(70, count);
+        assertEquals(hashes.get(30), history.getStatus(30).getHash());
+        assertEquals(hashes.get(66), history.getStatus(66).getHash());
+        assertEquals(31, history.getStatus(30).getAccountStore().size());
+
+        //blocks the log did not write are never evicted
+        for (int id = 71; id <= 80; id++)
+        {
+            String key = "k" + id;
+            BlockRecord record = historyBlock(status, store -> store.add(DistributedLedgerAccount.create(key, "", BigDecimal.ONE, key, "")));
+            status = record.applyTo(status);
+            history.addBlockRecord(record, status);
+            hashes.add(status.getHash());
+        }
+        assertEquals(10, history.size());
+        assertEquals(71, history.getPage(70, 1).get(0).getBlockId());
+        assertEquals(hashes.get(80), history.getStatus(80).getHash());
+        BlockRecord unstored = historyBlock(status, store -> store.add(DistributedLedgerAccount.create("k81", "", BigDecimal.ONE, "k81", "")));
+        history.addBlockRecord(unstored, unstored.applyTo(status));
+        assertEquals(11, history.size());
+        assertEquals(71, history.getBlock(71).getBlockId());
+        assertEquals(null, log.get(71));
+    }
+
+    @Test
+    public void test148()
+    {
+        //peers are read in parallel, merged one at a time on the calling thread, the unreachable ones are read again once
+        List<ValidatorNode> peers = new ArrayList<>();
+        for (int i = 1; i <= 20; i++)
+        {
+            peers.add(connectedValidatorNode(i));
+        }
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        Function<ValidatorNode, String> fetch = peer -> {
+            int attempt = attempts.computeIfAbsent(peer.getPublicKey(), k -> new AtomicInteger()).incrementAndGet();
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (peer.getPublicKey().equals("a5") || (peer.getPublicKey().equals("a3") && attempt == 1))
+            {
+                throw new IllegalStateException("no message from " + peer.getPublicKey());
+            }
+            return peer.getPublicKey().equals("a7") ? null : peer.getPublicKey();
+        };
+        List<String> merged = new ArrayList<>();
+        Set<Thread> mergingThreads = new HashSet<>();
+        long start = System.nanoTime();
+        List<ValidatorNode> failed = WebServiceEngine.readPeersWithRetry(peers, fetch, message -> {
+            merged.add(message);
+            mergingThreads.add(Thread.currentThread());
+        }, 10);
+        long elapsedMilliseconds = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(List.of("a5"), failed.stream().map(ValidatorNode::getPublicKey).toList());
+        assertEquals(18, merged.size());
+        assertTrue(merged.contains("a3"));
+        assertFalse(merged.contains("a7"));
+        assertEquals(Set.of(Thread.currentThread()), mergingThreads);
+        assertEquals(2, attempts.get("a3").get());
+        assertEquals(1, attempts.get("a7").get());
+        assertTrue(elapsedMilliseconds < 1500, "took " + elapsedMilliseconds + " ms");
+    }
+
+    @Test
+    public void test149() throws Exception
+    {
+        //a decoded key is reused until it is evicted, verifiers taken from the pool by many threads give the right answers
+        new Encryption().setKeyAlgorithm("RSA");
+        new Encryption().setSignAlgorithm("SHA256withRSA");
+        new EncryptionEntity_Integrated().setKeyAlgorithm("RSA");
+        new EncryptionEntity_Integrated().setSignAlgorithm("SHA256withRSA");
+        List<EncryptionEntity_Integrated> signers = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            KeyPair keyPair = Encryption.createNewKey();
+            signers.add(EncryptionEntity_Integrated.create(
+                    Encryption.ByteArrayToBase64(keyPair.getPublic().getEncoded()),
+                    Encryption.ByteArrayToBase64(keyPair.getPrivate().getEncoded())));
+        }
+        byte[] firstKey = Encryption.base64ToByteArray(signers.get(0).getPublicKey());
+        try
+        {
+            new Encryption().setPublicKeyCacheSize(2);
+            PublicKey first = Encryption.decodePublicKey(firstKey);
+            assertTrue(first == Encryption.decodePublicKey(firstKey.clone()));
+            Encryption.decodePublicKey(Encryption.base64ToByteArray(signers.get(1).getPublicKey()));
+            Encryption.decodePublicKey(Encryption.base64ToByteArray(signers.get(2).getPublicKey()));
+            PublicKey again = Encryption.decodePublicKey(firstKey);
+            assertFalse(first == again);
+            assertEquals(first, again);
+        }
+        finally
+        {
+            new Encryption().setPublicKeyCacheSize(4096);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            EncryptionEntity_Integrated signer = signers.get(i % 3);
+            String message = "message " + i;
+            byte[] signature = Encryption.base64ToByteArray(signer.signMessage(message));
+            byte[] publicKey = Encryption.base64ToByteArray(signer.getPublicKey());
+            boolean valid = i % 4 != 0;
+            results.add(executor.submit(() -> valid == Encryption.verifySignedMessage(valid ? message : message + "!", publicKey, signature)));
+        }
+        for (Future<Boolean> result : results)
+        {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void test150()
+    {
+        //a successful verification runs once per triple, failures every time, and the least recently used triple goes first
+        VerifiedSignatureCache cache = new VerifiedSignatureCache();
+        AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            cache.setMaxSize(2);
+            VerifiedSignatureCache.clear();
+            long hits = VerifiedSignatureCache.getHits();
+            long misses = VerifiedSignatureCache.getMisses();
+            BiFunction<String, Boolean, Boolean> verify = (data, result) ->
+                    VerifiedSignatureCache.verify(data, "key", "signature", () -> {
+                        calls.incrementAndGet();
+                        return result;
+                    });
+
+            assertTrue(verify.apply("good", true));
+            assertTrue(verify.apply("good", false));
+            assertFalse(verify.apply("bad", false));
+            assertFalse(verify.apply("bad", false));
+            assertTrue(verify.apply("bad", true));
+            assertEquals(4, calls.get());
+            assertEquals(2, VerifiedSignatureCache.size());
+            assertEquals(hits + 1, VerifiedSignatureCache.getHits());
+            assertEquals(misses + 4, VerifiedSignatureCache.getMisses());
+
+            //a flood of failures leaves the cache alone
+            for (int i = 0; i < 10; i++)
+            {
+                assertFalse(verify.apply("garbage" + i, false));
+            }
+            assertEquals(14, calls.get());
+            verify.apply("good", true);
+            verify.apply("bad", true);
+            assertEquals(14, calls.get());
+
+            //"bad" was used last, "good" is the one evicted
+            verify.apply("third", true);
+            assertEquals(2, VerifiedSignatureCache.size());
+            verify.apply("bad", true);
+            assertEquals(15, calls.get());
+            verify.apply("good", true);
+            assertEquals(16, calls.get());
+
+            //nothing to key on, always verified
+            VerifiedSignatureCache.verify("good", null, "signature", () -> calls.incrementAndGet() > 0);
+            VerifiedSignatureCache.verify("good", null, "signature", () -> calls.incrementAndGet() > 0);
+            assertEquals(18, calls.get());
+        }
+        finally
+        {
+            cache.setMaxSize(65536);
+            VerifiedSignatureCache.clear();
+        }
+    }
+
+    @Test
+    public void test151()
+    {
+        //signers taken back from the pool start clean, signMessages keeps the order of the messages
+        new Encryption().setKeyAlgorithm("RSA");
+        new Encryption().setSignAlgorithm("SHA256withRSA");
+        new EncryptionEntity_Integrated().setKeyAlgorithm("RSA");
+        new EncryptionEntity_Integrated().setSignAlgorithm("SHA256withRSA");
+        KeyPair keyPair = Encryption.createNewKey();
+        EncryptionEntity_Integrated signer = EncryptionEntity_Integrated.create(
+                Encryption.ByteArrayToBase64(keyPair.getPublic().getEncoded()),
+                Encryption.ByteArrayToBase64(keyPair.getPrivate().getEncoded()));
+        byte[] publicKey = Encryption.base64ToByteArray(signer.getPublicKey());
+
+        //RSA PKCS#1 signatures are deterministic, a pooled signer must give the same one as a new signer
+        String first = signer.signMessage("message");
+        assertEquals(first, signer.signMessage("message"));
+
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+        {
+            messages.add("message " + i);
+        }
+        List<String> signatures = signer.signMessages(messages);
+        assertEquals(messages.size(), signatures.size());
+        for (int i = 0; i < messages.size(); i++)
+        {
+            assertEquals(signer.signMessage(messages.get(i)), signatures.get(i));
+            assertTrue(Encryption.verifySignedMessage(messages.get(i), publicKey, Encryption.base64ToByteArray(signatures.get(i))));
+        }
+        assertEquals(first, signer.signMessage("message"));
+        assertTrue(signer.signMessages(List.of()).isEmpty());
+    }
+
+    @Test
+    public void test152() throws Exception
+    {
+        //external signMessages sends batches of 64, an answer that fails leaves only its own batch unsigned
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        server.createContext("/signMessages", exchange -> {
+            requests.incrementAndGet();
+            List<String> batch = WireFormat.getJsonMapper().readValue(exchange.getRequestBody().readAllBytes(), new TypeReference<List<String>>() {
+            });
+            byte[] body;
+            int status = 200;
+            if (batch.contains("message 100"))
+            {
+                status = 500;
+                body = "error".getBytes(StandardCharsets.UTF_8);
+            }
+            else if (batch.contains("message 140"))
+            {
+                body = WireFormat.getJsonMapper().writeValueAsBytes(List.of("too short"));
+            }
+            else
+            {
+                body = WireFormat.getJsonMapper().writeValueAsBytes(batch.stream().map(m -> "signed " + m).toList());
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try
+        {
+            EncryptionEntity_ExternalServer signer =
+                    EncryptionEntity_ExternalServer.create("http://127.0.0.1:" + server.getAddress().getPort());
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < 150; i++)
+            {
+                messages.add("message " + i);
+            }
+            List<String> signatures = signer.signMessages(messages);
+            assertEquals(3, requests.get());
+            assertEquals(messages.size(), signatures.size());
+            for (int i = 0; i < messages.size(); i++)
+            {
+                //second batch failed, third one answered the wrong number of signatures
+                assertEquals(i < 64 ? "signed message " + i : "", signatures.get(i));
+            }
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void test153() throws Exception
+    {
+        //the published message is served gzipped only when gzip has a q-value above 0, and a known ETag gets a 304
+        assertTrue(PublishedMessage.acceptsGzip("gzip, deflate"));
+        assertTrue(PublishedMessage.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(PublishedMessage.acceptsGzip("br, *"));
+        assertFalse(PublishedMessage.acceptsGzip(null));
+        assertFalse(PublishedMessage.acceptsGzip("gzip;q=0"));
+        assertFalse(PublishedMessage.acceptsGzip("gzip; q=0.000, identity"));
+        assertFalse(PublishedMessage.acceptsGzip("*, gzip;q=0"));
+        assertFalse(PublishedMessage.acceptsGzip("*;q=0"));
+        assertFalse(PublishedMessage.acceptsGzip("identity, deflate"));
+
+        PublishedMessage message = PublishedMessage.create(Map.of("blockId", 7, "payments", List.of("a", "b")));
+        byte[] identityBytes = message.getIdentityBytes();
+        assertEquals("\"" + md5Hex(new String(identityBytes, StandardCharsets.UTF_8)) + "\"", message.getETag());
+        assertEquals(Encryption.hash(new String(identityBytes, StandardCharsets.UTF_8)), Encryption.hash(identityBytes));
+
+        WebServiceEndpoints endpoints = new WebServiceEndpoints();
+        endpoints.webServiceEngine = new WebServiceEngine() {
+            @Override
+            public PublishedMessage getCurrentlyPublishedMessage() {return message;}
+        };
+        ResponseEntity<byte[]> gzip = endpoints.getCurrentlyTransmittedTransportMessage(null, "gzip", null);
+        assertEquals(200, gzip.getStatusCode().value());
+        assertEquals("gzip", gzip.getHeaders().getFirst("Content-Encoding"));
+        assertEquals(message.getGzipETag(), gzip.getHeaders().getETag());
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(gzip.getBody())))
+        {
+            assertTrue(Arrays.equals(identityBytes, gzipInputStream.readAllBytes()));
+        }
+
+        ResponseEntity<byte[]> identity = endpoints.getCurrentlyTransmittedTransportMessage(null, "gzip;q=0", null);
+        assertEquals(200, identity.getStatusCode().value());
+        assertEquals(null, identity.getHeaders().getFirst("Content-Encoding"));
+        assertEquals(message.getETag(), identity.getHeaders().getETag());
+        assertTrue(Arrays.equals(identityBytes, identity.getBody()));
+
+        ResponseEntity<byte[]> notModified = endpoints.getCurrentlyTransmittedTransportMessage("\"other\", " + message.getGzipETag(), "gzip", null);
+        assertEquals(304, notModified.getStatusCode().value());
+        assertEquals(null, notModified.getBody());
+        assertEquals(200, endpoints.getCurrentlyTransmittedTransportMessage("\"other\"", "gzip", null).getStatusCode().value());
+    }
+
+    @Test
+    public void test154()
+    {
+        //a name that looks like a token is never sent, and a key indexed in this block travels in full
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create("legacy", "#1", BigDecimal.ONE, "legacy", ""));
+        accounts.add(DistributedLedgerAccount.create("other", "", BigDecimal.ONE, "other", ""));
+        StatusDataContract status = StatusDataContract.create(1, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        assertEquals(1, status.getKeyIndex().indexOf("other"));
+        Set<Signature> signatures = Set.of(Signature.create("legacy", "m", "s1"), Signature.create("other", "m", "s2"));
+        Set<Signature> onTheWire = Signature.publicKeyToName(signatures, status.getDistributedLedgerAccounts(), status.getKeyIndex());
+        assertTrue(onTheWire.stream().noneMatch(s -> s.getSignatureValue().equals("s1") && s.getPublicKey().equals("#1")));
+        assertEquals(signatures, Signature.nameToPublicKey(onTheWire, status.getDistributedLedgerAccounts(), status.getKeyIndex()));
+
+        StatusDataContract next = status.snapshotForNextBlock();
+        next.getAccountsList().add(DistributedLedgerAccount.create("a new key", "", BigDecimal.ONE, "a new key", ""));
+        next.indexNewKeys();
+        assertEquals(2, next.getKeyIndex().indexOf("a new key"));
+        assertEquals("a new key", next.getKeyIndex().toToken("a new key"));
+        assertEquals("#1", next.getKeyIndex().toToken("other"));
+        //the peer still on the previous block reads what the peer on the next one sent, and the other way around
+        Set<Signature> fromNext = Set.of(Signature.create("a new key", "m", "s3"), Signature.create("other", "m", "s2"));
+        assertEquals(fromNext, Signature.nameToPublicKey(Signature.publicKeyToName(fromNext, next.getDistributedLedgerAccounts(), next.getKeyIndex()),
+                status.getDistributedLedgerAccounts(), status.getKeyIndex()));
+        assertEquals(signatures, Signature.nameToPublicKey(onTheWire, next.getDistributedLedgerAccounts(), next.getKeyIndex()));
+        //one block later it is a token like the others
+        StatusDataContract after = next.snapshotForNextBlock();
+        assertEquals("#2", after.getKeyIndex().toToken("a new key"));
+
+        assertEquals(null, status.getKeyIndex().fromToken("#01"));
+        assertEquals(null, status.getKeyIndex().fromToken("#+1"));
+        assertEquals("other", status.getKeyIndex().fromToken("#1"));
+    }
+
+    @Test
+    public void test155()
+    {
+        //above the parallel threshold the settlement must give the same accounts as applying the rules one payment at a time
+        BigDecimal cost = new BigDecimal("0.10");
+        Random random = new Random(155);
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 3000; i++)
+        {
+            //a few accounts are already negative, they are banned without paying anything, a few others can barely pay
+            String amount = i % 500 == 0 ? "-1" : i % 50 == 1 ? "1" : (random.nextInt(5000) + 1) + "." + random.nextInt(100);
+            accounts.add(DistributedLedgerAccount.create("k" + i, i % 7 == 0 ? "name" + i : "", new BigDecimal(amount), "v" + (i % 10), ""));
+        }
+        Set<Payment> payments = new HashSet<>();
+        for (int i = 0; i < 6000; i++)
+        {
+            String from = "k" + random.nextInt(3000);
+            //some recipients do not have an account yet
+            String to = (random.nextInt(10) == 0 ? "new" : "k") + random.nextInt(3000);
+            String amount = random.nextInt(20) == 0 ? "0.05" : random.nextInt(800) + "." + random.nextInt(100);
+            payments.add(settlementPayment(from, to, amount, "s" + i));
+        }
+        assertTrue(payments.size() > 2048);
+
+        //the rules of PaymentSettlement, one payment at a time
+        Map<String, BigDecimal> expected = new HashMap<>();
+        accounts.forEach(a -> expected.put(a.getPublicKey(), a.getAmount()));
+        Map<String, BigDecimal> spent = new HashMap<>();
+        payments.forEach(p -> spent.merge(p.getPublicKeyFrom(), p.getAmount(), BigDecimal::add));
+        Set<String> banned = new HashSet<>();
+        spent.forEach((key, amount) -> {
+            if (expected.containsKey(key) && amount.compareTo(expected.get(key)) > 0) banned.add(key);
+        });
+        accounts.stream().filter(a -> a.getAmount().signum() < 0 && !spent.containsKey(a.getPublicKey())).forEach(a -> banned.add(a.getPublicKey()));
+        Set<String> affected = new HashSet<>();
+        for (Payment p : payments)
+        {
+            if (banned.contains(p.getPublicKeyFrom()))
+            {
+                continue;
+            }
+            affected.add(p.getPublicKeyFrom());
+            expected.merge(p.getPublicKeyFrom(), p.getAmount().negate(), BigDecimal::add);
+            if (p.getAmount().compareTo(cost) > 0)
+            {
+                affected.add(p.getPublicKeyTo());
+                expected.merge(p.getPublicKeyTo(), p.getAmount().subtract(cost), BigDecimal::add);
+            }
+        }
+        assertTrue(banned.size() > 10);
+        banned.stream().filter(key -> !affected.contains(key)).forEach(expected::remove);
+        affected.stream().filter(key -> expected.get(key).signum() <= 0).forEach(expected::remove);
+
+        Map<String, DistributedLedgerAccount> before = new HashMap<>();
+        accounts.forEach(a -> before.put(a.getPublicKey(), a));
+        AccountStore store = AccountStore.create(accounts);
+        Payment.processPayments(store, payments, cost);
+        assertTrue(payments.stream().noneMatch(p -> banned.contains(p.getPublicKeyFrom())));
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<String, BigDecimal> entry : expected.entrySet())
+        {
+            DistributedLedgerAccount account = store.get(entry.getKey());
+            assertEquals(0, entry.getValue().compareTo(account.getAmount()), entry.getKey());
+            DistributedLedgerAccount old = before.get(entry.getKey());
+            assertEquals(old == null ? "" : old.getName(), account.getName());
+            assertEquals(old == null ? entry.getKey() : old.getValidatorNode(), account.getValidatorNode());
+        }
+    }
+
+    @Test
+    public void test156()
+    {
+        //names and validators as of a block are the ones of that status, after renames, removals and compactions
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        for (int i = 0; i < 30; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("k" + i, i < 5 ? "n" + i : "", BigDecimal.ONE, "k0", ""));
+        }
+        StatusDataContract status = StatusDataContract.create(0, null, accounts, new ArrayList<>(List.of(connectedValidatorNode(0))),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        status.computeHash();
+        VersionedAccountStore versioned = VersionedAccountStore.create(status, 40);
+        Random random = new Random(156);
+        List<StatusDataContract> statuses = new ArrayList<>(List.of(status));
+        for (int id = 1; id <= 200; id++)
+        {
+            String key = "k" + random.nextInt(30);
+            String name = random.nextInt(4) == 0 ? "" : "n" + random.nextInt(10);
+            boolean remove = random.nextInt(8) == 0;
+            BlockRecord record = historyBlock(status, store -> {
+                DistributedLedgerAccount account = store.get(key);
+                if (remove && account != null)
+                {
+                    store.remove(account);
+                }
+                else if (name.isEmpty() || store.nameToPublicKey(name) == null)
+                {
+                    store.add(DistributedLedgerAccount.create(key, name, BigDecimal.ONE, "k0", ""));
+                }
+            });
+            if (random.nextInt(10) == 0)
+            {
+                List<ValidatorNode> validatorNodes = new ArrayList<>();
+                for (int i = 0; i <= random.nextInt(4); i++)
+                {
+                    validatorNodes.add(connectedValidatorNode(i));
+                }
+                record.setValidatorNodeList(validatorNodes);
+            }
+            status = record.applyTo(status);
+            statuses.add(status);
+            versioned.addBlock(record);
+        }
+        assertTrue(versioned.getBaseBlockId() > 0);
+        for (int id = versioned.getBaseBlockId(); id <= 200; id++)
+        {
+            AccountStore expected = statuses.get(id).getAccountStore();
+            for (int i = 0; i < 10; i++)
+            {
+                assertEquals(expected.getByName("n" + i), versioned.getAccountByName("n" + i, id));
+            }
+            assertEquals(statuses.get(id).getValidatorNodeList().stream().map(ValidatorNode::uniqueString).toList(),
+                    versioned.getValidatorNodeList(id).stream().map(ValidatorNode::uniqueString).toList());
+        }
+        assertEquals(null, versioned.getAccountByName("n1", 201));
+        assertEquals(null, versioned.getValidatorNodeList(versioned.getBaseBlockId() - 1));
+    }
+
+    @Test
+    public void test157() throws Exception
+    {
+        //only the block right after the last one of the log, starting from its hash, is written
+        Set<DistributedLedgerAccount> accounts = new HashSet<>();
+        accounts.add(DistributedLedgerAccount.create("k0", "", BigDecimal.ONE, "k0", ""));
+        StatusDataContract genesis = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "previous");
+        genesis.computeHash();
+        StatusDataContract otherGenesis = StatusDataContract.create(0, null, accounts, new ArrayList<>(),
+                new LedgerParameters(), new LedgerParameters(), null, "another ledger");
+        otherGenesis.computeHash();
+        BlockLog log = BlockLog.open(Files.createTempDirectory("append"), 1 << 20, false);
+        assertTrue(BlockStorage.continuesFrom(log, genesis));
+
+        BlockRecord first = historyBlock(genesis, store -> store.add(DistributedLedgerAccount.create("k1", "", BigDecimal.TEN, "k0", "")));
+        StatusDataContract status = first.applyTo(genesis);
+        BlockRecord second = historyBlock(status, store -> store.add(DistributedLedgerAccount.create("k2", "", BigDecimal.TEN, "k0", "")));
+        BlockRecord third = historyBlock(second.applyTo(status), store -> store.add(DistributedLedgerAccount.create("k3", "", BigDecimal.TEN, "k0", "")));
+        BlockRecord otherFirst = historyBlock(otherGenesis, store -> store.add(DistributedLedgerAccount.create("k1", "", BigDecimal.TEN, "k0", "")));
+        BlockRecord otherSecond = historyBlock(otherFirst.applyTo(otherGenesis), store -> store.add(DistributedLedgerAccount.create("k2", "", BigDecimal.TEN, "k0", "")));
+
+        assertTrue(BlockStorage.append(log, first));
+        assertFalse(BlockStorage.append(log, first));
+        assertFalse(BlockStorage.append(log, otherFirst));
+        assertFalse(BlockStorage.append(log, third));
+        assertFalse(BlockStorage.append(log, otherSecond));
+        assertEquals(1, log.getLastBlockId());
+        assertTrue(BlockStorage.append(log, second));
+        assertEquals(2, log.getLastBlockId());
+        assertFalse(BlockStorage.append(null, third));
+
+        //reopened, the hash of the last block is read back from the log
+        Path directory = Files.createTempDirectory("reopen");
+        try (BlockLog written = BlockLog.open(directory, 1 << 20, false))
+        {
+            assertTrue(BlockStorage.append(written, first));
+        }
+        try (BlockLog reopened = BlockLog.open(directory, 1 << 20, false))
+        {
+            assertTrue(BlockStorage.continuesFrom(reopened, status));
+            assertFalse(BlockStorage.continuesFrom(reopened, genesis));
+            assertFalse(BlockStorage.continuesFrom(reopened, otherFirst.applyTo(otherGenesis)));
+            assertFalse(BlockStorage.append(reopened, otherSecond));
+            assertTrue(BlockStorage.append(reopened, second));
+        }
+        log.close();
+    }
+
+    @Test
+    public void test158() throws Exception
+    {
+        //a proof only checks out over the full depth, from the bucket of the key, and entries are not hashed like plain strings
+        List<DistributedLedgerAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+        {
+            accounts.add(DistributedLedgerAccount.create("key" + i, "", BigDecimal.valueOf(i), "key0", ""));
+        }
+        MerkleStateTree<DistributedLedgerAccount> tree = new MerkleStateTree<>(12, DistributedLedgerAccount::getPublicKey, DistributedLedgerAccount::uniqueString);
+        tree.sync(accounts);
+        DistributedLedgerAccount account = accounts.get(42);
+        MerkleStateTree.Proof proof = tree.proof(account);
+        assertEquals(tree.rootHash(), MerkleStateTree.computeRoot("key42", account.uniqueString(), 12, proof));
+
+        assertEquals(null, MerkleStateTree.computeRoot("key42", account.uniqueString(), 12,
+                new MerkleStateTree.Proof(proof.bucket(), proof.bucketHashes(), proof.siblingHashes().subList(1, 12))));
+        assertEquals(null, MerkleStateTree.computeRoot("key42", account.uniqueString(), 12,
+                new MerkleStateTree.Proof(proof.bucket() ^ 1, proof.bucketHashes(), proof.siblingHashes())));
+        assertEquals(null, MerkleStateTree.computeRoot("key43", account.uniqueString(), 12, proof));
+
+        String plainHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                .digest(account.uniqueString().getBytes(StandardCharsets.UTF_8)));
+        assertFalse(proof.bucketHashes().contains(plainHash));
+    }
+
+    private static ValidatorNode connectedValidatorNode(int i)
+    {
+        ValidatorNode validatorNode = new ValidatorNode();
+        validatorNode.setPublicKey("a" + i);
+        validatorNode.setSignature("");
+        validatorNode.setConnectionString("http://10.0.0." + i + ":8080");
+        return validatorNode;
+    }
+
+    //the next status with the changes applied, and the record of that block
+    private static BlockRecord historyBlock(StatusDataContract parent, Consumer<AccountStore> change)
+    {
+        StatusDataContract child = parent.snapshotForNextBlock();
+        child.setHashPreviousBlock(parent.getHash());
+        change.accept(child.getAccountStore());
+        child.setId(parent.getId() + 1);
+        child.indexNewKeys();
+        child.computeHash();
+        BlockRevisionResult block = new BlockRevisionResult();
+        block.setStatusDataContractStarting(parent);
+        block.setNewStatusDataContract(child);
+        block.setBannedValidators(new HashSet<>());
+        block.setValidValidatorNodes(new HashSet<>());
+        return BlockRecord.create(block);
+    }
+
+    private static Payment settlementPayment(String from, String to, String amount, String signature)
+    {
+        Payment payment = Payment.createNew(from, to, "", new BigDecimal(amount), 1, signature);
+        return payment.setPublicKey(from, to);
+    }
+
+    private static String md5Hex(String value) throws Exception
+    {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(StandardCharsets.UTF_8.encode(value));
+        return String.format("%032x", new BigInteger(1, md5.digest()));
+    }
+
     public static ValidatorNode getvalidatorNode(int i, LedgerParameters ledgerParameters)
     {
         ValidatorNode validatorNode = new ValidatorNode();